@@ -0,0 +1,115 @@
+/*
+ *  Copyright 2016 Radim Hatlapatka.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package cz.muni.pdfjbim;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * journal of files already recompressed by batch, each completed file is appended as soon as it is finished,
+ * so that interrupted batch can be resumed. File is recorded with its size and time of last modification
+ * (line "size TAB mtime TAB path"), file changed after it was recorded is not considered completed.
+ *
+ * @author Radim Hatlapatka (hata.radim@gmail.com)
+ */
+public class BatchJournal implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(BatchJournal.class);
+
+    private final Map<String, String> completed = new HashMap<String, String>();
+    private final FileOutputStream fos;
+    private final Writer writer;
+
+    /**
+     * opens journal, files recorded in existing journal are considered completed
+     *
+     * @param journalFile file containing journal, created if it doesn't exist
+     * @throws IOException if journal can't be read or opened for appending
+     */
+    public BatchJournal(File journalFile) throws IOException {
+        if (journalFile == null) {
+            throw new NullPointerException("journalFile");
+        }
+        boolean terminated = true;
+        if (journalFile.exists()) {
+            String content = FileUtils.readFileToString(journalFile, StandardCharsets.UTF_8);
+            // last line without terminator was cut short when previous run was killed while writing it
+            int end = content.lastIndexOf('\n') + 1;
+            terminated = (end == content.length());
+            for (String line : content.substring(0, end).split("\n")) {
+                String[] fields = line.split("\t", 3);
+                if (fields.length == 3) {
+                    completed.put(fields[2], fields[0] + "\t" + fields[1]);
+                } else if (!line.isEmpty()) {
+                    log.warn("Ignoring malformed line of journal {}: {}", journalFile, line);
+                }
+            }
+            log.info("Journal {} contains {} completed files", journalFile, completed.size());
+        }
+        fos = new FileOutputStream(journalFile, true);
+        writer = new OutputStreamWriter(fos, StandardCharsets.UTF_8);
+        if (!terminated) {
+            // incomplete line is terminated, so that it doesn't merge with the next record
+            writer.write('\n');
+            writer.flush();
+        }
+    }
+
+    /**
+     * @param pdfFile input file of batch
+     * @return true if file was already recompressed and it wasn't changed since then
+     */
+    public synchronized boolean isCompleted(File pdfFile) throws IOException {
+        return getVersion(pdfFile).equals(completed.get(pdfFile.getCanonicalPath()));
+    }
+
+    /**
+     * records file in its current version as completed and writes it to the disk immediately
+     *
+     * @param pdfFile input file of batch (already overwritten if batch replaces input files)
+     * @throws IOException if journal can't be written
+     */
+    public synchronized void markCompleted(File pdfFile) throws IOException {
+        String path = pdfFile.getCanonicalPath();
+        String version = getVersion(pdfFile);
+        writer.write(version);
+        writer.write('\t');
+        writer.write(path);
+        writer.write('\n');
+        writer.flush();
+        fos.getFD().sync();
+        completed.put(path, version);
+    }
+
+    private static String getVersion(File pdfFile) {
+        return pdfFile.length() + "\t" + pdfFile.lastModified();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        writer.close();
+    }
+}
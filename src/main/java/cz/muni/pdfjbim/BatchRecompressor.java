@@ -0,0 +1,290 @@
+/*
+ *  Copyright 2016 Radim Hatlapatka.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package cz.muni.pdfjbim;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * recompresses many PDF documents at the same time, documents are scheduled on work-stealing pool
+ * and all of them share global budget of jbig2enc processes given by options.
+ * Completed documents are recorded in journal, so that killed batch can be resumed.
+ *
+ * @author Radim Hatlapatka (hata.radim@gmail.com)
+ */
+public class BatchRecompressor {
+
+    private static final Logger log = LoggerFactory.getLogger(BatchRecompressor.class);
+
+    private final PdfRecompressor recompressor;
+    private final int parallelism;
+
+    /**
+     * @param options options used for all documents, encoder permits should be set to bound number
+     * of jbig2enc processes of the whole batch
+     * @param parallelism number of documents recompressed at the same time
+     */
+    public BatchRecompressor(RecompressionOptions options, int parallelism) {
+        if (options == null) {
+            throw new NullPointerException("options");
+        }
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism");
+        }
+        this.recompressor = new PdfRecompressor(options);
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * collects PDF files given by list of specifications, specification can be
+     * <ul>
+     * <li>directory - all PDF files in the directory and its subdirectories</li>
+     * <li>glob pattern (e.g. /data/*&#47;*.pdf) - all matching files</li>
+     * <li>manifest prefixed by @ - text file containing one specification per line
+     * (empty lines and lines starting with # are ignored)</li>
+     * <li>PDF file</li>
+     * </ul>
+     *
+     * @param specifications specifications of input files
+     * @return input files associated with their path relative to the base of their specification
+     * (used for placing output files), in order they were found
+     * @throws PdfRecompressionException if directory or manifest can't be read
+     */
+    public static Map<File, String> collectInputs(List<String> specifications) throws PdfRecompressionException {
+        if (specifications == null) {
+            throw new NullPointerException("specifications");
+        }
+        Map<File, String> inputs = new LinkedHashMap<File, String>();
+        for (String specification : specifications) {
+            collectInputs(specification, inputs);
+        }
+        return inputs;
+    }
+
+    private static void collectInputs(String specification, Map<File, String> inputs)
+            throws PdfRecompressionException {
+        try {
+            if (specification.startsWith("@")) {
+                File manifest = new File(specification.substring(1));
+                for (String line : FileUtils.readLines(manifest, StandardCharsets.UTF_8)) {
+                    line = line.trim();
+                    if (!line.isEmpty() && !line.startsWith("#")) {
+                        collectInputs(line, inputs);
+                    }
+                }
+            } else if (isGlob(specification)) {
+                Path base = getGlobBase(specification);
+                PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + specification);
+                walk(base, matcher, inputs);
+            } else {
+                File file = new File(specification);
+                if (file.isDirectory()) {
+                    PathMatcher pdfMatcher = FileSystems.getDefault().getPathMatcher("glob:**.{pdf,PDF}");
+                    walk(file.toPath(), pdfMatcher, inputs);
+                } else if (file.isFile()) {
+                    inputs.put(file, file.getName());
+                } else {
+                    log.warn("{} doesn't exist => skipping", specification);
+                }
+            }
+        } catch (IOException ex) {
+            throw new PdfRecompressionException("Unable to collect input files from " + specification, ex);
+        }
+    }
+
+    private static boolean isGlob(String specification) {
+        for (char c : "*?[{".toCharArray()) {
+            if (specification.indexOf(c) != -1) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the longest leading part of glob pattern without any special character
+     */
+    private static Path getGlobBase(String glob) {
+        Path pattern = Paths.get(glob);
+        Path base = pattern.getRoot();
+        for (Path part : pattern) {
+            if (isGlob(part.toString())) {
+                break;
+            }
+            base = (base == null) ? part : base.resolve(part);
+        }
+        return (base == null) ? Paths.get(".") : base;
+    }
+
+    private static void walk(final Path base, final PathMatcher matcher, final Map<File, String> inputs)
+            throws IOException {
+        if (!Files.isDirectory(base)) {
+            log.warn("{} is not a directory => skipping", base);
+            return;
+        }
+        final List<Path> found = new ArrayList<Path>();
+        Files.walkFileTree(base, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (attrs.isRegularFile() && (matcher.matches(file) || matcher.matches(base.relativize(file)))) {
+                    found.add(file);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        // order of files in directory isn't defined => sorting makes batches reproducible
+        Collections.sort(found);
+        for (Path file : found) {
+            inputs.put(file.toFile(), base.relativize(file).toString());
+        }
+    }
+
+    /**
+     * recompresses all input files, documents recorded in the journal are skipped and each successfully
+     * recompressed document is recorded there
+     *
+     * @param inputs input files associated with their relative paths (as returned by collectInputs)
+     * @param outputDir directory where recompressed files are stored under their relative path,
+     * if null input files are overwritten
+     * @param journal journal of completed files or null if batch shouldn't be resumable
+     * @return result of the batch
+     * @throws PdfRecompressionException if batch was interrupted
+     */
+    public Result run(Map<File, String> inputs, final File outputDir, final BatchJournal journal)
+            throws PdfRecompressionException {
+        if (inputs == null) {
+            throw new NullPointerException("inputs");
+        }
+        final Result result = new Result();
+        ExecutorService executor = Executors.newWorkStealingPool(parallelism);
+        try {
+            for (Map.Entry<File, String> input : inputs.entrySet()) {
+                final File pdfFile = input.getKey();
+                final String relativePath = input.getValue();
+                executor.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        recompress(pdfFile, relativePath, outputDir, journal, result);
+                    }
+                });
+            }
+            executor.shutdown();
+            while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                log.info("Batch in progress: {} recompressed, {} skipped, {} failed of {} files",
+                        new Object[]{result.getRecompressed(), result.getSkipped(), result.getFailed().size(),
+                            inputs.size()});
+            }
+        } catch (InterruptedException ex) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+            throw new PdfRecompressionException("Batch was interrupted", ex);
+        }
+        log.info("Batch finished: {} recompressed, {} skipped, {} failed",
+                new Object[]{result.getRecompressed(), result.getSkipped(), result.getFailed().size()});
+        return result;
+    }
+
+    private void recompress(File pdfFile, String relativePath, File outputDir, BatchJournal journal, Result result) {
+        try {
+            if ((journal != null) && journal.isCompleted(pdfFile)) {
+                log.debug("{} was already recompressed => skipping", pdfFile);
+                result.skipped.incrementAndGet();
+                return;
+            }
+            File output = pdfFile;
+            if (outputDir != null) {
+                output = new File(outputDir, relativePath);
+                File parent = output.getParentFile();
+                if (!parent.isDirectory() && !parent.mkdirs() && !parent.isDirectory()) {
+                    throw new IOException("Unable to create directory " + parent);
+                }
+            }
+            int images = recompressor.recompress(pdfFile, output);
+            log.info("{} recompressed ({} images)", pdfFile, images);
+            if (journal != null) {
+                journal.markCompleted(pdfFile);
+            }
+            result.recompressed.incrementAndGet();
+        } catch (PdfRecompressionException ex) {
+            log.warn("Recompression of " + pdfFile + " failed", ex);
+            result.addFailed(pdfFile);
+        } catch (IOException ex) {
+            log.warn("Recompression of " + pdfFile + " failed", ex);
+            result.addFailed(pdfFile);
+        } catch (RuntimeException ex) {
+            // one broken document can't stop the whole batch
+            log.warn("Recompression of " + pdfFile + " failed", ex);
+            result.addFailed(pdfFile);
+        }
+    }
+
+    /**
+     * result of batch recompression
+     */
+    public static class Result {
+
+        private final AtomicInteger recompressed = new AtomicInteger();
+        private final AtomicInteger skipped = new AtomicInteger();
+        private final List<File> failed = new ArrayList<File>();
+
+        /**
+         * @return number of successfully recompressed files
+         */
+        public int getRecompressed() {
+            return recompressed.get();
+        }
+
+        /**
+         * @return number of files skipped because they were already recompressed according to journal
+         */
+        public int getSkipped() {
+            return skipped.get();
+        }
+
+        /**
+         * @return files which couldn't be recompressed
+         */
+        public synchronized List<File> getFailed() {
+            return new ArrayList<File>(failed);
+        }
+
+        private synchronized void addFailed(File pdfFile) {
+            failed.add(pdfFile);
+        }
+    }
+}
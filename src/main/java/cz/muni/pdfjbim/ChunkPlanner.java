@@ -0,0 +1,168 @@
+/*
+ *  Copyright 2016 Radim Hatlapatka.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package cz.muni.pdfjbim;
+
+import cz.muni.pdfjbim.jbig2.BitonalImage;
+import cz.muni.pdfjbim.jbig2.ConnectedComponents;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * splits images into chunks sharing global dictionary, so that images with similar symbols get
+ * to the same chunk. Each image is described by MinHash signature of set of shapes of its connected
+ * components, similarity of signatures estimates Jaccard similarity of the sets of shapes.
+ * Chunks are filled greedily by the most similar image, signature of chunk is elementwise minimum of
+ * signatures of its images (MinHash of union of their sets).
+ *
+ * @author Radim Hatlapatka (hata.radim@gmail.com)
+ */
+public class ChunkPlanner {
+
+    /**
+     * number of hash functions of MinHash signature
+     */
+    public static final int SIGNATURE_SIZE = 64;
+
+    // components outside of these bounds are noise or pictures, not symbols
+    private static final int MIN_SYMBOL_PIXELS = 4;
+    private static final int MAX_SYMBOL_SIZE = 256;
+    // shapes are compared on grid of this size (8 x 8 bits fit into one long)
+    private static final int GRID = 8;
+
+    private final int maxImagesPerChunk;
+
+    /**
+     * @param maxImagesPerChunk maximal number of images of one chunk
+     */
+    public ChunkPlanner(int maxImagesPerChunk) {
+        if (maxImagesPerChunk < 1) {
+            throw new IllegalArgumentException("maxImagesPerChunk");
+        }
+        this.maxImagesPerChunk = maxImagesPerChunk;
+    }
+
+    /**
+     * computes MinHash signature of shapes of symbols of image, images without symbols
+     * have signature of empty set (all values are Long.MAX_VALUE)
+     *
+     * @param image bi-tonal image
+     * @return signature of SIGNATURE_SIZE values
+     */
+    public static long[] computeSignature(BitonalImage image) {
+        if (image == null) {
+            throw new NullPointerException("image");
+        }
+        long[] signature = new long[SIGNATURE_SIZE];
+        Arrays.fill(signature, Long.MAX_VALUE);
+        for (ConnectedComponents.Component component : ConnectedComponents.find(image)) {
+            BitonalImage symbol = component.getBitmap();
+            int width = symbol.getWidth();
+            int height = symbol.getHeight();
+            if ((width > MAX_SYMBOL_SIZE) || (height > MAX_SYMBOL_SIZE)
+                    || (symbol.countBlackPixels() < MIN_SYMBOL_PIXELS)) {
+                continue;
+            }
+            long shape = getShapeHash(symbol);
+            for (int i = 0; i < SIGNATURE_SIZE; i++) {
+                long value = mix(shape + (i + 1) * 0x9E3779B97F4A7C15L) & Long.MAX_VALUE;
+                if (value < signature[i]) {
+                    signature[i] = value;
+                }
+            }
+        }
+        return signature;
+    }
+
+    /**
+     * hash of shape tolerating small differences of size, symbols of the same class of lossy coding
+     * mostly get the same hash
+     */
+    private static long getShapeHash(BitonalImage symbol) {
+        BitonalImage grid = symbol.scale(GRID, GRID);
+        long shape = 0;
+        for (int y = 0; y < GRID; y++) {
+            shape = (shape << GRID) | (grid.getWord(y, 0) >>> (64 - GRID));
+        }
+        long size = ((long) (symbol.getWidth() / 4) << 16) | (symbol.getHeight() / 4);
+        return mix(shape ^ mix(size));
+    }
+
+    private static long mix(long value) {
+        value = (value ^ (value >>> 33)) * 0xFF51AFD7ED558CCDL;
+        value = (value ^ (value >>> 33)) * 0xC4CEB9FE1A85EC53L;
+        return value ^ (value >>> 33);
+    }
+
+    /**
+     * @return estimate of Jaccard similarity of sets described by signatures (0 if any of them is empty)
+     */
+    public static double estimateSimilarity(long[] first, long[] second) {
+        int equal = 0;
+        for (int i = 0; i < SIGNATURE_SIZE; i++) {
+            if ((first[i] == second[i]) && (first[i] != Long.MAX_VALUE)) {
+                equal++;
+            }
+        }
+        return (double) equal / SIGNATURE_SIZE;
+    }
+
+    /**
+     * splits images into chunks, each chunk is started by the first image not assigned yet (so that
+     * chunks roughly follow order of images) and filled by images the most similar to the chunk
+     *
+     * @param signatures signatures of images
+     * @return indexes of images of each chunk, in ascending order within chunk
+     */
+    public List<List<Integer>> plan(List<long[]> signatures) {
+        if (signatures == null) {
+            throw new NullPointerException("signatures");
+        }
+        List<Integer> remaining = new ArrayList<Integer>();
+        for (int i = 0; i < signatures.size(); i++) {
+            remaining.add(i);
+        }
+        List<List<Integer>> chunks = new ArrayList<List<Integer>>();
+        while (!remaining.isEmpty()) {
+            int first = remaining.remove(0);
+            List<Integer> chunk = new ArrayList<Integer>();
+            chunk.add(first);
+            long[] chunkSignature = signatures.get(first).clone();
+            while ((chunk.size() < maxImagesPerChunk) && !remaining.isEmpty()) {
+                int bestIndex = 0;
+                double bestSimilarity = -1;
+                for (int i = 0; i < remaining.size(); i++) {
+                    double similarity = estimateSimilarity(chunkSignature, signatures.get(remaining.get(i)));
+                    if (similarity > bestSimilarity) {
+                        bestSimilarity = similarity;
+                        bestIndex = i;
+                    }
+                }
+                int image = remaining.remove(bestIndex);
+                chunk.add(image);
+                long[] signature = signatures.get(image);
+                for (int i = 0; i < SIGNATURE_SIZE; i++) {
+                    chunkSignature[i] = Math.min(chunkSignature[i], signature[i]);
+                }
+            }
+            Collections.sort(chunk);
+            chunks.add(chunk);
+        }
+        return chunks;
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ *  Copyright 2016 Radim Hatlapatka.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package cz.muni.pdfjbim;
+
+import cz.muni.pdfjbim.jbig2.BitonalImage;
+import cz.muni.pdfjbim.jbig2.EncodedChunk;
+import java.util.List;
+
+/**
+ * encoder of chunks of bi-tonal images to JBIG2 streams embeddable into PDF.
+ * Implementations are found by ServiceLoader (listed in META-INF/services/cz.muni.pdfjbim.ImageEncoder),
+ * one instance is shared by all recompressions => it must be thread-safe.
+ *
+ * @author Radim Hatlapatka (hata.radim@gmail.com)
+ */
+public interface ImageEncoder {
+
+    /**
+     * @return name selecting this encoder in options (option -encoder)
+     */
+    String getName();
+
+    /**
+     * encodes images of one chunk, images may share global data
+     *
+     * @param images bi-tonal images
+     * @param options options of recompression (thresholds and other parameters of encoding)
+     * @return global data and data of each image in the same order as images
+     * @throws PdfRecompressionException if encoding fails
+     */
+    EncodedChunk encode(List<BitonalImage> images, RecompressionOptions options) throws PdfRecompressionException;
+}
@@ -0,0 +1,72 @@
+/*
+ *  Copyright 2016 Radim Hatlapatka.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package cz.muni.pdfjbim;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.ServiceLoader;
+import java.util.Set;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * registry of image encoders found by ServiceLoader when this class is loaded
+ *
+ * @author Radim Hatlapatka (hata.radim@gmail.com)
+ */
+public final class ImageEncoders {
+
+    private static final Logger log = LoggerFactory.getLogger(ImageEncoders.class);
+
+    private static final Map<String, ImageEncoder> ENCODERS = load();
+
+    private ImageEncoders() {
+    }
+
+    private static Map<String, ImageEncoder> load() {
+        Map<String, ImageEncoder> encoders = new LinkedHashMap<String, ImageEncoder>();
+        for (ImageEncoder encoder : ServiceLoader.load(ImageEncoder.class, ImageEncoders.class.getClassLoader())) {
+            if (encoders.containsKey(encoder.getName())) {
+                log.warn("Encoder {} is provided by {} and {} => the first one is used",
+                        new Object[]{encoder.getName(), encoders.get(encoder.getName()).getClass().getName(),
+                            encoder.getClass().getName()});
+                continue;
+            }
+            encoders.put(encoder.getName(), encoder);
+        }
+        return Collections.unmodifiableMap(encoders);
+    }
+
+    /**
+     * @param name name of encoder
+     * @return encoder of given name or null if there is no such encoder
+     */
+    public static ImageEncoder get(String name) {
+        if (name == null) {
+            throw new NullPointerException("name");
+        }
+        return ENCODERS.get(name);
+    }
+
+    /**
+     * @return names of all available encoders in order they were found
+     */
+    public static Set<String> getNames() {
+        return ENCODERS.keySet();
+    }
+}
@@ -0,0 +1,36 @@
+/*
+ *  Copyright 2016 Radim Hatlapatka.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package cz.muni.pdfjbim;
+
+import cz.muni.pdfjbim.jbig2.BitonalImage;
+
+/**
+ * receives images from PdfImageExtractor as soon as they are extracted
+ *
+ * @author Radim Hatlapatka (hata.radim@gmail.com)
+ */
+public interface ImageExtractionListener {
+
+    /**
+     * called after image was extracted
+     *
+     * @param image bi-tonal image (images which are not bi-tonal are already thresholded)
+     * @param pdfImageInfo informations about the image
+     * @throws PdfRecompressionException if image can't be processed, extraction is stopped
+     */
+    void imageExtracted(BitonalImage image, PdfImageInformation pdfImageInfo) throws PdfRecompressionException;
+}
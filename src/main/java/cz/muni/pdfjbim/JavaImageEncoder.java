@@ -0,0 +1,39 @@
+/*
+ *  Copyright 2016 Radim Hatlapatka.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package cz.muni.pdfjbim;
+
+import cz.muni.pdfjbim.jbig2.BitonalImage;
+import cz.muni.pdfjbim.jbig2.EncodedChunk;
+import java.util.List;
+
+/**
+ * encodes images in JVM as lossless generic regions
+ *
+ * @author Radim Hatlapatka (hata.radim@gmail.com)
+ */
+public class JavaImageEncoder implements ImageEncoder {
+
+    @Override
+    public String getName() {
+        return RecompressionOptions.ENCODER_JAVA;
+    }
+
+    @Override
+    public EncodedChunk encode(List<BitonalImage> images, RecompressionOptions options) throws PdfRecompressionException {
+        return new JavaJbig2Encoder().encodeBitmaps(images);
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ *  Copyright 2016 Radim Hatlapatka.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package cz.muni.pdfjbim;
+
+import cz.muni.pdfjbim.jbig2.BitonalImage;
+import cz.muni.pdfjbim.jbig2.EncodedChunk;
+import cz.muni.pdfjbim.jbig2.GenericRegionEncoder;
+import cz.muni.pdfjbim.jbig2.SymbolEncoder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * encoder running in JVM instead of jbig2enc process, each image is encoded either as JBIG2 generic region
+ * (lossless, without global dictionary) or by symbol coding with symbol dictionary shared by the whole chunk
+ * (as jbig2enc -s does), components are then found and classified on all available processors
+ *
+ * @author Radim Hatlapatka (hata.radim@gmail.com)
+ */
+public class JavaJbig2Encoder {
+
+    private static final Logger log = LoggerFactory.getLogger(JavaJbig2Encoder.class);
+
+    private boolean symbolCoding = false;
+    private double defaultThresh = 0.85;
+
+    public boolean isSymbolCoding() {
+        return symbolCoding;
+    }
+
+    /**
+     * @param symbolCoding true if images should be encoded by symbol coding, otherwise generic regions are used
+     */
+    public void setSymbolCoding(boolean symbolCoding) {
+        this.symbolCoding = symbolCoding;
+    }
+
+    public double getDefaultThresh() {
+        return defaultThresh;
+    }
+
+    /**
+     * @param defaultThresh minimal similarity (0-1) of components sharing symbol, 1 means lossless coding
+     * (the same meaning as option -t of jbig2enc)
+     */
+    public void setDefaultThresh(double defaultThresh) {
+        if ((defaultThresh <= 0) || (defaultThresh > 1)) {
+            throw new IllegalArgumentException("defaultThresh");
+        }
+        this.defaultThresh = defaultThresh;
+    }
+
+    /**
+     * encodes bitmaps of one chunk
+     *
+     * @param bitmaps bitmaps of images
+     * @return encoded images in the same order, global data are present only with symbol coding
+     * @throws PdfRecompressionException if encoding was interrupted
+     */
+    public EncodedChunk encodeBitmaps(List<BitonalImage> bitmaps) throws PdfRecompressionException {
+        if (bitmaps == null) {
+            throw new NullPointerException("bitmaps");
+        }
+        if (!symbolCoding) {
+            GenericRegionEncoder encoder = new GenericRegionEncoder();
+            List<byte[]> imagesData = new ArrayList<byte[]>(bitmaps.size());
+            for (BitonalImage bitmap : bitmaps) {
+                imagesData.add(encoder.encodePage(bitmap));
+                log.debug("Encoded {} as generic region", bitmap);
+            }
+            return new EncodedChunk(null, imagesData);
+        }
+        try {
+            // classification is CPU bound => common pool bounded by number of processors is shared by all chunks
+            EncodedChunk chunk = new SymbolEncoder(defaultThresh, ForkJoinPool.commonPool()).encode(bitmaps);
+            log.debug("Encoded {} images by symbol coding, global data contain {} bytes", bitmaps.size(),
+                    (chunk.getGlobalData() == null) ? 0 : chunk.getGlobalData().length);
+            return chunk;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new PdfRecompressionException("encoding of images was interrupted", ex);
+        }
+    }
+}
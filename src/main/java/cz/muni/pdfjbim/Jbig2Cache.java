@@ -0,0 +1,334 @@
+/*
+ *  Copyright 2016 Radim Hatlapatka.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package cz.muni.pdfjbim;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * persistent cache of encoded chunks, chunk is identified by content hashes of its images
+ * and by parameters of jbig2enc. Size of the cache is bounded, least recently used chunks are evicted first.
+ * The same instance can be shared by several recompressions running at the same time.
+ *
+ * @author Radim Hatlapatka (hata.radim@gmail.com)
+ */
+public class Jbig2Cache {
+
+    private static final Logger log = LoggerFactory.getLogger(Jbig2Cache.class);
+
+    private static final int FORMAT_VERSION = 1;
+    private static final String SUFFIX = ".jb2c";
+
+    private final File directory;
+    private final long maxSize;
+    private final Map<String, Long> entries = new LinkedHashMap<String, Long>(16, 0.75f, true);
+    private long size = 0;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * opens cache stored in given directory, entries already stored there are reused
+     *
+     * @param directory directory where encoded chunks are stored, created if it doesn't exist
+     * @param maxSize maximal size of stored chunks in bytes
+     * @throws PdfRecompressionException if directory can't be created
+     */
+    public Jbig2Cache(File directory, long maxSize) throws PdfRecompressionException {
+        if (directory == null) {
+            throw new NullPointerException("directory");
+        }
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize");
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new PdfRecompressionException("Unable to create cache directory " + directory);
+        }
+        this.directory = directory;
+        this.maxSize = maxSize;
+
+        File[] files = directory.listFiles();
+        if (files == null) {
+            throw new PdfRecompressionException("Unable to read cache directory " + directory);
+        }
+        // last modification time is updated on every hit => the oldest file is the least recently used
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File f1, File f2) {
+                return Long.compare(f1.lastModified(), f2.lastModified());
+            }
+        });
+        for (File file : files) {
+            String name = file.getName();
+            if (file.isFile() && name.endsWith(SUFFIX)) {
+                entries.put(name.substring(0, name.length() - SUFFIX.length()), file.length());
+                size += file.length();
+            }
+        }
+        evict();
+        log.debug("Opened cache {} containing {} chunks ({} bytes)", new Object[]{directory, entries.size(), size});
+    }
+
+    /**
+     * creates key identifying chunk of images encoded by given encoder
+     *
+     * @param jbig2enc encoder used for the chunk
+     * @param pdfImagesInfo informations about images of the chunk in the order they are encoded
+     * @return key of the chunk or null if content hash of any image is unknown
+     */
+    public static String createKey(Jbig2enc jbig2enc, List<PdfImageInformation> pdfImagesInfo) {
+        return createKey(RecompressionOptions.ENCODER_JBIG2ENC, jbig2enc, pdfImagesInfo);
+    }
+
+    /**
+     * creates key identifying chunk of images encoded by given encoder
+     *
+     * @param encoder name of encoder used for the chunk (as given by options)
+     * @param jbig2enc parameters of encoding
+     * @param pdfImagesInfo informations about images of the chunk in the order they are encoded
+     * @return key of the chunk or null if content hash of any image is unknown
+     */
+    public static String createKey(String encoder, Jbig2enc jbig2enc, List<PdfImageInformation> pdfImagesInfo) {
+        if (encoder == null) {
+            throw new NullPointerException("encoder");
+        }
+        if (jbig2enc == null) {
+            throw new NullPointerException("jbig2enc");
+        }
+        if (pdfImagesInfo == null) {
+            throw new NullPointerException("pdfImagesInfo");
+        }
+        StringBuilder keySource = new StringBuilder();
+        keySource.append(FORMAT_VERSION).append('\n');
+        keySource.append("encoder=").append(encoder).append('\n');
+        keySource.append("thresh=").append(jbig2enc.getDefaultThresh()).append('\n');
+        keySource.append("bw_thresh=").append(jbig2enc.getBwThresh()).append('\n');
+        keySource.append("autoThresh=").append(jbig2enc.isAutoThresh()).append('\n');
+        keySource.append("useOcr=").append(jbig2enc.isUseOcr()).append('\n');
+        keySource.append("lang=").append(jbig2enc.getLang()).append('\n');
+        keySource.append("forcedOcr=").append(jbig2enc.isForcedOcrForUnknownResolution()).append('\n');
+        keySource.append("segment=").append(jbig2enc.isSegment()).append('\n');
+        // global dictionary depends on all images of the chunk and their order
+        for (PdfImageInformation pdfImageInfo : pdfImagesInfo) {
+            if (pdfImageInfo.getContentHash() == null) {
+                return null;
+            }
+            keySource.append(pdfImageInfo.getContentHash()).append('\n');
+        }
+
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return Tools.toHex(digest.digest(keySource.toString().getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException("SHA-256 is not supported", ex);
+        }
+    }
+
+    /**
+     * @param key key of the chunk
+     * @return encoded chunk without informations about images or null if chunk is not in the cache
+     */
+    public Jbig2ForPdf get(String key) {
+        if (key == null) {
+            throw new NullPointerException("key");
+        }
+        synchronized (this) {
+            if (entries.get(key) != null) {
+                File file = getFile(key);
+                try {
+                    Jbig2ForPdf chunk = read(file);
+                    if (!file.setLastModified(System.currentTimeMillis())) {
+                        log.debug("Unable to update modification time of {}", file);
+                    }
+                    hits.incrementAndGet();
+                    return chunk;
+                } catch (IOException ex) {
+                    log.warn("Unable to read cached chunk " + file + " => removing it", ex);
+                    remove(key);
+                }
+            }
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * stores encoded chunk, least recently used chunks are evicted if the cache is full
+     *
+     * @param key key of the chunk
+     * @param chunk encoded chunk with image data loaded to memory
+     * @throws PdfRecompressionException if image data of chunk can't be read
+     */
+    public void put(String key, Jbig2ForPdf chunk) throws PdfRecompressionException {
+        if (key == null) {
+            throw new NullPointerException("key");
+        }
+        if (chunk == null) {
+            throw new NullPointerException("chunk");
+        }
+        List<byte[]> imagesData = new ArrayList<byte[]>();
+        for (PdfImage image : chunk.getSortedMapOfJbig2Images().values()) {
+            imagesData.add(image.getImageData());
+        }
+
+        File file = getFile(key);
+        try {
+            File tmpFile = File.createTempFile("chunk", ".tmp", directory);
+            try {
+                write(tmpFile, chunk.getGlobalData(), imagesData);
+                if (tmpFile.length() > maxSize) {
+                    log.debug("Chunk {} is bigger than the whole cache => not caching it", key);
+                    return;
+                }
+                synchronized (this) {
+                    Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                    Long previousSize = entries.put(key, file.length());
+                    if (previousSize != null) {
+                        size -= previousSize;
+                    }
+                    size += file.length();
+                    evict();
+                }
+            } finally {
+                if (tmpFile.exists() && !tmpFile.delete()) {
+                    log.warn("problem to delete file: " + tmpFile.getPath());
+                }
+            }
+        } catch (IOException ex) {
+            log.warn("Unable to store chunk " + key + " to cache", ex);
+        }
+    }
+
+    /**
+     * @return number of chunks found in the cache
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return number of chunks not found in the cache
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * @return current size of stored chunks in bytes
+     */
+    public synchronized long getSize() {
+        return size;
+    }
+
+    private File getFile(String key) {
+        return new File(directory, key + SUFFIX);
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<String, Long>> it = entries.entrySet().iterator();
+        while ((size > maxSize) && it.hasNext()) {
+            Map.Entry<String, Long> eldest = it.next();
+            it.remove();
+            size -= eldest.getValue();
+            File file = getFile(eldest.getKey());
+            log.debug("Evicting chunk {} from cache", file);
+            if (!file.delete()) {
+                log.warn("problem to delete file: " + file.getPath());
+            }
+        }
+    }
+
+    private void remove(String key) {
+        Long removedSize = entries.remove(key);
+        if (removedSize != null) {
+            size -= removedSize;
+        }
+        File file = getFile(key);
+        if (file.exists() && !file.delete()) {
+            log.warn("problem to delete file: " + file.getPath());
+        }
+    }
+
+    private static void write(File file, byte[] globalData, List<byte[]> imagesData) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.writeInt(FORMAT_VERSION);
+            writeBytes(out, globalData);
+            out.writeInt(imagesData.size());
+            for (byte[] imageData : imagesData) {
+                writeBytes(out, imageData);
+            }
+        }
+    }
+
+    private static Jbig2ForPdf read(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != FORMAT_VERSION) {
+                throw new IOException("Unknown format of cached chunk");
+            }
+            byte[] globalData = readBytes(in);
+            int count = in.readInt();
+            List<byte[]> imagesData = new ArrayList<byte[]>(count);
+            for (int i = 0; i < count; i++) {
+                byte[] imageData = readBytes(in);
+                if (imageData == null) {
+                    throw new IOException("Missing data of image " + i);
+                }
+                imagesData.add(imageData);
+            }
+            return new Jbig2ForPdf(globalData, imagesData);
+        }
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] data) throws IOException {
+        if (data == null) {
+            out.writeInt(-1);
+        } else {
+            out.writeInt(data.length);
+            out.write(data);
+        }
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] data = new byte[length];
+        in.readFully(data);
+        return data;
+    }
+}
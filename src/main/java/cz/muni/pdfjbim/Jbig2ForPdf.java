@@ -122,6 +122,36 @@ public class Jbig2ForPdf {
         }
     }
 
+    /**
+     * constructor for images and global data held in memory
+     *
+     * @param globalData global dictionary shared by images or null if images don't use one
+     * @param imagesData data of images in the same order as informations about them will be set
+     */
+    public Jbig2ForPdf(byte[] globalData, List<byte[]> imagesData) {
+        if (imagesData == null) {
+            throw new NullPointerException("imagesData");
+        }
+        this.globalData = globalData;
+        jbig2Images = new TreeMap<Integer, PdfImage>();
+        for (int i = 0; i < imagesData.size(); i++) {
+            jbig2Images.put(i, new PdfImage(imagesData.get(i), null));
+        }
+    }
+
+    /**
+     * reads data of all images to memory and deletes files created by jbig2enc
+     *
+     * @throws PdfRecompressionException if reading of image data fails
+     */
+    public void loadToMemory() throws PdfRecompressionException {
+        for (PdfImage image : jbig2Images.values()) {
+            image.loadImageData();
+        }
+        Tools.deleteFilesFromList(jbFileNames.toArray(new File[0]));
+        jbFileNames.clear();
+    }
+
     /**
      * add pdf image
      *
@@ -174,9 +204,12 @@ public class Jbig2ForPdf {
     }
 
     /**
-     * @return return global data
+     * @return return global data or null if there is no global dictionary
      */
     public byte[] getGlobalData() {
+        if (globalData == null) {
+            return null;
+        }
         return globalData.clone();
     }
 
@@ -196,7 +229,7 @@ public class Jbig2ForPdf {
     }
 
     /**
-     * @return map of images identified by PDF object ID
+     * @return map of images identified by PDF object ID, duplicates of an image are mapped to the same image
      */
     public Map<PdfObjId, PdfImage> getMapOfJbig2Images() {
         Map<PdfObjId, PdfImage> pdfImages = new HashMap<PdfObjId, PdfImage>();
@@ -207,6 +240,10 @@ public class Jbig2ForPdf {
                 PdfImageInformation jb2ImInfo = jb2Im.getPdfImageInformation();
                 PdfObjId objId = new PdfObjId(jb2ImInfo.getObjectNum(), jb2ImInfo.getObjectGenNum());
                 pdfImages.put(objId, jb2Im);
+                // duplicates of the image share its JBIG2 stream
+                for (PdfObjId duplicate : jb2ImInfo.getDuplicates()) {
+                    pdfImages.put(duplicate, jb2Im);
+                }
             }
         }
         return pdfImages;
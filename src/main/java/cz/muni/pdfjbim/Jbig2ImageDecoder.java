@@ -0,0 +1,137 @@
+/*
+ *  Copyright 2016 Radim Hatlapatka.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package cz.muni.pdfjbim;
+
+import com.itextpdf.text.pdf.PRStream;
+import com.itextpdf.text.pdf.PdfArray;
+import com.itextpdf.text.pdf.PdfDictionary;
+import com.itextpdf.text.pdf.PdfIndirectReference;
+import com.itextpdf.text.pdf.PdfName;
+import com.itextpdf.text.pdf.PdfNumber;
+import com.itextpdf.text.pdf.PdfObject;
+import com.itextpdf.text.pdf.PdfReader;
+import com.levigo.jbig2.JBIG2ImageReader;
+import com.levigo.jbig2.JBIG2ImageReaderSpi;
+import cz.muni.pdfjbim.jbig2.BitonalImage;
+import java.awt.image.Raster;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+
+/**
+ * decodes images compressed by JBIG2Decode filter by levigo jbig2-imageio (including global segments
+ * given by /JBIG2Globals), so that they can be encoded again together with other images
+ * and share new global dictionary.
+ *
+ * @author Radim Hatlapatka (hata.radim@gmail.com)
+ */
+public class Jbig2ImageDecoder {
+
+    private Jbig2ImageDecoder() {
+    }
+
+    /**
+     * @param stream image stream
+     * @return true if JBIG2Decode is the only filter of image
+     */
+    public static boolean isSupported(PRStream stream) {
+        if (stream == null) {
+            throw new NullPointerException("stream");
+        }
+        PdfObject filter = PdfReader.getPdfObject(stream.get(PdfName.FILTER));
+        if ((filter != null) && filter.isArray() && (((PdfArray) filter).size() == 1)) {
+            filter = PdfReader.getPdfObject(((PdfArray) filter).getPdfObject(0));
+        }
+        return PdfName.JBIG2DECODE.equals(filter);
+    }
+
+    /**
+     * @param stream image stream compressed by JBIG2Decode filter
+     * @return reference to stream of global segments used by image or null if image doesn't use any
+     */
+    public static PdfIndirectReference getGlobalsReference(PdfDictionary stream) {
+        if (stream == null) {
+            throw new NullPointerException("stream");
+        }
+        PdfObject decodeParms = PdfReader.getPdfObject(stream.get(PdfName.DECODEPARMS));
+        if ((decodeParms != null) && decodeParms.isArray() && !((PdfArray) decodeParms).isEmpty()) {
+            decodeParms = PdfReader.getPdfObject(((PdfArray) decodeParms).getPdfObject(0));
+        }
+        if ((decodeParms == null) || !decodeParms.isDictionary()) {
+            return null;
+        }
+        return ((PdfDictionary) decodeParms).getAsIndirectObject(PdfName.JBIG2GLOBALS);
+    }
+
+    /**
+     * decodes supported image
+     *
+     * @param stream image stream (its dictionary gives dimensions, /Decode and /JBIG2Globals)
+     * @return image (1 is black) or null if decoded image doesn't have dimensions given by dictionary
+     * @throws IOException if data of image or its global segments can't be decoded
+     */
+    public static BitonalImage decode(PRStream stream) throws IOException {
+        if (stream == null) {
+            throw new NullPointerException("stream");
+        }
+        PdfNumber width = stream.getAsNumber(PdfName.WIDTH);
+        PdfNumber height = stream.getAsNumber(PdfName.HEIGHT);
+        if ((width == null) || (height == null)) {
+            return null;
+        }
+
+        JBIG2ImageReader reader = new JBIG2ImageReader(new JBIG2ImageReaderSpi());
+        Raster raster;
+        try {
+            PdfIndirectReference globalsRef = getGlobalsReference(stream);
+            PdfObject globals = (globalsRef != null) ? PdfReader.getPdfObject(globalsRef) : null;
+            if ((globals != null) && globals.isStream()) {
+                // global segments can be compressed by other filters (e.g. FlateDecode)
+                byte[] globalData = PdfReader.getStreamBytes((PRStream) globals);
+                reader.setGlobals(reader.processGlobals(
+                        new MemoryCacheImageInputStream(new ByteArrayInputStream(globalData))));
+            }
+            byte[] pageData = PdfReader.getStreamBytesRaw(stream);
+            reader.setInput(new MemoryCacheImageInputStream(new ByteArrayInputStream(pageData)));
+            raster = reader.readRaster(0, reader.getDefaultReadParam());
+        } finally {
+            reader.dispose();
+        }
+        if ((raster.getWidth() != width.intValue()) || (raster.getHeight() != height.intValue())) {
+            return null;
+        }
+
+        // raster is black when 0, /Decode [1 0] makes image black where it is 1
+        boolean inverted = false;
+        PdfArray decode = stream.getAsArray(PdfName.DECODE);
+        if ((decode != null) && (decode.size() >= 2)) {
+            PdfNumber first = decode.getAsNumber(0);
+            inverted = (first != null) && (first.floatValue() > 0.5f);
+        }
+        BitonalImage image = new BitonalImage(raster.getWidth(), raster.getHeight());
+        int[] row = new int[raster.getWidth()];
+        for (int y = 0; y < raster.getHeight(); y++) {
+            raster.getSamples(raster.getMinX(), raster.getMinY() + y, row.length, 1, 0, row);
+            for (int x = 0; x < row.length; x++) {
+                if ((row[x] == 0) != inverted) {
+                    image.setPixel(x, y, 1);
+                }
+            }
+        }
+        return image;
+    }
+}
@@ -23,6 +23,7 @@ import java.io.InputStreamReader;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.ThreadFactory;
 
 import org.apache.commons.io.IOUtils;
@@ -44,6 +45,7 @@ public class Jbig2enc {
     private String lang = null; // sets language used by OCR engine (without effect if not enable use of OCR)
     private boolean forced = false; // forces ocr usage even for unknown resolution
     private boolean segment = false; // puts images separatelly (jbig2enc option -S)
+    private Semaphore processPermits = null; // bounds number of jbig2enc processes shared by several encoders
 
     public Jbig2enc(String jbig2enc) {
         if (jbig2enc == null) {
@@ -64,6 +66,29 @@ public class Jbig2enc {
         this.forced = forced;
     }
 
+    public boolean isSegment() {
+        return segment;
+    }
+
+    /**
+     * @param segment puts images separatelly (jbig2enc option -S)
+     */
+    public void setSegment(boolean segment) {
+        this.segment = segment;
+    }
+
+    public Semaphore getProcessPermits() {
+        return processPermits;
+    }
+
+    /**
+     * @param processPermits permits shared by all encoders using the same budget of jbig2enc processes,
+     * permit is held while jbig2enc is running, null means no limit
+     */
+    public void setProcessPermits(Semaphore processPermits) {
+        this.processPermits = processPermits;
+    }
+
     public String getLang() {
         return lang;
     }
@@ -187,9 +212,14 @@ public class Jbig2enc {
         run = toRun.toArray(run);
 
         Runtime runtime = Runtime.getRuntime();
-        Process pr1;
+        Process pr1 = null;
         BufferedReader reader = null;
+        boolean permitAcquired = false;
         try {
+            if (processPermits != null) {
+                processPermits.acquire();
+                permitAcquired = true;
+            }
             log.debug("Executing {}", toRun);
             pr1 = runtime.exec(run);
             OutputRedirector errRedirectThread = new OutputRedirector(pr1.getErrorStream());
@@ -207,8 +237,16 @@ public class Jbig2enc {
         } catch (IOException ex) {
             log.warn("running jbig2enc caused IOException", ex);
         } catch (InterruptedException ex2) {
-            log.warn("running jbig2enc was interupted", ex2);
+            // output files weren't produced => caller can't continue as if encoding succeeded
+            if (pr1 != null) {
+                pr1.destroy();
+            }
+            Thread.currentThread().interrupt();
+            throw new PdfRecompressionException("running jbig2enc was interrupted", ex2);
         } finally {
+            if (permitAcquired) {
+                processPermits.release();
+            }
             IOUtils.closeQuietly(reader);
             Tools.deleteFilesFromList(imageList);
         }
@@ -0,0 +1,210 @@
+/*
+ *  Copyright 2016 Radim Hatlapatka.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package cz.muni.pdfjbim;
+
+import cz.muni.pdfjbim.jbig2.BitonalImage;
+import cz.muni.pdfjbim.jbig2.EncodedChunk;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * encodes images by jbig2enc process, only its output is passed through pipes. Images are passed to it
+ * as raw PBM files in private directory created in work directory of options (leptonica rewinds input
+ * after detecting its format, so input files can't be pipes; work directory on memory backed file system
+ * avoids disk writes). Output of jbig2enc is read back through named pipes created in place of its output
+ * files, so it never touches disk, where named pipes aren't available output files are read.
+ *
+ * @author Radim Hatlapatka (hata.radim@gmail.com)
+ */
+public class Jbig2encImageEncoder implements ImageEncoder {
+
+    private static final Logger log = LoggerFactory.getLogger(Jbig2encImageEncoder.class);
+
+    private static volatile boolean fifosSupported = true;
+
+    @Override
+    public String getName() {
+        return RecompressionOptions.ENCODER_JBIG2ENC;
+    }
+
+    @Override
+    public EncodedChunk encode(List<BitonalImage> images, RecompressionOptions options) throws PdfRecompressionException {
+        if (images == null) {
+            throw new NullPointerException("images");
+        }
+        if (options == null) {
+            throw new NullPointerException("options");
+        }
+        File dir = null;
+        try {
+            dir = Files.createTempDirectory(options.getWorkDir().toPath(), "jbig2enc").toFile();
+            List<String> imageList = new ArrayList<String>(images.size());
+            for (int i = 0; i < images.size(); i++) {
+                File file = new File(dir, String.format("image%05d.pbm", i));
+                Tools.writePbm(images.get(i), file);
+                imageList.add(file.getPath());
+            }
+            String basename = new File(dir, "output").getPath();
+
+            // jbig2enc -p writes global data first and then pages in order
+            List<File> outputs = new ArrayList<File>(images.size() + 1);
+            outputs.add(new File(basename + ".sym"));
+            for (int i = 0; i < images.size(); i++) {
+                outputs.add(new File(basename + String.format(".%04d", i)));
+            }
+            if (createFifos(outputs)) {
+                return encodeThroughFifos(options.createJbig2enc(), imageList, basename, outputs);
+            }
+
+            options.createJbig2enc().run(imageList, basename);
+            Jbig2ForPdf output = new Jbig2ForPdf(dir.getPath(), "output");
+            output.loadToMemory();
+            List<byte[]> imagesData = new ArrayList<byte[]>(images.size());
+            for (PdfImage image : output.getSortedMapOfJbig2Images().values()) {
+                imagesData.add(image.getImageData());
+            }
+            return createChunk(output.getGlobalData(), imagesData, images.size());
+        } catch (IOException ex) {
+            throw new PdfRecompressionException("Unable to exchange images with jbig2enc", ex);
+        } finally {
+            FileUtils.deleteQuietly(dir);
+        }
+    }
+
+    private EncodedChunk encodeThroughFifos(Jbig2enc jbig2enc, List<String> imageList, String basename,
+            List<File> outputs) throws PdfRecompressionException, IOException {
+        OutputReader reader = new OutputReader(outputs);
+        reader.start();
+        try {
+            jbig2enc.run(imageList, basename);
+        } finally {
+            unblock(reader, outputs);
+        }
+        if (reader.failure != null) {
+            throw new PdfRecompressionException("Unable to read output of jbig2enc", reader.failure);
+        }
+        byte[] globalData = reader.data.get(0);
+        return createChunk((globalData.length > 0) ? globalData : null,
+                reader.data.subList(1, reader.data.size()), imageList.size());
+    }
+
+    /**
+     * pipes which jbig2enc didn't open (because it failed) would block reader forever => they are opened
+     * for reading and writing (which doesn't block on Linux) until reader gets end of file from all of them
+     */
+    private static void unblock(OutputReader reader, List<File> outputs) throws PdfRecompressionException {
+        try {
+            while (reader.isAlive()) {
+                for (int i = reader.next; i < outputs.size(); i++) {
+                    new RandomAccessFile(outputs.get(i), "rw").close();
+                }
+                reader.join(10);
+            }
+        } catch (IOException ex) {
+            throw new PdfRecompressionException("Unable to close pipes of jbig2enc", ex);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new PdfRecompressionException("reading of jbig2enc output was interrupted", ex);
+        }
+    }
+
+    private static EncodedChunk createChunk(byte[] globalData, List<byte[]> imagesData, int images)
+            throws PdfRecompressionException {
+        int encoded = 0;
+        for (byte[] imageData : imagesData) {
+            if (imageData.length > 0) {
+                encoded++;
+            }
+        }
+        if (encoded != images) {
+            throw new PdfRecompressionException("jbig2enc encoded " + encoded + " of " + images + " images");
+        }
+        return new EncodedChunk(globalData, new ArrayList<byte[]>(imagesData));
+    }
+
+    /**
+     * @return true if named pipes were created, false if they aren't supported
+     */
+    private static boolean createFifos(List<File> fifos) {
+        if (!fifosSupported) {
+            return false;
+        }
+        List<String> command = new ArrayList<String>();
+        command.add("mkfifo");
+        for (File fifo : fifos) {
+            command.add(fifo.getPath());
+        }
+        try {
+            Process mkfifo = new ProcessBuilder(command).redirectErrorStream(true).start();
+            new OutputRedirector(mkfifo.getInputStream()).start();
+            if (mkfifo.waitFor() == 0) {
+                return true;
+            }
+            log.warn("mkfifo ended with error {} => output of jbig2enc is read from files", mkfifo.exitValue());
+        } catch (IOException ex) {
+            log.info("Named pipes aren't supported ({}) => output of jbig2enc is read from files", ex.getMessage());
+            fifosSupported = false;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        for (File fifo : fifos) {
+            FileUtils.deleteQuietly(fifo);
+        }
+        return false;
+    }
+
+    /**
+     * reads named pipes in order, each of them until jbig2enc closes it
+     */
+    private static class OutputReader extends Thread {
+
+        private final List<File> fifos;
+        private final List<byte[]> data = new ArrayList<byte[]>();
+        private volatile int next = 0;
+        private IOException failure = null;
+
+        OutputReader(List<File> fifos) {
+            super("jbig2enc output reader");
+            setDaemon(true);
+            this.fifos = fifos;
+        }
+
+        @Override
+        public void run() {
+            for (File fifo : fifos) {
+                byte[] bytes = new byte[0];
+                try {
+                    bytes = Files.readAllBytes(fifo.toPath());
+                } catch (IOException ex) {
+                    // the other pipes are still read, so that jbig2enc isn't blocked
+                    if (failure == null) {
+                        failure = ex;
+                    }
+                }
+                data.add(bytes);
+                next++;
+            }
+        }
+    }
+}
@@ -36,6 +36,7 @@ public class PdfImage {
     private int generationNumber;
     private PdfImageInformation pdfImageInformation;
     private File imageDataFile;
+    private byte[] imageData;
     private static final Logger log = LoggerFactory.getLogger(PdfImage.class);
 
     /**
@@ -59,6 +60,19 @@ public class PdfImage {
         this.pdfImageInformation = pdfImageInformation;
     }
 
+    /**
+     * constructor for image which data are held in memory
+     * @param imageData represents data of image
+     * @param pdfImageInformation represents associated information of image like width, height, position in original pdf,...
+     */
+    public PdfImage(byte[] imageData, PdfImageInformation pdfImageInformation) {
+        if (imageData == null) {
+            throw new NullPointerException("imageData");
+        }
+        this.imageData = imageData;
+        this.pdfImageInformation = pdfImageInformation;
+    }
+
     /**
      * return byte array of image data
      * @return byte array with image data
@@ -66,6 +80,9 @@ public class PdfImage {
      *      or there is too much data in the file that cannot be contained in one byte array
      */
     public byte[] getImageData() throws PdfRecompressionException {
+        if (imageData != null) {
+            return imageData;
+        }
         Long sizeOfFile = imageDataFile.length();
         int imageSize = 0;
 
@@ -126,12 +143,30 @@ public class PdfImage {
 
     /**
      *
-     * @return file containing image data
+     * @return file containing image data or null if data are held in memory
      */
     public File getImageDataFile() {
         return imageDataFile;
     }
 
+    /**
+     * reads image data from the file to memory, the file is not needed afterwards
+     * @throws PdfRecompressionException if file can't be read
+     */
+    public void loadImageData() throws PdfRecompressionException {
+        if (imageData == null) {
+            imageData = getImageData();
+            imageDataFile = null;
+        }
+    }
+
+    /**
+     * @return true if image data are held in memory
+     */
+    public boolean isInMemory() {
+        return imageData != null;
+    }
+
     @Override
     public String toString() {
         return "PdfImage{" + "objectNumber=" + objectNumber + ", generationNumber=" + generationNumber + ", pdfImageInformation=" + pdfImageInformation + ", imageDataFile=" + imageDataFile + '}';
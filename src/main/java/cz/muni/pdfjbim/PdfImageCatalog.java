@@ -0,0 +1,257 @@
+/*
+ *  Copyright 2016 Radim Hatlapatka.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package cz.muni.pdfjbim;
+
+import com.itextpdf.text.pdf.PRIndirectReference;
+import com.itextpdf.text.pdf.PdfArray;
+import com.itextpdf.text.pdf.PdfDictionary;
+import com.itextpdf.text.pdf.PdfName;
+import com.itextpdf.text.pdf.PdfObject;
+import com.itextpdf.text.pdf.PdfReader;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * index of images drawn on pages of PDF, images are found in resources of pages, of (nested) form XObjects,
+ * of tiling patterns and of appearance streams of annotations. Images are ordered by the first page they
+ * are drawn on, so that images encoded in the same chunk come from neighbouring pages.
+ * Only images stored as indirect objects are indexed (other images can't be replaced).
+ *
+ * @author Radim Hatlapatka (hata.radim@gmail.com)
+ */
+public class PdfImageCatalog {
+
+    private final Map<Integer, int[]> pageRanges = new LinkedHashMap<Integer, int[]>();
+    // images (and forms) found in resources of each form, forms are shared by many pages
+    private final Map<Integer, List<Integer>> imagesOfForms = new HashMap<Integer, List<Integer>>();
+    private final Set<Integer> formsInProgress = new HashSet<Integer>();
+
+    private PdfImageCatalog() {
+    }
+
+    /**
+     * builds index of images of given pages, the caller has to hold monitor of reader if it is shared
+     *
+     * @param reader reader of PDF
+     * @param pages numbers of pages (starting with 1) which are indexed, null means all pages,
+     * pages which don't exist are ignored
+     * @return index of images
+     */
+    public static PdfImageCatalog build(PdfReader reader, Set<Integer> pages) {
+        if (reader == null) {
+            throw new NullPointerException("reader");
+        }
+        PdfImageCatalog catalog = new PdfImageCatalog();
+        int numberOfPages = reader.getNumberOfPages();
+        for (int pageNumber = 1; pageNumber <= numberOfPages; pageNumber++) {
+            if ((pages != null) && !pages.contains(pageNumber)) {
+                continue;
+            }
+            PdfDictionary page = reader.getPageNRelease(pageNumber);
+            if (page == null) {
+                continue;
+            }
+            List<Integer> images = new ArrayList<Integer>();
+            catalog.collectImages(page.getAsDict(PdfName.RESOURCES), images);
+            PdfArray annotations = page.getAsArray(PdfName.ANNOTS);
+            if (annotations != null) {
+                for (int i = 0; i < annotations.size(); i++) {
+                    PdfDictionary annotation = annotations.getAsDict(i);
+                    PdfDictionary appearance = (annotation != null) ? annotation.getAsDict(PdfName.AP) : null;
+                    if (appearance != null) {
+                        catalog.collectAppearance(appearance.get(PdfName.N), images);
+                    }
+                }
+            }
+            // order of resources isn't defined => images of page are ordered by object numbers
+            Collections.sort(images);
+            for (int image : images) {
+                catalog.addPage(image, pageNumber);
+            }
+        }
+        return catalog;
+    }
+
+    /**
+     * finds objects reachable from trailer of PDF (through any indirect reference), objects which aren't
+     * reachable are left over e.g. by earlier incremental updates and aren't used by viewers,
+     * the caller has to hold monitor of reader if it is shared
+     *
+     * @param reader reader of PDF
+     * @return numbers of reachable objects
+     */
+    public static BitSet findReachableObjects(PdfReader reader) {
+        if (reader == null) {
+            throw new NullPointerException("reader");
+        }
+        int xrefSize = reader.getXrefSize();
+        BitSet reachable = new BitSet(xrefSize);
+        // object graph can be very deep => it is traversed without recursion
+        Deque<PdfObject> toVisit = new ArrayDeque<PdfObject>();
+        toVisit.push(reader.getTrailer());
+        while (!toVisit.isEmpty()) {
+            PdfObject obj = toVisit.pop();
+            if (obj instanceof PRIndirectReference) {
+                int number = ((PRIndirectReference) obj).getNumber();
+                if ((number <= 0) || (number >= xrefSize) || reachable.get(number)) {
+                    continue;
+                }
+                reachable.set(number);
+                PdfObject resolved = reader.getPdfObjectRelease(number);
+                if (resolved != null) {
+                    toVisit.push(resolved);
+                }
+            } else if (obj.isDictionary() || obj.isStream()) {
+                PdfDictionary dict = (PdfDictionary) obj;
+                for (PdfName key : dict.getKeys()) {
+                    PdfObject value = dict.get(key);
+                    if (value != null) {
+                        toVisit.push(value);
+                    }
+                }
+            } else if (obj.isArray()) {
+                PdfArray array = (PdfArray) obj;
+                for (int i = 0; i < array.size(); i++) {
+                    PdfObject item = array.getPdfObject(i);
+                    if (item != null) {
+                        toVisit.push(item);
+                    }
+                }
+            }
+        }
+        return reachable;
+    }
+
+    private void addPage(int image, int pageNumber) {
+        int[] range = pageRanges.get(image);
+        if (range == null) {
+            pageRanges.put(image, new int[]{pageNumber, pageNumber});
+        } else {
+            range[1] = Math.max(range[1], pageNumber);
+        }
+    }
+
+    /**
+     * @param appearance appearance stream or dictionary of appearance streams for states of annotation
+     */
+    private void collectAppearance(PdfObject appearance, List<Integer> images) {
+        PdfObject direct = PdfReader.getPdfObject(appearance);
+        if (direct == null) {
+            return;
+        }
+        if (direct.isStream()) {
+            collectXObject(appearance, images);
+        } else if (direct.isDictionary()) {
+            PdfDictionary states = (PdfDictionary) direct;
+            for (PdfName state : states.getKeys()) {
+                collectXObject(states.get(state), images);
+            }
+        }
+    }
+
+    private void collectImages(PdfDictionary resources, List<Integer> images) {
+        if (resources == null) {
+            return;
+        }
+        PdfDictionary xObjects = resources.getAsDict(PdfName.XOBJECT);
+        if (xObjects != null) {
+            for (PdfName name : xObjects.getKeys()) {
+                collectXObject(xObjects.get(name), images);
+            }
+        }
+        PdfDictionary patterns = resources.getAsDict(PdfName.PATTERN);
+        if (patterns != null) {
+            for (PdfName name : patterns.getKeys()) {
+                // only tiling patterns are streams with their own resources
+                collectXObject(patterns.get(name), images);
+            }
+        }
+    }
+
+    /**
+     * adds image or images of form given by reference
+     */
+    private void collectXObject(PdfObject reference, List<Integer> images) {
+        if ((reference == null) || !reference.isIndirect()) {
+            return;
+        }
+        int number = ((PRIndirectReference) reference).getNumber();
+        PdfObject object = PdfReader.getPdfObjectRelease(reference);
+        if ((object == null) || !object.isStream()) {
+            return;
+        }
+        PdfDictionary stream = (PdfDictionary) object;
+        if (PdfName.IMAGE.equals(stream.getAsName(PdfName.SUBTYPE))) {
+            images.add(number);
+            // masks are images as well
+            collectXObject(stream.get(PdfName.SMASK), images);
+            collectXObject(stream.get(PdfName.MASK), images);
+            return;
+        }
+        List<Integer> imagesOfForm = imagesOfForms.get(number);
+        if (imagesOfForm == null) {
+            if (!formsInProgress.add(number)) {
+                // form drawing itself
+                return;
+            }
+            imagesOfForm = new ArrayList<Integer>();
+            collectImages(stream.getAsDict(PdfName.RESOURCES), imagesOfForm);
+            formsInProgress.remove(number);
+            imagesOfForms.put(number, imagesOfForm);
+        }
+        images.addAll(imagesOfForm);
+    }
+
+    /**
+     * @return object numbers of images ordered by the first page they are drawn on
+     */
+    public List<Integer> getImages() {
+        return Collections.unmodifiableList(new ArrayList<Integer>(pageRanges.keySet()));
+    }
+
+    /**
+     * @return true if image is drawn on any of indexed pages
+     */
+    public boolean contains(int objectNumber) {
+        return pageRanges.containsKey(objectNumber);
+    }
+
+    /**
+     * @return the first indexed page where image is drawn or 0 if it isn't drawn on any of them
+     */
+    public int getFirstPage(int objectNumber) {
+        int[] range = pageRanges.get(objectNumber);
+        return (range != null) ? range[0] : 0;
+    }
+
+    /**
+     * @return the last indexed page where image is drawn or 0 if it isn't drawn on any of them
+     */
+    public int getLastPage(int objectNumber) {
+        int[] range = pageRanges.get(objectNumber);
+        return (range != null) ? range[1] : 0;
+    }
+}
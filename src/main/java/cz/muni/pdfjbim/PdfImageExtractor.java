@@ -21,14 +21,18 @@ import com.itextpdf.text.DocumentException;
 import com.itextpdf.text.Image;
 import com.itextpdf.text.pdf.PRIndirectReference;
 import com.itextpdf.text.pdf.PRStream;
+import com.itextpdf.text.pdf.PdfArray;
 import com.itextpdf.text.pdf.PdfDictionary;
 import com.itextpdf.text.pdf.PdfIndirectReference;
 import com.itextpdf.text.pdf.PdfName;
+import com.itextpdf.text.pdf.PdfNumber;
 import com.itextpdf.text.pdf.PdfObject;
 import com.itextpdf.text.pdf.PdfReader;
 import com.itextpdf.text.pdf.PdfStamper;
 import com.itextpdf.text.pdf.PdfStream;
+import com.itextpdf.text.pdf.parser.PdfImageObject;
 import com.itextpdf.text.pdf.parser.PdfReaderContentParser;
+import cz.muni.pdfjbim.jbig2.BitonalImage;
 import cz.muni.pdfjbim.pdf.MyImageRenderListener;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
@@ -40,15 +44,25 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSDictionary;
 import org.apache.pdfbox.cos.COSDocument;
 import org.apache.pdfbox.cos.COSName;
 import org.apache.pdfbox.cos.COSObject;
+import org.apache.pdfbox.cos.COSStream;
 import org.apache.pdfbox.pdfparser.PDFParser;
 import org.apache.pdfbox.pdmodel.PDDocument;
 import org.apache.pdfbox.pdmodel.PDPage;
@@ -62,7 +76,8 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * class allowing extraction of images from a PDF document
+ * class allowing extraction of images from a PDF document, instance keeps state of extraction
+ * (extracted images, their names and duplicates) => new instance has to be used for each document
  * @author Radim Hatlapatka (hata.radim@gmail.com)
  */
 public class PdfImageExtractor {
@@ -71,12 +86,19 @@ public class PdfImageExtractor {
     private List<String> namesOfImages = new ArrayList<>();
     private List<PdfImageInformation> originalImageInformations = new ArrayList<>();
     private static final Logger log = LoggerFactory.getLogger(PdfImageExtractor.class);
+    private static final PdfName[] FINGERPRINTED_ATTRIBUTES = {PdfName.WIDTH, PdfName.HEIGHT,
+        PdfName.BITSPERCOMPONENT, PdfName.COLORSPACE, PdfName.DECODE, PdfName.IMAGEMASK, PdfName.MASK,
+        PdfName.SMASK};
     private static final String TMP_DIR = System.getProperty("java.io.tmpdir");
 
+    private ImageExtractionListener imageExtractionListener = null;
+    private final Map<String, PdfImageInformation> imagesByContentHash = new HashMap<>();
+
+    private int bwThresh = 188;
+    // JBIG2 images are decoded only by extractImagesUsingIText => they are skipped in default
     private boolean skipJBig2Images = true;
-    // TODO: add suitable handling of recompressing JBIG2 images,
-    // TODO: currently the global dictionary is not properly replaced in PdfImageReplacer resulting in creating second one
-    // TODO: => the resulting PDF size is increased instead of being decreesed => for now setting default as tru => skipping such images
+    private boolean skipUnreachableImages = false;
+    private int unreachableImages = 0;
 
     /**
      * @return names of images in a list
@@ -93,12 +115,62 @@ public class PdfImageExtractor {
         return originalImageInformations;
     }
 
+    /**
+     * @return luminance (0-255) below which pixels of images passed to listener are black
+     * if the images aren't bi-tonal
+     */
+    public int getBwThresh() {
+        return bwThresh;
+    }
+
+    public void setBwThresh(int bwThresh) {
+        this.bwThresh = bwThresh;
+    }
+
+    public boolean isSkipJBig2Images() {
+        return skipJBig2Images;
+    }
+
+    /**
+     * @param skipJBig2Images if false, images already compressed by JBIG2Decode are decoded
+     * (including their global segments) and extracted as well, so that they are encoded again
+     * together with other images, it is supported only by extractImagesUsingIText
+     */
+    public void setSkipJBig2Images(boolean skipJBig2Images) {
+        this.skipJBig2Images = skipJBig2Images;
+    }
+
+    public boolean isSkipUnreachableImages() {
+        return skipUnreachableImages;
+    }
+
+    /**
+     * @param skipUnreachableImages if true, images which aren't reachable from trailer of PDF (left over
+     * e.g. by earlier incremental updates) are not extracted by extractImagesUsingIText
+     */
+    public void setSkipUnreachableImages(boolean skipUnreachableImages) {
+        this.skipUnreachableImages = skipUnreachableImages;
+    }
+
+    /**
+     * @return number of images skipped because they aren't reachable from trailer of PDF
+     */
+    public int getUnreachableImages() {
+        return unreachableImages;
+    }
+
+    /**
+     * @param imageExtractionListener listener notified about each extracted image or null
+     */
+    public void setImageExtractionListener(ImageExtractionListener imageExtractionListener) {
+        this.imageExtractionListener = imageExtractionListener;
+    }
+
     /**
      * This method extracts images from PDF
      * @param pdfFile input PDF file
      * @param password password for access to PDF if needed
      * @param pagesToProcess list of pages which should be processed if null given => processed all pages
-     *      -- not working yet
      * @param binarize -- enables processing of nonbitonal images as well (LZW is still not
      *      processed because of output with inverted colors)
      * @throws PdfRecompressionException if problem to extract images from PDF
@@ -135,7 +207,6 @@ public class PdfImageExtractor {
      * @param pdfFile name of input PDF file
      * @param password password for access to PDF if needed
      * @param pagesToProcess list of pages which should be processed if null given => processed all pages
-     *      -- not working yet
      * @param binarize -- enables processing of nonbitonal images as well (LZW is still not
      *      processed because of output with inverted colors)
      * @throws PdfRecompressionException if problem to extract images from PDF
@@ -172,7 +243,6 @@ public class PdfImageExtractor {
      * @param is input stream containing input PDF file
      * @param password password for access to PDF if needed
      * @param pagesToProcess list of pages which should be processed if null given => processed all pages
-     *      -- not working yet
      * @param binarize -- enables processing of nonbitonal images as well (LZW is still not
      *      processed because of output with inverted colors)
      * @throws PdfRecompressionException if problem to extract images from PDF
@@ -291,7 +361,6 @@ public class PdfImageExtractor {
      * @param prefix output basename for images
      * @param password password for access to PDF if needed
      * @param pagesToProcess list of pages which should be processed if null given => processed all pages
-     *      -- not working yet
      * @param binarize -- enables processing of nonbitonal images as well (LZW is still not
      *      processed because of output with inverted colors)
      * @throws PdfRecompressionException if problem to extract images from PDF
@@ -331,10 +400,19 @@ public class PdfImageExtractor {
             parser.parse();
             doc = parser.getDocument();
 
+            // images which aren't drawn on selected pages are neither decoded nor written
+            Set<Long> imagesOfPages = null;
+            if (pagesToProcess != null) {
+                imagesOfPages = getImagesOfPages(new PDDocument(doc), pagesToProcess);
+                log.debug("{} images are drawn on selected pages", imagesOfPages.size());
+            }
 
             List<COSObject> objs = doc.getObjectsByType(COSName.XOBJECT);
             if (objs != null) {
                 for (COSObject obj : objs) {
+                    if ((imagesOfPages != null) && !imagesOfPages.contains(obj.getObjectNumber().longValue())) {
+                        continue;
+                    }
                     COSBase subtype = obj.getItem(COSName.SUBTYPE);
                     if (subtype.toString().equalsIgnoreCase("COSName{Image}")) {
                         COSBase imageObj = obj.getObject();
@@ -402,14 +480,22 @@ public class PdfImageExtractor {
 
                         namesOfImages.add(name + "." + image.getSuffix());
 
+                        if (imageExtractionListener != null) {
+                            imageExtractionListener.imageExtracted(
+                                    Tools.readBitmap(new File(name + "." + image.getSuffix()), bwThresh), pdfImageInfo);
+                        }
                     }
                 }
             }
         } catch (IOException ex) {
             Tools.deleteFilesFromList(namesOfImages);
             throw new PdfRecompressionException("Unable to parse PDF document", ex);
+        } catch (PdfRecompressionException ex) {
+            Tools.deleteFilesFromList(namesOfImages);
+            throw ex;
         } catch (Exception ex) {
             Tools.deleteFilesFromList(namesOfImages);
+            throw new PdfRecompressionException("Unable to extract images from PDF document", ex);
         } finally {
             if (doc != null) {
                 try {
@@ -421,6 +507,348 @@ public class PdfImageExtractor {
         }
     }
 
+    /**
+     * resolves page tree and resources of given pages (including nested forms)
+     *
+     * @return object numbers of images drawn on given pages
+     */
+    private static Set<Long> getImagesOfPages(PDDocument document, Set<Integer> pagesToProcess) {
+        Set<Long> images = new HashSet<Long>();
+        Set<COSBase> visitedForms = Collections.newSetFromMap(new IdentityHashMap<COSBase, Boolean>());
+        List<?> pages = document.getDocumentCatalog().getAllPages();
+        for (int pageNumber = 1; pageNumber <= pages.size(); pageNumber++) {
+            if (!pagesToProcess.contains(pageNumber)) {
+                continue;
+            }
+            PDResources resources = ((PDPage) pages.get(pageNumber - 1)).findResources();
+            if (resources != null) {
+                collectImagesOfResources(resources.getCOSDictionary(), images, visitedForms);
+            }
+        }
+        return images;
+    }
+
+    private static void collectImagesOfResources(COSDictionary resources, Set<Long> images,
+            Set<COSBase> visitedForms) {
+        COSBase xObjects = resources.getDictionaryObject(COSName.XOBJECT);
+        if (!(xObjects instanceof COSDictionary)) {
+            return;
+        }
+        COSDictionary xObjectsDict = (COSDictionary) xObjects;
+        for (COSName name : xObjectsDict.keySet()) {
+            COSBase reference = xObjectsDict.getItem(name);
+            COSBase xObject = xObjectsDict.getDictionaryObject(name);
+            if (!(xObject instanceof COSStream)) {
+                continue;
+            }
+            COSStream stream = (COSStream) xObject;
+            if (COSName.IMAGE.equals(stream.getDictionaryObject(COSName.SUBTYPE))) {
+                // only images stored as indirect objects can be replaced
+                if (reference instanceof COSObject) {
+                    images.add(((COSObject) reference).getObjectNumber().longValue());
+                }
+            } else if (visitedForms.add(stream)) {
+                COSBase formResources = stream.getDictionaryObject(COSName.RESOURCES);
+                if (formResources instanceof COSDictionary) {
+                    collectImagesOfResources((COSDictionary) formResources, images, visitedForms);
+                }
+            }
+        }
+    }
+
+    /**
+     * This method extracts images by going through all objects pointed from xref table of already
+     * opened PDF, the same reader can be used afterwards by PdfImageReplacer so that the PDF is parsed only once.
+     * Images are extracted in order of pages where they are drawn first (see PdfImageCatalog).
+     * If pages are selected, only images drawn on them are read and decoded.
+     * Images which aren't reachable from trailer can be skipped (see setSkipUnreachableImages).
+     * Reader is used only while holding its monitor so that replacing can run concurrently.
+     * If listener is set, images are passed to it in memory and only images which aren't bi-tonal
+     * are written to files (until they are thresholded), otherwise all images are written to files.
+     * @param reader reader of PDF (opened with password if needed)
+     * @param prefix output basename for images
+     * @param pagesToProcess list of pages which should be processed if null given => processed all pages
+     * @param binarize -- enables processing of nonbitonal images as well (LZW is still not
+     *      processed because of output with inverted colors)
+     * @throws PdfRecompressionException if problem to extract images from PDF
+     */
+    public void extractImagesUsingIText(PdfReader reader, String prefix, Set<Integer> pagesToProcess,
+            Boolean binarize) throws PdfRecompressionException {
+        if (reader == null) {
+            throw new NullPointerException("reader");
+        }
+        if (binarize == null) {
+            binarize = false;
+        }
+
+        log.debug("Extracting images (binarize set to {})", binarize);
+
+        try {
+            PdfImageCatalog catalog;
+            int[] objectNumbers;
+            synchronized (reader) {
+                catalog = PdfImageCatalog.build(reader, pagesToProcess);
+                // images are processed in order of pages where they are drawn first, so that chunks
+                // contain images of neighbouring pages, images not drawn on any page follow in order of xref
+                int xrefSize = reader.getXrefSize();
+                objectNumbers = new int[Math.max(0, xrefSize - 1)];
+                int count = 0;
+                for (int objectNum : catalog.getImages()) {
+                    if ((objectNum > 0) && (objectNum < xrefSize)) {
+                        objectNumbers[count++] = objectNum;
+                    }
+                }
+                // if pages are selected, only their images are processed => other objects aren't even read
+                BitSet reachable = ((pagesToProcess == null) && skipUnreachableImages)
+                        ? PdfImageCatalog.findReachableObjects(reader) : null;
+                for (int objectNum = 1; (pagesToProcess == null) && (objectNum < xrefSize); objectNum++) {
+                    if (catalog.contains(objectNum)) {
+                        continue;
+                    }
+                    if ((reachable != null) && !reachable.get(objectNum)) {
+                        if (isImage(reader.getPdfObjectRelease(objectNum))) {
+                            log.debug("Image {} isn't reachable from trailer => skipping", objectNum);
+                            unreachableImages++;
+                        }
+                        continue;
+                    }
+                    objectNumbers[count++] = objectNum;
+                }
+                if (unreachableImages > 0) {
+                    log.info("Skipped {} images which aren't referenced from the document", unreachableImages);
+                }
+                objectNumbers = Arrays.copyOf(objectNumbers, count);
+            }
+            for (int objectNum : objectNumbers) {
+                PdfImageObject image = null;
+                BitonalImage bitonalImage = null;
+                PdfImageInformation pdfImageInfo;
+                synchronized (reader) {
+                    // in partial mode object is not kept in memory by reader after it is processed
+                    PdfObject obj = reader.getPdfObjectRelease(objectNum);
+                    if (!isImage(obj)) {
+                        continue;
+                    }
+                    PRStream stream = (PRStream) obj;
+                    if (!isImageToRecompress(stream, binarize)) {
+                        continue;
+                    }
+                    PRIndirectReference ref = stream.getIndRef();
+                    int genNum = (ref != null) ? ref.getGeneration() : 0;
+
+                    // JBIG2 images are decoded by their own decoder, its output is used for fingerprint
+                    byte[] samples;
+                    boolean jbig2Decoded = Jbig2ImageDecoder.isSupported(stream);
+                    if (jbig2Decoded) {
+                        try {
+                            bitonalImage = Jbig2ImageDecoder.decode(stream);
+                        } catch (IOException ex) {
+                            log.warn("Unable to decode JBIG2 image " + objectNum + " => skipping", ex);
+                            continue;
+                        } catch (RuntimeException ex) {
+                            log.warn("Unable to decode JBIG2 image " + objectNum + " => skipping", ex);
+                            continue;
+                        }
+                        if (bitonalImage == null) {
+                            log.warn("JBIG2 image {} doesn't have declared dimensions => skipping", objectNum);
+                            continue;
+                        }
+                        samples = bitonalImage.toPackedRows(true);
+                    } else {
+                        samples = getStreamBytes(stream);
+                    }
+
+                    // the same bitmap stored in several objects is encoded only once
+                    String contentHash = getContentHash(stream, samples, jbig2Decoded);
+                    PdfImageInformation original = (contentHash != null) ? imagesByContentHash.get(contentHash) : null;
+                    if (original != null) {
+                        log.debug("Image {} is duplicate of {} => it will share its JBIG2 stream", objectNum, original);
+                        original.addDuplicate(new PdfObjId(objectNum, genNum));
+                        continue;
+                    }
+
+                    // bi-tonal samples are used as they are, other images are decoded by iText
+                    if ((bitonalImage == null) && (samples != null) && RawBitmapDecoder.isSupported(stream)) {
+                        bitonalImage = RawBitmapDecoder.decode(stream, samples);
+                    }
+                    if (bitonalImage == null) {
+                        try {
+                            image = new PdfImageObject(stream);
+                        } catch (IOException ex) {
+                            log.warn("Unable to decode image " + objectNum + " => skipping", ex);
+                            continue;
+                        } catch (RuntimeException ex) {
+                            log.warn("Unable to decode image " + objectNum + " => skipping", ex);
+                            continue;
+                        }
+                    }
+
+                    PdfName nameOfImage = stream.getAsName(PdfName.NAME);
+                    String key = (nameOfImage != null) ? PdfName.decodeName(nameOfImage.toString()) : "im0";
+                    PdfNumber width = stream.getAsNumber(PdfName.WIDTH);
+                    PdfNumber height = stream.getAsNumber(PdfName.HEIGHT);
+                    if ((width == null) || (height == null)) {
+                        log.warn("Image {} has no dimensions => skipping", objectNum);
+                        continue;
+                    }
+                    pdfImageInfo = new PdfImageInformation(key, width.intValue(), height.intValue(), objectNum, genNum);
+                    if (catalog.contains(objectNum)) {
+                        pdfImageInfo.setPageRange(catalog.getFirstPage(objectNum), catalog.getLastPage(objectNum));
+                    }
+                    if (contentHash != null) {
+                        pdfImageInfo.setContentHash(contentHash);
+                        imagesByContentHash.put(contentHash, pdfImageInfo);
+                    }
+                }
+
+                originalImageInformations.add(pdfImageInfo);
+                if (imageExtractionListener != null) {
+                    // image is passed in memory, only images which aren't bi-tonal are stored temporarily
+                    // to be thresholded
+                    if (bitonalImage == null) {
+                        String name = getUniqueFileName(prefix, image.getFileType());
+                        File file = new File(name + "." + image.getFileType());
+                        try {
+                            try (OutputStream out = new FileOutputStream(file)) {
+                                out.write(image.getImageAsBytes());
+                            }
+                            bitonalImage = Tools.readBitmap(file, bwThresh);
+                        } finally {
+                            Tools.deleteFilesFromList(new File[]{file});
+                        }
+                    }
+                    imageExtractionListener.imageExtracted(bitonalImage, pdfImageInfo);
+                    continue;
+                }
+
+                String fileType = (bitonalImage != null) ? "pbm" : image.getFileType();
+                String name = getUniqueFileName(prefix, fileType);
+                log.info("Writing image: {}", name);
+                String fileName = name + "." + fileType;
+                if (bitonalImage != null) {
+                    Tools.writePbm(bitonalImage, new File(fileName));
+                } else {
+                    try (OutputStream out = new FileOutputStream(fileName)) {
+                        out.write(image.getImageAsBytes());
+                    }
+                }
+                namesOfImages.add(fileName);
+            }
+        } catch (IOException ex) {
+            Tools.deleteFilesFromList(namesOfImages);
+            throw new PdfRecompressionException("Unable to write extracted image", ex);
+        } catch (PdfRecompressionException ex) {
+            Tools.deleteFilesFromList(namesOfImages);
+            throw ex;
+        } catch (RuntimeException ex) {
+            Tools.deleteFilesFromList(namesOfImages);
+            throw new PdfRecompressionException("Unable to extract images from PDF document", ex);
+        }
+    }
+
+    private static boolean isImage(PdfObject obj) {
+        return (obj != null) && obj.isStream()
+                && PdfName.IMAGE.equals(((PdfDictionary) obj).getAsName(PdfName.SUBTYPE));
+    }
+
+    /**
+     * computes fingerprint of image from its decoded data and attributes affecting its appearance
+     *
+     * @param samples decoded data of image or null if they couldn't be decoded
+     * @param jbig2Decoded true if samples were decoded from JBIG2 (1 is black), raw samples of gray images
+     * use 1 for white, so that the same samples of both kinds don't look the same
+     * @return hexadecimal SHA-256 hash or null if image data can't be decoded
+     */
+    private String getContentHash(PRStream stream, byte[] samples, boolean jbig2Decoded) {
+        if (samples == null) {
+            return null;
+        }
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException("SHA-256 is not supported", ex);
+        }
+        for (PdfName attribute : FINGERPRINTED_ATTRIBUTES) {
+            digest.update((attribute + "=" + stream.get(attribute) + "\n").getBytes(StandardCharsets.UTF_8));
+        }
+        String convention = jbig2Decoded ? "jbig2-decoded" : "raw";
+        digest.update(("Samples=" + convention + "\n").getBytes(StandardCharsets.UTF_8));
+        digest.update(samples);
+        return Tools.toHex(digest.digest());
+    }
+
+    /**
+     * decodes data of image by its filters, the data are shared by content hash and raw bitmap decoder,
+     * so that image is decoded only once
+     *
+     * @return decoded data or null if they can't be decoded by PdfReader
+     */
+    private byte[] getStreamBytes(PRStream stream) {
+        try {
+            return PdfReader.getStreamBytes(stream);
+        } catch (IOException ex) {
+            log.debug("Unable to decode data of image => not looking for duplicates", ex);
+            return null;
+        } catch (RuntimeException ex) {
+            log.debug("Unable to decode data of image => not looking for duplicates", ex);
+            return null;
+        }
+    }
+
+    /**
+     * checks filters and color depth of image the same way as extractImagesUsingPdfParser
+     */
+    private boolean isImageToRecompress(PRStream stream, boolean binarize) {
+        List<PdfName> filters = new ArrayList<>();
+        PdfObject filter = PdfReader.getPdfObject(stream.get(PdfName.FILTER));
+        if (filter == null) {
+            return false;
+        }
+        if (filter.isName()) {
+            filters.add((PdfName) filter);
+        } else if (filter.isArray()) {
+            PdfArray filterArray = (PdfArray) filter;
+            for (int i = 0; i < filterArray.size(); i++) {
+                PdfObject filterName = filterArray.getDirectObject(i);
+                if ((filterName != null) && filterName.isName()) {
+                    filters.add((PdfName) filterName);
+                }
+            }
+        }
+        log.debug("Detected filters: {}", filters);
+
+        PdfNumber bpc = stream.getAsNumber(PdfName.BITSPERCOMPONENT);
+        if ((bpc != null) && (bpc.intValue() > 1) && !binarize) {
+            log.info("It is not a bitonal image => skipping");
+            return false;
+        }
+
+        // at this moment for preventing bad output (bad coloring) from LZWDecode filter
+        if (filters.contains(PdfName.LZWDECODE)) {
+            log.info("This is LZWDecoded => skipping");
+            return false;
+        }
+
+        if (filters.contains(PdfName.JBIG2DECODE)) {
+            if (skipJBig2Images) {
+                log.warn("Allready compressed according to JBIG2 standard => skipping");
+                return false;
+            } else if (!Jbig2ImageDecoder.isSupported(stream)) {
+                log.warn("JBIG2 image combined with other filters => skipping");
+                return false;
+            } else {
+                log.debug("JBIG2 image detected");
+            }
+        }
+
+        if (filters.contains(PdfName.JPXDECODE)) {
+            log.warn("Unsupported filter JPXDecode => skipping");
+            return false;
+        }
+        return true;
+    }
+
     /**
      * @deprecated -- do not use doesn't work properly yet
      * This method extracts images by going through PDF tree structure
@@ -428,7 +856,6 @@ public class PdfImageExtractor {
      * @param prefix 
      * @param password password for access to PDF if needed
      * @param pagesToProcess list of pages which should be processed if null given => processed all pages
-     *      -- not working yet
     //    * @param silent -- if true error messages are not written to output otherwise they are
      * @param binarize -- enables processing of nonbitonal images as well (LZW is still not
      *      processed because of output with inverted colors)
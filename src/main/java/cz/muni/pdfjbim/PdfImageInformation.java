@@ -17,6 +17,10 @@
 
 package cz.muni.pdfjbim;
 
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
 /**
  * Contains information about size of image and it's position in original PDF
  *
@@ -29,9 +33,11 @@ public class PdfImageInformation {
     private int width;
     private int height;
     private int pageNumber;
+    private int lastPageNumber;
     private int objectNum;
     private int objectGenNum;
-
+    private String contentHash;
+    private final List<PdfObjId> duplicates = new CopyOnWriteArrayList<PdfObjId>();
 
     /**
      *
@@ -49,6 +55,7 @@ public class PdfImageInformation {
         this.objectGenNum = genNum;
         this.objectNum = objectNum;
         this.pageNumber = pageNumber;
+        this.lastPageNumber = pageNumber;
     }
 
     /**
@@ -88,6 +95,27 @@ public class PdfImageInformation {
         return pageNumber;
     }
 
+    /**
+     * @return the last page where the image is drawn (the same as page number if image is drawn on one page
+     * only, 0 if pages aren't known)
+     */
+    public int getLastPageNumber() {
+        return lastPageNumber;
+    }
+
+    /**
+     * sets range of pages where the image is drawn
+     * @param pageNumber the first page where the image is drawn
+     * @param lastPageNumber the last page where the image is drawn
+     */
+    public void setPageRange(int pageNumber, int lastPageNumber) {
+        if (lastPageNumber < pageNumber) {
+            throw new IllegalArgumentException("page range " + pageNumber + "-" + lastPageNumber);
+        }
+        this.pageNumber = pageNumber;
+        this.lastPageNumber = lastPageNumber;
+    }
+
     /**
      * @return width of image
      */
@@ -124,6 +152,37 @@ public class PdfImageInformation {
         this.objectNum = objectNum;
     }
 
+    /**
+     * @return fingerprint of decoded image data and dimensions or null if it wasn't computed
+     */
+    public String getContentHash() {
+        return contentHash;
+    }
+
+    /**
+     * @param contentHash fingerprint of decoded image data and dimensions
+     */
+    public void setContentHash(String contentHash) {
+        this.contentHash = contentHash;
+    }
+
+    /**
+     * @return objects in original PDF containing the same image, they are replaced by reference to this image
+     */
+    public List<PdfObjId> getDuplicates() {
+        return Collections.unmodifiableList(duplicates);
+    }
+
+    /**
+     * @param objId object in original PDF containing the same image as this one
+     */
+    public void addDuplicate(PdfObjId objId) {
+        if (objId == null) {
+            throw new NullPointerException("objId");
+        }
+        duplicates.add(objId);
+    }
+
     @Override
     public String toString() {
         return "Image " + "{" + objectNum + "," + objectGenNum + "} "
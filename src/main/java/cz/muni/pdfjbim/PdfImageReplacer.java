@@ -19,21 +19,25 @@ package cz.muni.pdfjbim;
 import com.itextpdf.text.DocumentException;
 import com.itextpdf.text.Image;
 import com.itextpdf.text.pdf.PRIndirectReference;
+import com.itextpdf.text.pdf.PdfArray;
 import com.itextpdf.text.pdf.PdfDictionary;
+import com.itextpdf.text.pdf.PdfIndirectReference;
 import com.itextpdf.text.pdf.PdfName;
 import com.itextpdf.text.pdf.PdfObject;
 import com.itextpdf.text.pdf.PdfReader;
 import com.itextpdf.text.pdf.PdfStamper;
 import com.itextpdf.text.pdf.PdfWriter;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.util.Iterator;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -46,10 +50,49 @@ public class PdfImageReplacer {
 
     private static final Logger log = LoggerFactory.getLogger(PdfImageReplacer.class);
 
+    private boolean incrementalUpdate = false;
+    private boolean removeUnreachableImages = false;
+    private int removedImages = 0;
+
+    public boolean isIncrementalUpdate() {
+        return incrementalUpdate;
+    }
+
+    /**
+     * @param incrementalUpdate if true, output is written as incremental update: original PDF is copied
+     * byte for byte and only replaced images, their global dictionaries and new xref section are appended
+     */
+    public void setIncrementalUpdate(boolean incrementalUpdate) {
+        this.incrementalUpdate = incrementalUpdate;
+    }
+
+    public boolean isRemoveUnreachableImages() {
+        return removeUnreachableImages;
+    }
+
+    /**
+     * @param removeUnreachableImages if true, images which aren't reachable from trailer of PDF (left over
+     * e.g. by earlier incremental updates) are not written to the output, it has no effect for incremental update
+     * as original PDF is kept there byte for byte
+     */
+    public void setRemoveUnreachableImages(boolean removeUnreachableImages) {
+        this.removeUnreachableImages = removeUnreachableImages;
+    }
+
+    /**
+     * @return number of unreachable images removed from the output
+     */
+    public int getRemovedImages() {
+        return removedImages;
+    }
+
     /**
      * replace images by they recompressed version according to JBIG2 standard positions and image
      * data given in imagesData
      *
+     * PDF file is read in partial mode, so only objects being processed are held in memory and untouched
+     * objects are copied to the output one by one
+     *
      * @param pdfName represents name of original PDF file
      * @param os represents output stream for writing changed PDF file
      * @param imagesData contains compressed images according to JBIG2 standard and informations
@@ -57,16 +100,27 @@ public class PdfImageReplacer {
      * @throws PdfRecompressionException if version of PDF is lower than 1.4 or was catch
      * DocumentException or IOException
      */
-    public void replaceImageUsingIText(String pdfName, OutputStream os, List<Jbig2ForPdf> imagesData)
+    public void replaceImageUsingIText(String pdfName, OutputStream os, Iterable<Jbig2ForPdf> imagesData)
             throws PdfRecompressionException {
+        if (pdfName == null) {
+            throw new NullPointerException("pdfName");
+        }
+        File pdfFile = new File(pdfName);
+        if (!pdfFile.isFile()) {
+            throw new PdfRecompressionException("File " + pdfName + " doesn't exist");
+        }
 
-        try (FileInputStream pdfInputStream = new FileInputStream(pdfName)) {
-            replaceImageUsingIText(pdfInputStream, os, imagesData);
-        } catch (FileNotFoundException ex) {
-            throw new PdfRecompressionException("File " + pdfName + " doesn't exist", ex);
+        PdfReader pdf;
+        try {
+            pdf = Tools.openPdfPartially(pdfFile, null);
         } catch (IOException ex) {
             throw new PdfRecompressionException("Unable to read file " + pdfName, ex);
         }
+        try {
+            replaceImageUsingIText(pdf, os, imagesData);
+        } finally {
+            pdf.close();
+        }
     }
 
     /**
@@ -75,16 +129,46 @@ public class PdfImageReplacer {
      *
      * @param originalPdf represents name of original PDF file
      * @param os represents output stream for writing changed PDF file
-     * @param imagesData contains compressed images according to JBIG2 standard and informations
-     * about them
+     * @param imagesDataList contains compressed images according to JBIG2 standard and informations
+     * about them, it is iterated only once so images can be replaced as soon as they are encoded
      * @throws PdfRecompressionException if version of PDF is lower than 1.4 or was catch
      * DocumentException or IOException
      */
-    public void replaceImageUsingIText(InputStream originalPdf, OutputStream os, List<Jbig2ForPdf> imagesDataList) throws PdfRecompressionException {
+    public void replaceImageUsingIText(InputStream originalPdf, OutputStream os, Iterable<Jbig2ForPdf> imagesDataList) throws PdfRecompressionException {
         if (originalPdf == null) {
             throw new NullPointerException("pdfName");
         }
 
+        PdfReader pdf;
+        try {
+            pdf = new PdfReader(originalPdf);
+        } catch (IOException ioEx) {
+            throw new PdfRecompressionException(ioEx);
+        }
+        try {
+            replaceImageUsingIText(pdf, os, imagesDataList);
+        } finally {
+            pdf.close();
+        }
+    }
+
+    /**
+     * replace images by they recompressed version according to JBIG2 standard positions and image
+     * data given in imagesData, reader is used only while holding its monitor so that the same reader
+     * can be used by PdfImageExtractor at the same time
+     *
+     * @param pdf reader of original PDF, it is not closed
+     * @param os represents output stream for writing changed PDF file
+     * @param imagesDataList contains compressed images according to JBIG2 standard and informations
+     * about them, it is iterated only once so images can be replaced as soon as they are encoded
+     * @throws PdfRecompressionException if version of PDF is lower than 1.4 or was catch
+     * DocumentException or IOException
+     */
+    public void replaceImageUsingIText(PdfReader pdf, OutputStream os, Iterable<Jbig2ForPdf> imagesDataList) throws PdfRecompressionException {
+        if (pdf == null) {
+            throw new NullPointerException("pdf");
+        }
+
         if (os == null) {
             throw new NullPointerException("os");
         }
@@ -95,100 +179,47 @@ public class PdfImageReplacer {
 
 
         log.info("Replacing old images in PDF with their equivalent encoded according to standard JBIG2");
-        PdfReader pdf;
         PdfStamper stp = null;
         try {
-            pdf = new PdfReader(originalPdf);
-            stp = new PdfStamper(pdf, os);
-            PdfWriter writer = stp.getWriter();
-
-            int version;
-            if ((version = Integer.parseInt(String.valueOf(pdf.getPdfVersion()))) < 4) {
-                log.debug("PDF version of original PDF was {} => changing to PDF version 1.4", pdf.
-                        getPdfVersion());
-                writer.setPdfVersion(PdfWriter.PDF_VERSION_1_4);
-            }
-
-            for (Jbig2ForPdf imagesData : imagesDataList) {
-
-                Map<PdfObjId, PdfImage> jbig2Images = imagesData.getMapOfJbig2Images();
+            PdfWriter writer;
+            synchronized (pdf) {
+                stp = new PdfStamper(pdf, os, '\0', incrementalUpdate);
+                writer = stp.getWriter();
 
-                Iterator itImages = jbig2Images.values().iterator();
-                String key;
-                if (itImages.hasNext()) {
-                    PdfImage myImg = (PdfImage) itImages.next();
-                    key = myImg.getPdfImageInformation().getKey();
-                } else {
-                    key = "im0";
+                int version;
+                if ((version = Integer.parseInt(String.valueOf(pdf.getPdfVersion()))) < 4) {
+                    log.debug("PDF version of original PDF was {} => changing to PDF version 1.4", pdf.
+                            getPdfVersion());
+                    writer.setPdfVersion(PdfWriter.PDF_VERSION_1_4);
                 }
+            }
 
-                for (int pageNum = 1; pageNum <= pdf.getNumberOfPages(); pageNum++) {
-
-                    PdfDictionary pg = pdf.getPageN(pageNum);
-                    PdfDictionary resPg =
-                            (PdfDictionary) PdfReader.getPdfObject(pg.get(PdfName.RESOURCES));
-
-                    PdfDictionary xobjResPg =
-                            (PdfDictionary) PdfReader.getPdfObject(resPg.get(PdfName.XOBJECT));
-
-                    PdfObject obj = null;
-                    if (xobjResPg != null) {
-                        for (Iterator it = xobjResPg.getKeys().iterator(); it.hasNext();) {
-                            PdfObject pdfObjIndirect = xobjResPg.get((PdfName) it.next());
-                            if (pdfObjIndirect.isIndirect()) {
-                                PdfDictionary pdfObj2 = (PdfDictionary) PdfReader.getPdfObject(pdfObjIndirect);
-                                PdfDictionary xobj2Res = (PdfDictionary) PdfReader.getPdfObject(pdfObj2.
-                                        get(PdfName.RESOURCES));
-                                if (xobj2Res != null) {
-                                    for (Iterator it2 = xobj2Res.getKeys().iterator(); it2.hasNext();) {
-                                        PdfObject resObj = xobj2Res.get((PdfName) it2.next());
-                                    }
-                                    PdfDictionary xobj = (PdfDictionary) PdfReader.getPdfObject(xobj2Res.
-                                            get(PdfName.XOBJECT));
-                                    if (xobj == null) {
-                                        continue;
-                                    }
-                                    obj = xobj.get(new PdfName(key));
-                                } else {
-                                    obj = xobjResPg.get(new PdfName(key));
-                                    if (obj == null) {
-                                        obj = pdfObjIndirect;
-                                    }
-                                }
+            List<PdfImageInformation> replacedImages = new ArrayList<>();
+            Set<Integer> replacedGlobals = new HashSet<>();
+            for (Jbig2ForPdf imagesData : imagesDataList) {
+                try {
+                    synchronized (pdf) {
+                        for (PdfImage jbImage : imagesData.getSortedMapOfJbig2Images().values()) {
+                            if (replaceImage(pdf, writer, jbImage, imagesData.getGlobalData(), replacedGlobals)) {
+                                replacedImages.add(jbImage.getPdfImageInformation());
                             }
                         }
                     }
-
-                    if ((obj != null) && (obj.isIndirect())) {
-
-                        PdfDictionary tg = (PdfDictionary) PdfReader.getPdfObject(obj);
-                        if (tg == null) {
-                            continue;
-                        }
-                        PdfName type =
-                                (PdfName) PdfReader.getPdfObject(tg.get(PdfName.SUBTYPE));
-                        if (PdfName.IMAGE.equals(type)) {
-                            PRIndirectReference ref = (PRIndirectReference) obj;
-                            PdfObjId imId = new PdfObjId(ref.getNumber(), ref.getGeneration());
-                            PdfImage jbImage = jbig2Images.get(imId);
-                            if (jbImage == null) {
-                                continue;
-                            }
-
-                            log.debug("Replacing image {}", jbImage);
-                            PdfImageInformation jbImageInfo = jbImage.getPdfImageInformation();
-                            Image img = Image.getInstance(jbImageInfo.getWidth(), jbImageInfo.
-                                    getHeight(), jbImage.getImageData(), imagesData.getGlobalData());
-
-                            PdfReader.killIndirect(obj);
-                            Image maskImage = img.getImageMask();
-
-                            if (maskImage != null) {
-                                writer.addDirectImageSimple(maskImage);
-                            }
-                            writer.addDirectImageSimple(img, (PRIndirectReference) obj);
-                        }
+                } finally {
+                    log.debug("Deleting temporary files created during process of PDF recompression");
+                    Tools.deleteFilesFromList(imagesData.getJbFiles().toArray(new File[0]));
+                }
+            }
+            // duplicates are known only after all images were extracted
+            synchronized (pdf) {
+                redirectDuplicates(pdf, stp, replacedImages);
+                // incremental update keeps original objects anyway
+                if (!incrementalUpdate && (removeUnreachableImages || !replacedGlobals.isEmpty())) {
+                    BitSet reachable = PdfImageCatalog.findReachableObjects(pdf);
+                    if (removeUnreachableImages) {
+                        removeUnreachableImages(pdf, reachable);
                     }
+                    removeUnreachableGlobals(replacedGlobals, pdf, reachable);
                 }
             }
         } catch (IOException ioEx) {
@@ -196,13 +227,11 @@ public class PdfImageReplacer {
         } catch (DocumentException dEx) {
             throw new PdfRecompressionException(dEx);
         } finally {
-            log.debug("Deleting temporary files created during process of PDF recompression");
-            for (Jbig2ForPdf imagesData : imagesDataList) {
-                Tools.deleteFilesFromList(imagesData.getJbFiles().toArray(new File[0]));
-            }
             try {
                 if (stp != null) {
-                    stp.close();
+                    synchronized (pdf) {
+                        stp.close();
+                    }
                 }
             } catch (DocumentException ex) {
                 log.error("Exception thrown while closing stream", ex);
@@ -212,4 +241,155 @@ public class PdfImageReplacer {
         }
 
     }
+
+    /**
+     * replaces image directly through its indirect reference given by object and generation number,
+     * so it doesn't matter where (and how many times) the image is used in the document
+     *
+     * @param replacedGlobals object numbers of global segments used by replaced JBIG2 images are added there
+     * @return true if image was replaced
+     */
+    private boolean replaceImage(PdfReader pdf, PdfWriter writer, PdfImage jbImage, byte[] globalData,
+            Set<Integer> replacedGlobals) throws IOException, DocumentException, PdfRecompressionException {
+        PdfImageInformation jbImageInfo = jbImage.getPdfImageInformation();
+        PRIndirectReference ref = new PRIndirectReference(pdf, jbImageInfo.getObjectNum(),
+                jbImageInfo.getObjectGenNum());
+        PdfObject original = pdf.getPdfObjectRelease(ref.getNumber());
+        if ((original == null) || !original.isStream()
+                || !PdfName.IMAGE.equals(((PdfDictionary) original).getAsName(PdfName.SUBTYPE))) {
+            log.warn("Object {} is not an image => skipping replacement", ref);
+            return false;
+        }
+
+        log.debug("Replacing image {}", jbImage);
+        Image img = Image.getInstance(jbImageInfo.getWidth(), jbImageInfo.getHeight(), jbImage.getImageData(),
+                globalData);
+
+        PdfIndirectReference originalGlobals = Jbig2ImageDecoder.getGlobalsReference((PdfDictionary) original);
+        if (originalGlobals != null) {
+            replacedGlobals.add(originalGlobals.getNumber());
+        }
+        PdfReader.killIndirect(ref);
+        Image maskImage = img.getImageMask();
+
+        if (maskImage != null) {
+            writer.addDirectImageSimple(maskImage);
+        }
+        writer.addDirectImageSimple(img, ref);
+        return true;
+    }
+
+    /**
+     * points all references to duplicates of replaced images to the replaced image and removes duplicates,
+     * so that all of them share single JBIG2 stream
+     */
+    private void redirectDuplicates(PdfReader pdf, PdfStamper stp, List<PdfImageInformation> replacedImages) {
+        Map<Integer, PRIndirectReference> redirects = new HashMap<>();
+        for (PdfImageInformation imageInfo : replacedImages) {
+            PRIndirectReference ref = new PRIndirectReference(pdf, imageInfo.getObjectNum(),
+                    imageInfo.getObjectGenNum());
+            for (PdfObjId duplicate : imageInfo.getDuplicates()) {
+                redirects.put(duplicate.getObjectNumber(), ref);
+            }
+        }
+        if (redirects.isEmpty()) {
+            return;
+        }
+
+        log.info("Redirecting {} duplicates of images to their recompressed version", redirects.size());
+        for (int objectNum = 1; objectNum < pdf.getXrefSize(); objectNum++) {
+            if (redirects.containsKey(objectNum)) {
+                continue;
+            }
+            PdfObject obj = pdf.getPdfObject(objectNum);
+            if ((obj != null) && redirectReferences(obj, redirects)) {
+                // changed object has to be kept by reader in partial mode and written in append mode
+                if (obj.getIndRef() == null) {
+                    obj.setIndRef(new PRIndirectReference(pdf, objectNum));
+                }
+                stp.markUsed(obj);
+            } else {
+                pdf.releaseLastXrefPartial();
+            }
+        }
+        for (Integer duplicateNum : redirects.keySet()) {
+            PdfReader.killIndirect(new PRIndirectReference(pdf, duplicateNum));
+        }
+    }
+
+    /**
+     * removes global segments of replaced JBIG2 images unless they are still used by other images
+     */
+    private static void removeUnreachableGlobals(Set<Integer> replacedGlobals, PdfReader pdf, BitSet reachable) {
+        int removed = 0;
+        for (int globalsNum : replacedGlobals) {
+            if (!reachable.get(globalsNum)) {
+                PdfReader.killIndirect(new PRIndirectReference(pdf, globalsNum));
+                removed++;
+            }
+        }
+        if (removed > 0) {
+            log.info("Removed {} global dictionaries of replaced JBIG2 images", removed);
+        }
+    }
+
+    /**
+     * removes images which can't be reached from trailer, so that stamper doesn't copy them to the output
+     */
+    private void removeUnreachableImages(PdfReader pdf, BitSet reachable) {
+        for (int objectNum = reachable.nextClearBit(1); objectNum < pdf.getXrefSize();
+                objectNum = reachable.nextClearBit(objectNum + 1)) {
+            PdfObject obj = pdf.getPdfObjectRelease(objectNum);
+            if ((obj != null) && obj.isStream()
+                    && PdfName.IMAGE.equals(((PdfDictionary) obj).getAsName(PdfName.SUBTYPE))) {
+                PdfReader.killIndirect(new PRIndirectReference(pdf, objectNum));
+                removedImages++;
+            }
+        }
+        if (removedImages > 0) {
+            log.info("Removed {} images which aren't referenced from the document", removedImages);
+        }
+    }
+
+    /**
+     * replaces references to duplicates inside given object (not following indirect references)
+     *
+     * @return true if object was changed
+     */
+    private static boolean redirectReferences(PdfObject obj, Map<Integer, PRIndirectReference> redirects) {
+        boolean changed = false;
+        if (obj.isDictionary() || obj.isStream()) {
+            PdfDictionary dict = (PdfDictionary) obj;
+            for (PdfName key : new ArrayList<>(dict.getKeys())) {
+                PdfObject value = dict.get(key);
+                PRIndirectReference target = getRedirect(value, redirects);
+                if (target != null) {
+                    dict.put(key, target);
+                    changed = true;
+                } else if (value != null) {
+                    changed |= redirectReferences(value, redirects);
+                }
+            }
+        } else if (obj.isArray()) {
+            PdfArray array = (PdfArray) obj;
+            for (int i = 0; i < array.size(); i++) {
+                PdfObject value = array.getPdfObject(i);
+                PRIndirectReference target = getRedirect(value, redirects);
+                if (target != null) {
+                    array.set(i, target);
+                    changed = true;
+                } else if (value != null) {
+                    changed |= redirectReferences(value, redirects);
+                }
+            }
+        }
+        return changed;
+    }
+
+    private static PRIndirectReference getRedirect(PdfObject value, Map<Integer, PRIndirectReference> redirects) {
+        if ((value == null) || !value.isIndirect()) {
+            return null;
+        }
+        return redirects.get(((PdfIndirectReference) value).getNumber());
+    }
 }
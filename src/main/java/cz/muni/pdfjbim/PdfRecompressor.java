@@ -0,0 +1,333 @@
+/*
+ *  Copyright 2016 Radim Hatlapatka.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package cz.muni.pdfjbim;
+
+import com.itextpdf.text.pdf.PdfReader;
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * recompresses bi-tonal images of PDF document according to JBIG2 standard,
+ * PDF is parsed only once and input and output PDF are never stored to disk, only images exchanged with jbig2enc
+ * are stored in private directory created in work directory given by options.
+ * Recompressor is immutable and each recompression has its own context, so one instance can be used
+ * by many threads at the same time.
+ *
+ * @author Radim Hatlapatka (hata.radim@gmail.com)
+ */
+public class PdfRecompressor {
+
+    private static final Logger log = LoggerFactory.getLogger(PdfRecompressor.class);
+
+    private final RecompressionOptions options;
+
+    /**
+     * @param options options of recompression, they are copied so later changes don't affect this recompressor
+     */
+    public PdfRecompressor(RecompressionOptions options) {
+        if (options == null) {
+            throw new NullPointerException("options");
+        }
+        this.options = options.immutableCopy();
+    }
+
+    /**
+     * @return immutable options used by this recompressor
+     */
+    public RecompressionOptions getOptions() {
+        return options;
+    }
+
+    /**
+     * recompresses PDF read from input stream
+     *
+     * @param in input stream containing original PDF, it is read fully but not closed
+     * @param out output stream where recompressed PDF is written
+     * @return number of recompressed images
+     * @throws PdfRecompressionException if recompression fails
+     */
+    public int recompress(InputStream in, OutputStream out) throws PdfRecompressionException {
+        if (in == null) {
+            throw new NullPointerException("in");
+        }
+        try {
+            return recompress(ByteBuffer.wrap(IOUtils.toByteArray(in)), out);
+        } catch (IOException ex) {
+            throw new PdfRecompressionException("Unable to read input PDF", ex);
+        }
+    }
+
+    /**
+     * recompresses PDF held in memory
+     *
+     * @param in buffer containing original PDF between its position and limit
+     * @param out output stream where recompressed PDF is written
+     * @return number of recompressed images
+     * @throws PdfRecompressionException if recompression fails
+     */
+    public int recompress(ByteBuffer in, OutputStream out) throws PdfRecompressionException {
+        if (in == null) {
+            throw new NullPointerException("in");
+        }
+        final byte[] data;
+        if (in.hasArray() && (in.arrayOffset() + in.position() == 0) && (in.remaining() == in.array().length)) {
+            data = in.array();
+        } else {
+            data = new byte[in.remaining()];
+            in.duplicate().get(data);
+        }
+        return recompress(new PdfSource() {
+            @Override
+            public PdfReader open(byte[] password) throws IOException {
+                return new PdfReader(data, password);
+            }
+        }, PdfImageExtractor.class.getName(), out);
+    }
+
+    /**
+     * recompresses PDF file, output file may be the same as input file, in that case incremental update
+     * (if enabled by options) is appended directly to the input file
+     *
+     * @param in original PDF file
+     * @param out file where recompressed PDF is written
+     * @return number of recompressed images
+     * @throws PdfRecompressionException if recompression fails
+     */
+    public int recompress(final File in, File out) throws PdfRecompressionException {
+        if (in == null) {
+            throw new NullPointerException("in");
+        }
+        if (out == null) {
+            throw new NullPointerException("out");
+        }
+        PdfSource source = new PdfSource() {
+            @Override
+            public PdfReader open(byte[] password) throws IOException {
+                if (options.isPartialRead()) {
+                    return Tools.openPdfPartially(in, password);
+                }
+                return new PdfReader(in.getPath(), password);
+            }
+        };
+
+        try {
+            if (options.isIncrementalUpdate() && out.exists()
+                    && out.getCanonicalFile().equals(in.getCanonicalFile())) {
+                return appendInPlace(source, in);
+            }
+
+            // input is still read while writing output => overwriting it directly would destroy it
+            File target = out;
+            boolean overwritesInput = out.exists() && out.getCanonicalFile().equals(in.getCanonicalFile());
+            if (overwritesInput) {
+                target = File.createTempFile("pdfjbim", ".pdf", out.getCanonicalFile().getParentFile());
+            }
+            try {
+                int recompressed;
+                try (OutputStream os = new FileOutputStream(target)) {
+                    recompressed = recompress(source, in.getName(), os);
+                }
+                if (overwritesInput) {
+                    Files.move(target.toPath(), out.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                }
+                return recompressed;
+            } finally {
+                if (overwritesInput && target.exists() && !target.delete()) {
+                    log.warn("problem to delete file: " + target.getPath());
+                }
+            }
+        } catch (IOException ex) {
+            throw new PdfRecompressionException("writing output to the file " + out + " caused error", ex);
+        }
+    }
+
+    /**
+     * appends incremental update to the original file, original content is not rewritten at all,
+     * when recompression fails, file is truncated back to its original length
+     */
+    private int appendInPlace(PdfSource source, File pdfFile)
+            throws PdfRecompressionException, IOException {
+        // offsets of appended update are valid only if the copy made by iText is the file itself
+        if (!startsWithHeader(pdfFile)) {
+            throw new PdfRecompressionException(pdfFile + " doesn't start with PDF header => it can't be updated "
+                    + "in place");
+        }
+        long originalLength = pdfFile.length();
+        boolean finished = false;
+        try (InputStream original = new BufferedInputStream(new FileInputStream(pdfFile))) {
+            // incremental update starts with copy of original PDF which is already in the file
+            int recompressed;
+            try (OutputStream os = new SkippingOutputStream(new FileOutputStream(pdfFile, true), original,
+                    originalLength)) {
+                recompressed = recompress(source, pdfFile.getName(), os);
+            }
+            finished = true;
+            return recompressed;
+        } finally {
+            if (!finished) {
+                try (RandomAccessFile raf = new RandomAccessFile(pdfFile, "rw")) {
+                    raf.setLength(originalLength);
+                }
+            }
+        }
+    }
+
+    private static boolean startsWithHeader(File pdfFile) throws IOException {
+        byte[] header = "%PDF-".getBytes(StandardCharsets.US_ASCII);
+        byte[] start = new byte[header.length];
+        try (InputStream is = new FileInputStream(pdfFile)) {
+            return (IOUtils.read(is, start) == start.length) && Arrays.equals(header, start);
+        }
+    }
+
+    private int recompress(PdfSource source, String name, OutputStream out) throws PdfRecompressionException {
+        if (out == null) {
+            throw new NullPointerException("out");
+        }
+
+        // everything specific to one document is held by its job => recompressor can be used by several threads
+        RecompressionJob job = new RecompressionJob(name);
+        try {
+            return job.run(source, out);
+        } finally {
+            job.cleanUp();
+        }
+    }
+
+    /**
+     * context of recompression of one document
+     */
+    private class RecompressionJob {
+
+        private final String name;
+        private final File workDir;
+        private final String basename;
+
+        RecompressionJob(String name) throws PdfRecompressionException {
+            this.name = name;
+            try {
+                workDir = Files.createTempDirectory(options.getWorkDir().toPath(), "pdfjbim").toFile();
+            } catch (IOException ex) {
+                throw new PdfRecompressionException("Unable to create temporary directory in " + options.getWorkDir(), ex);
+            }
+            basename = new File(workDir, "output").getPath();
+        }
+
+        int run(PdfSource source, OutputStream out) throws PdfRecompressionException {
+            RecompressionPipeline pipeline = new RecompressionPipeline(options,
+                    new File(workDir, "image").getPath(), basename);
+            // the same reader is used for extraction and replacement => PDF is parsed only once
+            PdfReader reader;
+            try {
+                String password = options.getPassword();
+                reader = source.open((password != null) ? password.getBytes(StandardCharsets.UTF_8) : null);
+            } catch (IOException ex) {
+                throw new PdfRecompressionException("Unable to read " + name, ex);
+            }
+            int imagesInTotal;
+            try {
+                imagesInTotal = pipeline.run(reader, out);
+            } finally {
+                reader.close();
+            }
+            if (imagesInTotal == 0) {
+                log.debug("No images in {} to recompress", name);
+            }
+            return imagesInTotal;
+        }
+
+        void cleanUp() {
+            FileUtils.deleteQuietly(workDir);
+        }
+    }
+
+    /**
+     * discards given number of bytes written at the beginning and passes the rest to underlying stream,
+     * discarded bytes have to be the same as original content, otherwise appended data wouldn't fit it
+     */
+    private static class SkippingOutputStream extends FilterOutputStream {
+
+        private final InputStream original;
+        private long toSkip;
+
+        SkippingOutputStream(OutputStream out, InputStream original, long toSkip) {
+            super(out);
+            this.original = original;
+            this.toSkip = toSkip;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (toSkip > 0) {
+                checkOriginal((byte) b);
+                toSkip--;
+            } else {
+                out.write(b);
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            int skipped = (int) Math.min(toSkip, len);
+            for (int i = 0; i < skipped; i++) {
+                checkOriginal(b[off + i]);
+            }
+            toSkip -= skipped;
+            if (skipped < len) {
+                out.write(b, off + skipped, len - skipped);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            super.close();
+            if (toSkip > 0) {
+                throw new IOException("output is shorter than original content by " + toSkip + " bytes");
+            }
+        }
+
+        private void checkOriginal(byte b) throws IOException {
+            if (original.read() != (b & 0xFF)) {
+                throw new IOException("output doesn't start with original content");
+            }
+        }
+    }
+
+    /**
+     * opens the original PDF
+     */
+    private interface PdfSource {
+
+        PdfReader open(byte[] password) throws IOException;
+    }
+}
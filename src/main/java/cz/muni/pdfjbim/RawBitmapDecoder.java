@@ -0,0 +1,123 @@
+/*
+ *  Copyright 2016 Radim Hatlapatka.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package cz.muni.pdfjbim;
+
+import com.itextpdf.text.pdf.PRStream;
+import com.itextpdf.text.pdf.PdfArray;
+import com.itextpdf.text.pdf.PdfBoolean;
+import com.itextpdf.text.pdf.PdfName;
+import com.itextpdf.text.pdf.PdfNumber;
+import com.itextpdf.text.pdf.PdfObject;
+import com.itextpdf.text.pdf.PdfReader;
+import cz.muni.pdfjbim.jbig2.BitonalImage;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * decodes bi-tonal images directly from samples of PDF stream (as decoded by filters of PdfReader)
+ * into BitonalImage, so that no BufferedImage nor intermediate PNG or TIFF is created.
+ * Samples of 1-bit gray images and image masks are already packed rows padded to whole bytes,
+ * only their meaning (0 is black unless /Decode is [1 0]) is reversed to JBIG2 one.
+ *
+ * @author Radim Hatlapatka (hata.radim@gmail.com)
+ */
+public class RawBitmapDecoder {
+
+    // filters decoded by PdfReader.getStreamBytes
+    private static final Set<PdfName> SUPPORTED_FILTERS = new HashSet<PdfName>(Arrays.asList(
+            PdfName.FLATEDECODE, PdfName.FL, PdfName.CCITTFAXDECODE, new PdfName("CCF"),
+            PdfName.ASCIIHEXDECODE, PdfName.AHX, PdfName.ASCII85DECODE, PdfName.A85,
+            PdfName.LZWDECODE, PdfName.RUNLENGTHDECODE, new PdfName("RL")));
+
+    private RawBitmapDecoder() {
+    }
+
+    /**
+     * @param stream image stream
+     * @return true if image is 1-bit gray image or image mask compressed by filters decoded by PdfReader
+     */
+    public static boolean isSupported(PRStream stream) {
+        if (stream == null) {
+            throw new NullPointerException("stream");
+        }
+        PdfObject filter = PdfReader.getPdfObject(stream.get(PdfName.FILTER));
+        if (filter == null) {
+            return false;
+        }
+        if (filter.isName()) {
+            if (!SUPPORTED_FILTERS.contains((PdfName) filter)) {
+                return false;
+            }
+        } else if (filter.isArray()) {
+            PdfArray filterArray = (PdfArray) filter;
+            for (int i = 0; i < filterArray.size(); i++) {
+                if (!SUPPORTED_FILTERS.contains(filterArray.getDirectObject(i))) {
+                    return false;
+                }
+            }
+        } else {
+            return false;
+        }
+
+        if (PdfBoolean.PDFTRUE.equals(PdfReader.getPdfObject(stream.get(PdfName.IMAGEMASK)))) {
+            return true;
+        }
+        PdfNumber bpc = stream.getAsNumber(PdfName.BITSPERCOMPONENT);
+        if ((bpc == null) || (bpc.intValue() != 1)) {
+            return false;
+        }
+        PdfObject colorSpace = PdfReader.getPdfObject(stream.get(PdfName.COLORSPACE));
+        if ((colorSpace != null) && colorSpace.isArray() && !((PdfArray) colorSpace).isEmpty()) {
+            colorSpace = PdfReader.getPdfObject(((PdfArray) colorSpace).getPdfObject(0));
+        }
+        return PdfName.DEVICEGRAY.equals(colorSpace) || PdfName.CALGRAY.equals(colorSpace);
+    }
+
+    /**
+     * creates image from decoded samples of supported image
+     *
+     * @param stream image stream (its dictionary gives dimensions and /Decode)
+     * @param samples samples of image as returned by PdfReader.getStreamBytes
+     * @return image (1 is black) or null if there isn't enough samples
+     */
+    public static BitonalImage decode(PRStream stream, byte[] samples) {
+        if (stream == null) {
+            throw new NullPointerException("stream");
+        }
+        if (samples == null) {
+            throw new NullPointerException("samples");
+        }
+        PdfNumber width = stream.getAsNumber(PdfName.WIDTH);
+        PdfNumber height = stream.getAsNumber(PdfName.HEIGHT);
+        if ((width == null) || (height == null) || (width.intValue() <= 0) || (height.intValue() <= 0)) {
+            return null;
+        }
+        if (samples.length < (long) ((width.intValue() + 7) / 8) * height.intValue()) {
+            return null;
+        }
+
+        // samples are black when 0, /Decode [1 0] makes them black when 1 which is the meaning in JBIG2
+        boolean inverted = false;
+        PdfArray decode = stream.getAsArray(PdfName.DECODE);
+        if ((decode != null) && (decode.size() >= 2)) {
+            PdfNumber first = decode.getAsNumber(0);
+            inverted = (first != null) && (first.floatValue() > 0.5f);
+        }
+        return BitonalImage.fromPackedRows(samples, width.intValue(), height.intValue(), inverted);
+    }
+}
@@ -0,0 +1,448 @@
+/*
+ *  Copyright 2016 Radim Hatlapatka.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package cz.muni.pdfjbim;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Semaphore;
+
+/**
+ * options of PDF recompression, default values are the same as used by command line interface.
+ * Options are mutable until immutable copy is created, the copy is used by PdfRecompressor.
+ *
+ * @author Radim Hatlapatka (hata.radim@gmail.com)
+ */
+public class RecompressionOptions {
+
+    /**
+     * images are encoded by jbig2enc process
+     */
+    public static final String ENCODER_JBIG2ENC = "jbig2enc";
+    /**
+     * images are encoded in JVM as generic regions
+     */
+    public static final String ENCODER_JAVA = "java";
+    /**
+     * images are encoded in JVM by symbol coding with global dictionary shared by chunk
+     */
+    public static final String ENCODER_JAVA_SYMBOL = "java-symbol";
+
+    private String encoder = ENCODER_JBIG2ENC;
+    private String jbig2enc = "jbig2"; // path to jbig2enc encoder executable
+    private String password = null;
+    private Set<Integer> pagesToProcess = null;
+    private boolean binarize = false;
+    private boolean recompressJbig2Images = true;
+    private double defaultThresh = 0.85;
+    private int bwThresh = 188;
+    private boolean autoThresh = false;
+    private boolean useOcr = false;
+    private String lang = null;
+    private boolean forcedOcr = false;
+    private boolean segment = false;
+    private int imagesPerGlobalDictionary = Integer.MAX_VALUE;
+    private int clusteredChunks = 1;
+    private long maxGlobalDataSize = Long.MAX_VALUE;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private File workDir = new File(System.getProperty("java.io.tmpdir"));
+    private boolean partialRead = false;
+    private boolean incrementalUpdate = false;
+    private boolean removeUnreachableImages = true;
+    private Jbig2Cache cache = null;
+    private Semaphore encoderPermits = null;
+    private boolean immutable = false;
+
+    public RecompressionOptions() {
+    }
+
+    /**
+     * creates copy of given options, the copy is mutable
+     *
+     * @param options options to copy
+     */
+    public RecompressionOptions(RecompressionOptions options) {
+        if (options == null) {
+            throw new NullPointerException("options");
+        }
+        encoder = options.encoder;
+        jbig2enc = options.jbig2enc;
+        password = options.password;
+        pagesToProcess = (options.pagesToProcess != null)
+                ? Collections.unmodifiableSet(new HashSet<Integer>(options.pagesToProcess)) : null;
+        binarize = options.binarize;
+        recompressJbig2Images = options.recompressJbig2Images;
+        defaultThresh = options.defaultThresh;
+        bwThresh = options.bwThresh;
+        autoThresh = options.autoThresh;
+        useOcr = options.useOcr;
+        lang = options.lang;
+        forcedOcr = options.forcedOcr;
+        segment = options.segment;
+        imagesPerGlobalDictionary = options.imagesPerGlobalDictionary;
+        clusteredChunks = options.clusteredChunks;
+        maxGlobalDataSize = options.maxGlobalDataSize;
+        threads = options.threads;
+        workDir = options.workDir;
+        partialRead = options.partialRead;
+        incrementalUpdate = options.incrementalUpdate;
+        removeUnreachableImages = options.removeUnreachableImages;
+        cache = options.cache;
+        encoderPermits = options.encoderPermits;
+    }
+
+    /**
+     * @return copy of these options which can't be changed anymore, so it can be shared by several threads
+     */
+    public RecompressionOptions immutableCopy() {
+        if (immutable) {
+            return this;
+        }
+        RecompressionOptions copy = new RecompressionOptions(this);
+        copy.immutable = true;
+        return copy;
+    }
+
+    /**
+     * @return true if setters of these options throw IllegalStateException
+     */
+    public boolean isImmutable() {
+        return immutable;
+    }
+
+    private void checkMutable() {
+        if (immutable) {
+            throw new IllegalStateException("options are immutable");
+        }
+    }
+
+    public String getEncoder() {
+        return encoder;
+    }
+
+    /**
+     * @param encoder name of image encoder used for images (ENCODER_JBIG2ENC, ENCODER_JAVA,
+     * ENCODER_JAVA_SYMBOL or name of other encoder found by ServiceLoader)
+     */
+    public void setEncoder(String encoder) {
+        checkMutable();
+        if (encoder == null) {
+            throw new NullPointerException("encoder");
+        }
+        if (ImageEncoders.get(encoder) == null) {
+            throw new IllegalArgumentException("Unknown encoder " + encoder);
+        }
+        this.encoder = encoder;
+    }
+
+    public String getJbig2enc() {
+        return jbig2enc;
+    }
+
+    /**
+     * @param jbig2enc path to jbig2enc encoder executable
+     */
+    public void setJbig2enc(String jbig2enc) {
+        checkMutable();
+        if (jbig2enc == null) {
+            throw new NullPointerException("jbig2enc");
+        }
+        this.jbig2enc = jbig2enc;
+    }
+
+    public String getPassword() {
+        return password;
+    }
+
+    /**
+     * @param password password used for decrypting PDF or null if PDF is not encrypted
+     */
+    public void setPassword(String password) {
+        checkMutable();
+        this.password = password;
+    }
+
+    public Set<Integer> getPagesToProcess() {
+        return pagesToProcess;
+    }
+
+    /**
+     * @param pagesToProcess pages which should be processed, null means all pages
+     */
+    public void setPagesToProcess(Set<Integer> pagesToProcess) {
+        checkMutable();
+        this.pagesToProcess = pagesToProcess;
+    }
+
+    public boolean isBinarize() {
+        return binarize;
+    }
+
+    /**
+     * @param binarize enables processing of nonbitonal images as well
+     */
+    public void setBinarize(boolean binarize) {
+        checkMutable();
+        this.binarize = binarize;
+    }
+
+    public boolean isRecompressJbig2Images() {
+        return recompressJbig2Images;
+    }
+
+    /**
+     * @param recompressJbig2Images if true, images already compressed by JBIG2Decode are decoded and encoded
+     * again together with other images, so that they share new global dictionary
+     */
+    public void setRecompressJbig2Images(boolean recompressJbig2Images) {
+        checkMutable();
+        this.recompressJbig2Images = recompressJbig2Images;
+    }
+
+    public double getDefaultThresh() {
+        return defaultThresh;
+    }
+
+    public void setDefaultThresh(double defaultThresh) {
+        checkMutable();
+        this.defaultThresh = defaultThresh;
+    }
+
+    public int getBwThresh() {
+        return bwThresh;
+    }
+
+    public void setBwThresh(int bwThresh) {
+        checkMutable();
+        this.bwThresh = bwThresh;
+    }
+
+    public boolean isAutoThresh() {
+        return autoThresh;
+    }
+
+    public void setAutoThresh(boolean autoThresh) {
+        checkMutable();
+        this.autoThresh = autoThresh;
+    }
+
+    public boolean isUseOcr() {
+        return useOcr;
+    }
+
+    public void setUseOcr(boolean useOcr) {
+        checkMutable();
+        this.useOcr = useOcr;
+    }
+
+    public String getLang() {
+        return lang;
+    }
+
+    public void setLang(String lang) {
+        checkMutable();
+        this.lang = lang;
+    }
+
+    public boolean isForcedOcr() {
+        return forcedOcr;
+    }
+
+    public void setForcedOcr(boolean forcedOcr) {
+        checkMutable();
+        this.forcedOcr = forcedOcr;
+    }
+
+    public boolean isSegment() {
+        return segment;
+    }
+
+    /**
+     * @param segment enables option -S of jbig2enc => images are segmented separately
+     */
+    public void setSegment(boolean segment) {
+        checkMutable();
+        this.segment = segment;
+    }
+
+    public int getImagesPerGlobalDictionary() {
+        return imagesPerGlobalDictionary;
+    }
+
+    /**
+     * @param imagesPerGlobalDictionary maximal number of images sharing one global dictionary
+     */
+    public void setImagesPerGlobalDictionary(int imagesPerGlobalDictionary) {
+        checkMutable();
+        if (imagesPerGlobalDictionary < 1) {
+            throw new IllegalArgumentException("imagesPerGlobalDictionary");
+        }
+        this.imagesPerGlobalDictionary = imagesPerGlobalDictionary;
+    }
+
+    public int getClusteredChunks() {
+        return clusteredChunks;
+    }
+
+    /**
+     * @param clusteredChunks number of chunks (of imagesPerGlobalDictionary images) whose images are
+     * regrouped by similarity of their symbols (ChunkPlanner), 1 keeps images in order of extraction
+     */
+    public void setClusteredChunks(int clusteredChunks) {
+        checkMutable();
+        if (clusteredChunks < 1) {
+            throw new IllegalArgumentException("clusteredChunks");
+        }
+        this.clusteredChunks = clusteredChunks;
+    }
+
+    public long getMaxGlobalDataSize() {
+        return maxGlobalDataSize;
+    }
+
+    /**
+     * @param maxGlobalDataSize maximal size of global dictionary in bytes, chunks with larger global data
+     * are split and encoded again (chunk of single image is kept whatever size its global data have)
+     */
+    public void setMaxGlobalDataSize(long maxGlobalDataSize) {
+        checkMutable();
+        if (maxGlobalDataSize < 1) {
+            throw new IllegalArgumentException("maxGlobalDataSize");
+        }
+        this.maxGlobalDataSize = maxGlobalDataSize;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * @param threads number of chunks encoded in parallel (encoder workers of pipeline), it bounds number
+     * of jbig2enc processes of one document as well
+     */
+    public void setThreads(int threads) {
+        checkMutable();
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads");
+        }
+        this.threads = threads;
+    }
+
+    public File getWorkDir() {
+        return workDir;
+    }
+
+    /**
+     * @param workDir directory where private directories for temporary files (e.g. PBM input of jbig2enc)
+     * are created, pointing it to memory backed file system (e.g. /dev/shm) avoids any disk access
+     */
+    public void setWorkDir(File workDir) {
+        checkMutable();
+        if (workDir == null) {
+            throw new NullPointerException("workDir");
+        }
+        this.workDir = workDir;
+    }
+
+    public boolean isPartialRead() {
+        return partialRead;
+    }
+
+    /**
+     * @param partialRead if true, objects of PDF given as file are read lazily instead of loading whole PDF
+     * to memory, which keeps memory usage low for huge PDFs
+     */
+    public void setPartialRead(boolean partialRead) {
+        checkMutable();
+        this.partialRead = partialRead;
+    }
+
+    public boolean isIncrementalUpdate() {
+        return incrementalUpdate;
+    }
+
+    /**
+     * @param incrementalUpdate if true, output is written as incremental update of original PDF, when
+     * PDF file is recompressed in place, the update is just appended to the file
+     */
+    public void setIncrementalUpdate(boolean incrementalUpdate) {
+        checkMutable();
+        this.incrementalUpdate = incrementalUpdate;
+    }
+
+    public boolean isRemoveUnreachableImages() {
+        return removeUnreachableImages;
+    }
+
+    /**
+     * @param removeUnreachableImages if true, images which aren't reachable from trailer of PDF are neither
+     * encoded nor written to the output (for incremental update they are only not encoded)
+     */
+    public void setRemoveUnreachableImages(boolean removeUnreachableImages) {
+        checkMutable();
+        this.removeUnreachableImages = removeUnreachableImages;
+    }
+
+    public Jbig2Cache getCache() {
+        return cache;
+    }
+
+    /**
+     * @param cache cache of encoded chunks or null if encoded chunks shouldn't be cached
+     */
+    public void setCache(Jbig2Cache cache) {
+        checkMutable();
+        this.cache = cache;
+    }
+
+    public Semaphore getEncoderPermits() {
+        return encoderPermits;
+    }
+
+    /**
+     * @param encoderPermits global budget of jbig2enc processes shared by all recompressions using these
+     * options, null means that only number of threads of each recompression is limited
+     */
+    public void setEncoderPermits(Semaphore encoderPermits) {
+        checkMutable();
+        this.encoderPermits = encoderPermits;
+    }
+
+    /**
+     * @return encoder configured according to these options
+     */
+    public Jbig2enc createJbig2enc() {
+        Jbig2enc jbig2 = new Jbig2enc(jbig2enc);
+        jbig2.setAutoThresh(autoThresh); // engages modified version of the jbig2 encoder
+        jbig2.setBwThresh(bwThresh);
+        jbig2.setDefaultThresh(defaultThresh);
+        jbig2.setUseOcr(useOcr);
+        jbig2.setForcedOcrForUnknownResolution(forcedOcr);
+        jbig2.setLang(lang);
+        jbig2.setSegment(segment);
+        jbig2.setProcessPermits(encoderPermits);
+        return jbig2;
+    }
+
+    /**
+     * @return image encoder selected by these options
+     */
+    public ImageEncoder getImageEncoder() {
+        return ImageEncoders.get(encoder);
+    }
+}
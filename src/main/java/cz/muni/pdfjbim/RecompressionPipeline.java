@@ -0,0 +1,421 @@
+/*
+ *  Copyright 2016 Radim Hatlapatka.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package cz.muni.pdfjbim;
+
+import com.itextpdf.text.pdf.PdfReader;
+import cz.muni.pdfjbim.jbig2.BitonalImage;
+import cz.muni.pdfjbim.jbig2.EncodedChunk;
+import cz.muni.pdfjbim.jbig2.Jbig2Segments;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * recompresses PDF in three stages running at the same time: images are extracted, chunks of extracted
+ * images are encoded by image encoder selected by options as soon as they are full and encoded chunks
+ * are replaced in the output as soon as they are finished.
+ * Stages are connected by bounded queues, so extraction waits when encoders can't keep up and
+ * only limited number of chunks of extracted images is held in memory at the same time.
+ *
+ * @author Radim Hatlapatka (hata.radim@gmail.com)
+ */
+public class RecompressionPipeline {
+
+    private static final Logger log = LoggerFactory.getLogger(RecompressionPipeline.class);
+
+    private static final Chunk END_OF_CHUNKS = new Chunk(null, null, null);
+    private static final Object ENCODER_FINISHED = new Object();
+
+    private final RecompressionOptions options;
+    private final Jbig2enc jbig2enc;
+    private final ImageEncoder imageEncoder;
+    private final Jbig2Cache cache;
+    private final String imagePrefix;
+    private final String basename;
+    private final int encoders;
+    private final BlockingQueue<Chunk> extractedChunks;
+    private final BlockingQueue<Object> encodedChunks;
+    private final AtomicReference<PdfRecompressionException> failure = new AtomicReference<>();
+    private int chunkCounter = 0;
+    private int imagesInTotal = 0;
+
+    /**
+     * @param options options of recompression
+     * @param imagePrefix prefix of temporary files of images which have to be thresholded
+     * @param basename basename of chunks identifying them in log, each chunk gets unique suffix
+     */
+    public RecompressionPipeline(RecompressionOptions options, String imagePrefix, String basename) {
+        if (options == null) {
+            throw new NullPointerException("options");
+        }
+        if (imagePrefix == null) {
+            throw new NullPointerException("imagePrefix");
+        }
+        if (basename == null) {
+            throw new NullPointerException("basename");
+        }
+        this.options = options;
+        this.jbig2enc = options.createJbig2enc();
+        this.imageEncoder = options.getImageEncoder();
+        this.cache = options.getCache();
+        this.imagePrefix = imagePrefix;
+        this.basename = basename;
+        this.encoders = options.getThreads();
+        this.extractedChunks = new ArrayBlockingQueue<>(encoders);
+        this.encodedChunks = new ArrayBlockingQueue<>(encoders);
+    }
+
+    /**
+     * runs all stages and waits until output is written
+     *
+     * @param reader reader of original PDF shared by extraction and replacement stage, so PDF is parsed only once
+     * @param out output stream where recompressed PDF is written
+     * @return number of recompressed images
+     * @throws PdfRecompressionException if any stage fails
+     */
+    public int run(PdfReader reader, OutputStream out) throws PdfRecompressionException {
+        ExecutorService stages = Executors.newFixedThreadPool(encoders + 1);
+        try {
+            stages.submit(new ExtractionStage(reader));
+            for (int i = 0; i < encoders; i++) {
+                stages.submit(new EncodingStage());
+            }
+
+            PdfImageReplacer imageReplacer = new PdfImageReplacer();
+            imageReplacer.setIncrementalUpdate(options.isIncrementalUpdate());
+            imageReplacer.setRemoveUnreachableImages(options.isRemoveUnreachableImages());
+            try {
+                imageReplacer.replaceImageUsingIText(reader, out, new EncodedChunks());
+            } catch (StageFailedException ex) {
+                throw ex.getCause();
+            }
+            checkFailure();
+            if (cache != null) {
+                log.info("Cache of encoded chunks: {} hits, {} misses", cache.getHits(), cache.getMisses());
+            }
+            return imagesInTotal;
+        } finally {
+            stages.shutdownNow();
+            try {
+                if (!stages.awaitTermination(1, TimeUnit.MINUTES)) {
+                    log.warn("stages of recompression didn't finish in time");
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void fail(PdfRecompressionException ex) {
+        if (!failure.compareAndSet(null, ex)) {
+            log.debug("Another stage failed before", ex);
+        }
+    }
+
+    private void checkFailure() throws PdfRecompressionException {
+        PdfRecompressionException ex = failure.get();
+        if (ex != null) {
+            throw ex;
+        }
+    }
+
+    private static class Chunk {
+
+        private final String basename;
+        private final List<BitonalImage> images;
+        private final List<PdfImageInformation> pdfImagesInfo;
+
+        Chunk(String basename, List<BitonalImage> images, List<PdfImageInformation> pdfImagesInfo) {
+            this.basename = basename;
+            this.images = images;
+            this.pdfImagesInfo = pdfImagesInfo;
+        }
+    }
+
+    /**
+     * extracts images and passes them to encoders in chunks sharing global dictionary,
+     * if clustering is enabled images of several chunks are buffered and regrouped by similarity
+     */
+    private class ExtractionStage implements Runnable, ImageExtractionListener {
+
+        private final PdfReader reader;
+        private final ChunkPlanner planner;
+        private final int bufferedImages;
+        private List<BitonalImage> images = new ArrayList<>();
+        private List<PdfImageInformation> pdfImagesInfo = new ArrayList<>();
+        private List<long[]> signatures = new ArrayList<>();
+
+        ExtractionStage(PdfReader reader) {
+            this.reader = reader;
+            int limit = options.getImagesPerGlobalDictionary();
+            // without limit all images share one chunk => there is nothing to regroup
+            if ((options.getClusteredChunks() > 1) && (limit < Integer.MAX_VALUE)) {
+                planner = new ChunkPlanner(limit);
+                bufferedImages = (int) Math.min(Integer.MAX_VALUE, (long) limit * options.getClusteredChunks());
+            } else {
+                planner = null;
+                bufferedImages = limit;
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                PdfImageExtractor imageExtractor = new PdfImageExtractor();
+                imageExtractor.setImageExtractionListener(this);
+                imageExtractor.setBwThresh(options.getBwThresh());
+                imageExtractor.setSkipUnreachableImages(options.isRemoveUnreachableImages());
+                imageExtractor.setSkipJBig2Images(!options.isRecompressJbig2Images());
+                imageExtractor.extractImagesUsingIText(reader, imagePrefix, options.getPagesToProcess(),
+                        options.isBinarize());
+                flush();
+            } catch (PdfRecompressionException ex) {
+                fail(ex);
+            } finally {
+                try {
+                    for (int i = 0; i < encoders; i++) {
+                        extractedChunks.put(END_OF_CHUNKS);
+                    }
+                } catch (InterruptedException ex) {
+                    fail(new PdfRecompressionException("extraction of images was interrupted", ex));
+                }
+            }
+        }
+
+        @Override
+        public void imageExtracted(BitonalImage image, PdfImageInformation pdfImageInfo)
+                throws PdfRecompressionException {
+            // output won't be written => extracting the rest of document would be wasted
+            PdfRecompressionException ex = failure.get();
+            if (ex != null) {
+                throw ex;
+            }
+            images.add(image);
+            pdfImagesInfo.add(pdfImageInfo);
+            if (planner != null) {
+                signatures.add(ChunkPlanner.computeSignature(image));
+            }
+            if (images.size() >= bufferedImages) {
+                flush();
+            }
+        }
+
+        /**
+         * passes buffered images to encoders, they are regrouped by planner if clustering is enabled
+         */
+        private void flush() throws PdfRecompressionException {
+            if (images.isEmpty()) {
+                return;
+            }
+            if (planner == null) {
+                putChunk(images, pdfImagesInfo);
+            } else {
+                for (List<Integer> planned : planner.plan(signatures)) {
+                    List<BitonalImage> chunkImages = new ArrayList<>(planned.size());
+                    List<PdfImageInformation> chunkImagesInfo = new ArrayList<>(planned.size());
+                    for (int index : planned) {
+                        chunkImages.add(images.get(index));
+                        chunkImagesInfo.add(pdfImagesInfo.get(index));
+                    }
+                    putChunk(chunkImages, chunkImagesInfo);
+                }
+                signatures = new ArrayList<>();
+            }
+            images = new ArrayList<>();
+            pdfImagesInfo = new ArrayList<>();
+        }
+
+        private void putChunk(List<BitonalImage> chunkImages, List<PdfImageInformation> chunkImagesInfo)
+                throws PdfRecompressionException {
+            String chunkBasename = basename + String.format("%05d", chunkCounter++);
+            try {
+                extractedChunks.put(new Chunk(chunkBasename, chunkImages, chunkImagesInfo));
+            } catch (InterruptedException ex) {
+                throw new PdfRecompressionException("extraction of images was interrupted", ex);
+            }
+        }
+    }
+
+    /**
+     * runs image encoder on chunks until extraction is finished
+     */
+    private class EncodingStage implements Runnable {
+
+        @Override
+        public void run() {
+            try {
+                Chunk chunk;
+                while ((chunk = extractedChunks.take()) != END_OF_CHUNKS) {
+                    if (failure.get() != null) {
+                        continue;
+                    }
+                    try {
+                        encodeWithinBudget(chunk);
+                    } catch (PdfRecompressionException ex) {
+                        fail(ex);
+                    }
+                }
+                encodedChunks.put(ENCODER_FINISHED);
+            } catch (InterruptedException ex) {
+                fail(new PdfRecompressionException("encoding of images was interrupted", ex));
+            }
+        }
+
+        /**
+         * encodes chunk and passes it to replacement, chunk whose global data exceed maximal size
+         * is split into halves which are encoded separately (viewer has to decode whole global data
+         * before it renders any page using them)
+         */
+        private void encodeWithinBudget(Chunk chunk) throws PdfRecompressionException, InterruptedException {
+            String key = (cache != null)
+                    ? Jbig2Cache.createKey(options.getEncoder(), jbig2enc, chunk.pdfImagesInfo) : null;
+            Jbig2ForPdf encoded = encode(chunk, key);
+            int size = chunk.images.size();
+            if (isOverBudget(encoded, size)) {
+                log.debug("Global data of chunk {} have {} bytes => splitting it", chunk.basename,
+                        encoded.getGlobalData().length);
+                int half = size / 2;
+                encodeWithinBudget(new Chunk(chunk.basename + "a", chunk.images.subList(0, half),
+                        chunk.pdfImagesInfo.subList(0, half)));
+                encodeWithinBudget(new Chunk(chunk.basename + "b", chunk.images.subList(half, size),
+                        chunk.pdfImagesInfo.subList(half, size)));
+                return;
+            }
+            encodedChunks.put(encoded);
+        }
+
+        /**
+         * @return true if global data of chunk exceed maximal size and chunk can be split
+         */
+        private boolean isOverBudget(Jbig2ForPdf encoded, int size) {
+            byte[] globalData = encoded.getGlobalData();
+            return (globalData != null) && (globalData.length > options.getMaxGlobalDataSize()) && (size > 1);
+        }
+
+        /**
+         * takes chunk from cache if possible, image encoder is used only if it is not there
+         * and its result is stored to cache (unless the chunk is going to be split)
+         */
+        private Jbig2ForPdf encode(Chunk chunk, String key) throws PdfRecompressionException {
+            if (key != null) {
+                Jbig2ForPdf cached = cache.get(key);
+                if (cached != null) {
+                    log.debug("Chunk {} containing {} images found in cache", chunk.basename, chunk.images.size());
+                    cached.setJbig2ImagesInfo(chunk.pdfImagesInfo);
+                    return cached;
+                }
+            }
+
+            log.debug("Encoding chunk {} containing {} images", chunk.basename, chunk.images.size());
+            EncodedChunk encodedChunk = imageEncoder.encode(chunk.images, options);
+            // broken stream would be embedded silently and found only by PDF viewers
+            for (byte[] pageData : encodedChunk.getPagesData()) {
+                try {
+                    Jbig2Segments.validate(encodedChunk.getGlobalData(), pageData);
+                } catch (IOException ex) {
+                    throw new PdfRecompressionException("Encoder produced invalid JBIG2 data for chunk "
+                            + chunk.basename, ex);
+                }
+            }
+            Jbig2ForPdf encoded = new Jbig2ForPdf(encodedChunk.getGlobalData(),
+                    new ArrayList<>(encodedChunk.getPagesData()));
+            encoded.setJbig2ImagesInfo(chunk.pdfImagesInfo);
+            if ((key != null) && !isOverBudget(encoded, chunk.images.size())) {
+                cache.put(key, encoded);
+            }
+            return encoded;
+        }
+    }
+
+    /**
+     * encoded chunks in order they are finished, iteration ends when all encoders are finished
+     */
+    private class EncodedChunks implements Iterable<Jbig2ForPdf>, Iterator<Jbig2ForPdf> {
+
+        private int finishedEncoders = 0;
+        private Jbig2ForPdf next = null;
+
+        @Override
+        public Iterator<Jbig2ForPdf> iterator() {
+            return this;
+        }
+
+        @Override
+        public boolean hasNext() {
+            try {
+                while ((next == null) && (finishedEncoders < encoders)) {
+                    Object encoded = encodedChunks.take();
+                    if (encoded == ENCODER_FINISHED) {
+                        finishedEncoders++;
+                    } else {
+                        next = (Jbig2ForPdf) encoded;
+                    }
+                }
+                checkFailure();
+            } catch (InterruptedException ex) {
+                throw new StageFailedException(new PdfRecompressionException("replacing of images was interrupted", ex));
+            } catch (PdfRecompressionException ex) {
+                throw new StageFailedException(ex);
+            }
+            return next != null;
+        }
+
+        @Override
+        public Jbig2ForPdf next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Jbig2ForPdf chunk = next;
+            next = null;
+            imagesInTotal += chunk.getMapOfJbig2Images().size();
+            return chunk;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    /**
+     * stops replacing of images when other stage failed
+     */
+    private static class StageFailedException extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+
+        StageFailedException(PdfRecompressionException cause) {
+            super(cause);
+        }
+
+        @Override
+        public synchronized PdfRecompressionException getCause() {
+            return (PdfRecompressionException) super.getCause();
+        }
+    }
+}
@@ -0,0 +1,531 @@
+/*
+ *  Copyright 2016 Radim Hatlapatka.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package cz.muni.pdfjbim;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.BoundedInputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * local HTTP service recompressing PDF documents, JVM stays warm between documents.
+ * Documents are admitted only while there is free place in bounded queue, otherwise client gets 429.
+ * Documents larger than maximal size are refused with 413.
+ * <ul>
+ * <li>POST /recompress - body is PDF, recompressed PDF is sent back in response</li>
+ * <li>POST /recompress?spool - body is PDF, response 202 contains id of job, recompressed PDF is stored
+ * to spool directory</li>
+ * <li>GET /jobs/&lt;id&gt; - recompressed PDF of spooled job (202 while it is not finished), the result
+ * is served only once and then it is deleted from spool directory</li>
+ * <li>GET /stats - queue depth, documents in flight and counters of finished documents</li>
+ * </ul>
+ *
+ * @author Radim Hatlapatka (hata.radim@gmail.com)
+ */
+public class RecompressionServer {
+
+    private static final Logger log = LoggerFactory.getLogger(RecompressionServer.class);
+
+    private static final String PDF_CONTENT_TYPE = "application/pdf";
+    private static final String TEXT_CONTENT_TYPE = "text/plain; charset=UTF-8";
+
+    private final PdfRecompressor recompressor;
+    private final int workers;
+    private final File spoolDir;
+    private final Semaphore admission;
+    private final ExecutorService workerPool;
+    private final Map<String, JobState> spooledJobs = new ConcurrentHashMap<String, JobState>();
+    private final AtomicInteger admitted = new AtomicInteger();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private volatile long maxDocumentSize = 256L * 1024 * 1024;
+    private HttpServer server;
+    private ExecutorService handlerPool;
+
+    /**
+     * state of job stored to spool directory
+     */
+    private enum JobState {
+
+        QUEUED, RUNNING, DONE, FAILED
+    }
+
+    /**
+     * @param options options used for all documents
+     * @param workers number of documents recompressed at the same time
+     * @param queueCapacity number of documents waiting for worker, when the queue is full documents are rejected
+     * @param spoolDir directory where results of spooled jobs are stored or null if spooling is not allowed
+     * @throws PdfRecompressionException if spool directory can't be created
+     */
+    public RecompressionServer(RecompressionOptions options, int workers, int queueCapacity, File spoolDir)
+            throws PdfRecompressionException {
+        if (options == null) {
+            throw new NullPointerException("options");
+        }
+        if (workers < 1) {
+            throw new IllegalArgumentException("workers");
+        }
+        if (queueCapacity < 0) {
+            throw new IllegalArgumentException("queueCapacity");
+        }
+        if ((spoolDir != null) && !spoolDir.isDirectory() && !spoolDir.mkdirs()) {
+            throw new PdfRecompressionException("Unable to create spool directory " + spoolDir);
+        }
+        this.recompressor = new PdfRecompressor(options);
+        this.workers = workers;
+        this.spoolDir = spoolDir;
+        // admitted document is either waiting in the queue or being recompressed
+        this.admission = new Semaphore(workers + queueCapacity);
+        this.workerPool = Executors.newFixedThreadPool(workers);
+    }
+
+    /**
+     * starts listening on given address
+     *
+     * @param address address to listen on, loopback address should be used as there is no authentication
+     * @throws PdfRecompressionException if server can't be started
+     */
+    public synchronized void start(InetSocketAddress address) throws PdfRecompressionException {
+        if (address == null) {
+            throw new NullPointerException("address");
+        }
+        if (server != null) {
+            throw new IllegalStateException("server is already running");
+        }
+        try {
+            server = HttpServer.create(address, 0);
+        } catch (IOException ex) {
+            throw new PdfRecompressionException("Unable to listen on " + address, ex);
+        }
+        server.createContext("/recompress", new RecompressHandler());
+        server.createContext("/jobs/", new JobHandler());
+        server.createContext("/stats", new StatsHandler());
+        // handlers of admitted documents wait for their workers, rejected ones finish immediately
+        handlerPool = Executors.newCachedThreadPool();
+        server.setExecutor(handlerPool);
+        server.start();
+        log.info("Recompression server listening on {} with {} workers", server.getAddress(), workers);
+    }
+
+    /**
+     * @return address server listens on or null if it isn't running
+     */
+    public synchronized InetSocketAddress getAddress() {
+        return (server != null) ? server.getAddress() : null;
+    }
+
+    /**
+     * stops accepting new documents and waits until recompression of admitted documents finishes
+     *
+     * @param timeout maximal time to wait in seconds
+     */
+    public synchronized void stop(int timeout) {
+        if (server == null) {
+            return;
+        }
+        // waits for documents whose result is sent back in response, no new connections are accepted meanwhile
+        server.stop(timeout);
+        workerPool.shutdown();
+        try {
+            if (!workerPool.awaitTermination(timeout, TimeUnit.SECONDS)) {
+                log.warn("Recompression of admitted documents didn't finish in time");
+                workerPool.shutdownNow();
+            }
+        } catch (InterruptedException ex) {
+            workerPool.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        handlerPool.shutdownNow();
+        server = null;
+        log.info("Recompression server stopped");
+    }
+
+    public long getMaxDocumentSize() {
+        return maxDocumentSize;
+    }
+
+    /**
+     * @param maxDocumentSize maximal size of posted document in bytes, the whole document is held in memory
+     * (so that it must be smaller than 2 GB)
+     */
+    public void setMaxDocumentSize(long maxDocumentSize) {
+        if ((maxDocumentSize < 1) || (maxDocumentSize >= Integer.MAX_VALUE)) {
+            throw new IllegalArgumentException("maxDocumentSize");
+        }
+        this.maxDocumentSize = maxDocumentSize;
+    }
+
+    /**
+     * @return number of admitted documents waiting for worker
+     */
+    public int getQueueDepth() {
+        return Math.max(0, admitted.get() - inFlight.get());
+    }
+
+    /**
+     * @return number of documents being recompressed
+     */
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    /**
+     * @return number of successfully recompressed documents
+     */
+    public long getCompleted() {
+        return completed.get();
+    }
+
+    /**
+     * @return number of documents which couldn't be recompressed
+     */
+    public long getFailed() {
+        return failed.get();
+    }
+
+    /**
+     * @return number of documents rejected because the queue was full
+     */
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    /**
+     * reserves place for document in the queue
+     *
+     * @return true if document was admitted, caller has to call release afterwards
+     */
+    private boolean admit() {
+        if (!admission.tryAcquire()) {
+            rejected.incrementAndGet();
+            return false;
+        }
+        admitted.incrementAndGet();
+        return true;
+    }
+
+    private void release() {
+        admitted.decrementAndGet();
+        admission.release();
+    }
+
+    /**
+     * runs recompression task in worker thread, place in the queue is released when it finishes
+     *
+     * @throws RejectedExecutionException if workers are already stopped, place in the queue is released
+     */
+    private Future<Integer> submit(final Callable<Integer> task) {
+        Callable<Integer> counted = new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+                inFlight.incrementAndGet();
+                try {
+                    Integer images = task.call();
+                    completed.incrementAndGet();
+                    return images;
+                } catch (Exception ex) {
+                    failed.incrementAndGet();
+                    throw ex;
+                } finally {
+                    inFlight.decrementAndGet();
+                    release();
+                }
+            }
+        };
+        try {
+            return workerPool.submit(counted);
+        } catch (RejectedExecutionException ex) {
+            // task never runs => nobody else releases its place
+            release();
+            throw ex;
+        }
+    }
+
+    private static void sendText(HttpExchange exchange, int status, String text) throws IOException {
+        byte[] body = text.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", TEXT_CONTENT_TYPE);
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(body);
+        }
+    }
+
+    /**
+     * @return true if id has form of ids given to spooled jobs
+     */
+    private static boolean isJobId(String id) {
+        try {
+            return UUID.fromString(id).toString().equals(id);
+        } catch (IllegalArgumentException ex) {
+            return false;
+        }
+    }
+
+    private File getSpoolFile(String id) {
+        return new File(spoolDir, id + ".pdf");
+    }
+
+    /**
+     * handles POST /recompress
+     */
+    private class RecompressHandler implements HttpHandler {
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            try {
+                if (!"POST".equals(exchange.getRequestMethod())) {
+                    sendText(exchange, 405, "Only POST is supported\n");
+                    return;
+                }
+                boolean spool = "spool".equals(exchange.getRequestURI().getQuery());
+                if (spool && (spoolDir == null)) {
+                    sendText(exchange, 400, "Spooling is not enabled\n");
+                    return;
+                }
+                long maxSize = maxDocumentSize;
+                String contentLength = exchange.getRequestHeaders().getFirst("Content-Length");
+                if ((contentLength != null) && (parseLength(contentLength) > maxSize)) {
+                    sendText(exchange, 413, "Document is larger than " + maxSize + " bytes\n");
+                    return;
+                }
+                // admission is checked before body is read => rejected client doesn't occupy memory
+                if (!admit()) {
+                    exchange.getResponseHeaders().set("Retry-After", "1");
+                    sendText(exchange, 429, "Queue is full\n");
+                    return;
+                }
+                byte[] pdf;
+                // length of chunked body is unknown in advance => reading stops one byte after the limit
+                try (InputStream is = new BoundedInputStream(exchange.getRequestBody(), maxSize + 1)) {
+                    pdf = IOUtils.toByteArray(is);
+                } catch (IOException ex) {
+                    release();
+                    throw ex;
+                }
+                if (pdf.length > maxSize) {
+                    release();
+                    sendText(exchange, 413, "Document is larger than " + maxSize + " bytes\n");
+                    return;
+                }
+                if (spool) {
+                    spool(exchange, pdf);
+                } else {
+                    recompress(exchange, pdf);
+                }
+            } finally {
+                exchange.close();
+            }
+        }
+
+        /**
+         * @return value of Content-Length header, invalid value is treated as unlimited length
+         */
+        private long parseLength(String contentLength) {
+            try {
+                return Long.parseLong(contentLength.trim());
+            } catch (NumberFormatException ex) {
+                return Long.MAX_VALUE;
+            }
+        }
+
+        private void recompress(HttpExchange exchange, final byte[] pdf) throws IOException {
+            // iText writes output at the end of recompression => failure can be still reported by status code
+            final ByteArrayOutputStream out = new ByteArrayOutputStream(pdf.length);
+            int images;
+            try {
+                images = submit(new Callable<Integer>() {
+                    @Override
+                    public Integer call() throws PdfRecompressionException {
+                        return recompressor.recompress(ByteBuffer.wrap(pdf), out);
+                    }
+                }).get();
+            } catch (ExecutionException ex) {
+                log.warn("Recompression of posted document failed", ex.getCause());
+                sendText(exchange, 500, "Recompression failed: " + ex.getCause().getMessage() + "\n");
+                return;
+            } catch (RejectedExecutionException ex) {
+                sendText(exchange, 503, "Server is stopping\n");
+                return;
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                sendText(exchange, 503, "Server is stopping\n");
+                return;
+            }
+            exchange.getResponseHeaders().set("Content-Type", PDF_CONTENT_TYPE);
+            exchange.getResponseHeaders().set("X-Recompressed-Images", Integer.toString(images));
+            exchange.sendResponseHeaders(200, out.size());
+            try (OutputStream os = exchange.getResponseBody()) {
+                out.writeTo(os);
+            }
+        }
+
+        private void spool(HttpExchange exchange, final byte[] pdf) throws IOException {
+            final String id = UUID.randomUUID().toString();
+            spooledJobs.put(id, JobState.QUEUED);
+            try {
+                submit(new Callable<Integer>() {
+                    @Override
+                    public Integer call() throws PdfRecompressionException, IOException {
+                        return recompressToSpool(id, pdf);
+                    }
+                });
+            } catch (RejectedExecutionException ex) {
+                spooledJobs.remove(id);
+                sendText(exchange, 503, "Server is stopping\n");
+                return;
+            }
+            exchange.getResponseHeaders().set("Location", "/jobs/" + id);
+            sendText(exchange, 202, id + "\n");
+        }
+
+        private int recompressToSpool(String id, byte[] pdf) throws PdfRecompressionException, IOException {
+            spooledJobs.put(id, JobState.RUNNING);
+            File tmpFile = new File(spoolDir, id + ".tmp");
+            boolean done = false;
+            try {
+                int images;
+                try (OutputStream out = new FileOutputStream(tmpFile)) {
+                    images = recompressor.recompress(ByteBuffer.wrap(pdf), out);
+                }
+                // result is moved to its place only when it is complete => incomplete file is never served
+                Files.move(tmpFile.toPath(), getSpoolFile(id).toPath(), StandardCopyOption.REPLACE_EXISTING);
+                done = true;
+                return images;
+            } finally {
+                spooledJobs.put(id, done ? JobState.DONE : JobState.FAILED);
+                if (!done) {
+                    log.warn("Recompression of spooled job {} failed", id);
+                }
+                if (tmpFile.exists() && !tmpFile.delete()) {
+                    log.warn("problem to delete file: " + tmpFile.getPath());
+                }
+            }
+        }
+    }
+
+    /**
+     * handles GET /jobs/&lt;id&gt;
+     */
+    private class JobHandler implements HttpHandler {
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            try {
+                if (!"GET".equals(exchange.getRequestMethod())) {
+                    sendText(exchange, 405, "Only GET is supported\n");
+                    return;
+                }
+                String id = exchange.getRequestURI().getPath().substring("/jobs/".length());
+                if (!isJobId(id)) {
+                    // path is already decoded => anything else could point outside of spool directory
+                    sendText(exchange, 404, "Unknown job\n");
+                    return;
+                }
+                File result = (spoolDir != null) ? getSpoolFile(id) : null;
+                if ((result != null) && result.isFile()) {
+                    // spool directory survives restart of the server => file is served even if job is unknown
+                    spooledJobs.putIfAbsent(id, JobState.DONE);
+                }
+                JobState state = spooledJobs.get(id);
+                // removal decides which of concurrent requests gets the result
+                if ((state == JobState.DONE) && spooledJobs.remove(id, JobState.DONE)
+                        && (result != null) && result.isFile()) {
+                    sendResult(exchange, id, result);
+                } else if ((state == null) || (state == JobState.DONE)) {
+                    sendText(exchange, 404, "Unknown job " + id + "\n");
+                } else if (state == JobState.FAILED) {
+                    spooledJobs.remove(id, JobState.FAILED);
+                    sendText(exchange, 500, "Recompression failed\n");
+                } else {
+                    sendText(exchange, 202, state + "\n");
+                }
+            } finally {
+                exchange.close();
+            }
+        }
+
+        /**
+         * sends result of finished job and deletes it, the job is known again if sending fails
+         */
+        private void sendResult(HttpExchange exchange, String id, File result) throws IOException {
+            try {
+                exchange.getResponseHeaders().set("Content-Type", PDF_CONTENT_TYPE);
+                exchange.sendResponseHeaders(200, result.length());
+                try (OutputStream os = exchange.getResponseBody()) {
+                    Files.copy(result.toPath(), os);
+                }
+            } catch (IOException ex) {
+                spooledJobs.put(id, JobState.DONE);
+                throw ex;
+            }
+            if (!result.delete()) {
+                log.warn("problem to delete file: " + result.getPath());
+            }
+        }
+    }
+
+    /**
+     * handles GET /stats
+     */
+    private class StatsHandler implements HttpHandler {
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            try {
+                StringBuilder stats = new StringBuilder();
+                stats.append("queued=").append(getQueueDepth()).append('\n');
+                stats.append("inFlight=").append(getInFlight()).append('\n');
+                stats.append("workers=").append(workers).append('\n');
+                stats.append("completed=").append(getCompleted()).append('\n');
+                stats.append("failed=").append(getFailed()).append('\n');
+                stats.append("rejected=").append(getRejected()).append('\n');
+                sendText(exchange, 200, stats.toString());
+            } finally {
+                exchange.close();
+            }
+        }
+    }
+}
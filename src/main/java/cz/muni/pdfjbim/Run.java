@@ -18,9 +18,7 @@
 package cz.muni.pdfjbim;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.OutputStream;
 import java.util.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -33,16 +31,53 @@ public class Run {
 
     private static final Logger log = LoggerFactory.getLogger(Run.class);
 
+    static final int EXIT_SUCCESS = 0;
+    static final int EXIT_INVALID_ARGUMENTS = 1;
+    // the same status as JVM gives for exception thrown out of main
+    static final int EXIT_FAILURE = 1;
+    static final int EXIT_IO_ERROR = 2;
+
     /**
      * @param args the command line arguments
-     * @throws PdfRecompressionException
      */
-    public static void main(String[] args) throws PdfRecompressionException {
+    public static void main(String[] args) {
+        int exitCode;
+        try {
+            exitCode = run(args);
+        } catch (PdfRecompressionException ex) {
+            log.error("Recompression failed", ex);
+            exitCode = getExitCode(ex);
+        }
+        if (exitCode != EXIT_SUCCESS) {
+            System.exit(exitCode);
+        }
+    }
+
+    /**
+     * @param failure failure of recompression
+     * @return exit code of failed recompression, EXIT_IO_ERROR if file couldn't be read or written
+     */
+    static int getExitCode(PdfRecompressionException failure) {
+        if (failure == null) {
+            throw new NullPointerException("failure");
+        }
+        return (failure.getCause() instanceof IOException) ? EXIT_IO_ERROR : EXIT_FAILURE;
+    }
+
+    /**
+     * runs recompression given by command line arguments without exiting JVM
+     *
+     * @param args the command line arguments
+     * @return exit code, EXIT_SUCCESS if recompression succeeded, EXIT_INVALID_ARGUMENTS for invalid arguments
+     * @throws PdfRecompressionException if recompression fails
+     */
+    public static int run(String[] args) throws PdfRecompressionException {
         if (args.length < 4) {
-            usage();
+            return usage();
         }
 
         String jbig2enc = null;
+        String encoder = RecompressionOptions.ENCODER_JBIG2ENC;
         String pdfFile = null;
         String outputPdf = null;
         String password = null;
@@ -58,20 +93,29 @@ public class Run {
         boolean segment = false;
         int imagesPerGlobalDictionary = Integer.MAX_VALUE;
 
-        String basename = System.getProperty("java.io.tmpdir") + "/output";
+        String workDir = null;
+        int threads = Runtime.getRuntime().availableProcessors();
+        boolean lowMemory = false;
+        boolean incremental = false;
+        boolean keepUnreachable = false;
+        boolean skipJbig2 = false;
+        String cacheDir = null;
+        long cacheSize = 1024;
 
         int limit = Integer.MAX_VALUE;
+        int clusteredChunks = 1;
+        long maxDictSize = Long.MAX_VALUE;
 
 
         // parsing arguments of main method
         for (int i = 0; i < args.length; i++) {
             if (args[i].equalsIgnoreCase("-h")) {
-                usage();
+                return usage();
             }
             if (args[i].equalsIgnoreCase("-input")) {
                 i++;
                 if (i >= args.length) {
-                    usage();
+                    return usage();
                 }
                 pdfFile = args[i];
                 continue;
@@ -80,7 +124,7 @@ public class Run {
             if (args[i].equalsIgnoreCase("-pathToEnc")) {
                 i++;
                 if (i >= args.length) {
-                    usage();
+                    return usage();
                 }
                 jbig2enc = args[i];
                 continue;
@@ -89,7 +133,7 @@ public class Run {
             if (args[i].equalsIgnoreCase("-output")) {
                 i++;
                 if (i >= args.length) {
-                    usage();
+                    return usage();
                 }
                 outputPdf = args[i];
                 continue;
@@ -98,31 +142,48 @@ public class Run {
             if (args[i].equalsIgnoreCase("-passwd")) {
                 i++;
                 if (i >= args.length) {
-                    usage();
+                    return usage();
                 }
                 password = args[i];
                 continue;
             }
 
-            if (args[i].equalsIgnoreCase("-basename")) {
+            if (args[i].equalsIgnoreCase("-workDir")) {
+                i++;
+                if (i >= args.length) {
+                    return usage();
+                }
+                workDir = args[i];
+                continue;
+            }
+
+            if (args[i].equalsIgnoreCase("-threads")) {
                 i++;
                 if (i >= args.length) {
-                    usage();
+                    return usage();
+                }
+                try {
+                    threads = Integer.parseInt(args[i]);
+                } catch (NumberFormatException ex) {
+                    threads = 0;
+                }
+                if (threads < 1) {
+                    System.err.println("Invalid number of threads: (1..)\n");
+                    return usage();
                 }
-                basename = args[i];
                 continue;
             }
 
             if (args[i].equalsIgnoreCase("-thresh")) {
                 i++;
                 if (i >= args.length) {
-                    usage();
+                    return usage();
                 }
 
                 defaultThresh = Double.parseDouble(args[i]);
                 if ((defaultThresh > 0.9) || (defaultThresh < 0.5)) {
                     System.err.println("Invalid threshold value: (0.5..0.9)\n");
-                    usage();
+                    return usage();
                 }
                 continue;
             }
@@ -130,13 +191,13 @@ public class Run {
             if (args[i].equalsIgnoreCase("-bw_thresh")) {
                 i++;
                 if (i >= args.length) {
-                    usage();
+                    return usage();
                 }
 
                 bwThresh = Integer.parseInt(args[i]);
                 if ((bwThresh < 0) || (bwThresh > 255)) {
                     System.err.println("Invalid bw threshold value: (0..255)\n");
-                    usage();
+                    return usage();
                 }
                 continue;
             }
@@ -146,6 +207,58 @@ public class Run {
                 continue;
             }
 
+            if (args[i].equalsIgnoreCase("-encoder")) {
+                i++;
+                if (i >= args.length) {
+                    return usage();
+                }
+                encoder = args[i];
+                continue;
+            }
+
+
+            if (args[i].equalsIgnoreCase("-lowMemory")) {
+                lowMemory = true;
+                continue;
+            }
+
+            if (args[i].equalsIgnoreCase("-cacheDir")) {
+                i++;
+                if (i >= args.length) {
+                    return usage();
+                } else {
+                    cacheDir = args[i];
+                }
+                continue;
+            }
+
+            if (args[i].equalsIgnoreCase("-cacheSize")) {
+                i++;
+                if (i >= args.length) {
+                    return usage();
+                } else {
+                    cacheSize = Long.parseLong(args[i]);
+                    if (cacheSize <= 0) {
+                        return usage();
+                    }
+                }
+                continue;
+            }
+
+            if (args[i].equalsIgnoreCase("-incremental")) {
+                incremental = true;
+                continue;
+            }
+
+            if (args[i].equalsIgnoreCase("-keepUnreachable")) {
+                keepUnreachable = true;
+                continue;
+            }
+
+            if (args[i].equalsIgnoreCase("-skipJbig2")) {
+                skipJbig2 = true;
+                continue;
+            }
 
             if (args[i].equalsIgnoreCase("-binarize")) {
                 binarize = true;
@@ -165,7 +278,7 @@ public class Run {
             if (args[i].equalsIgnoreCase("-lang")) {
                 i++;
                 if (i >= args.length) {
-                    usage();
+                    return usage();
                 } else {
                     lang = args[i];
                 }
@@ -175,7 +288,7 @@ public class Run {
             if (args[i].equals("-limit")) {
                 i++;
                 if (i >= args.length) {
-                    usage();
+                    return usage();
                 } else {
                     limit = Integer.parseInt(args[i]);
                     if (limit <= 0) {
@@ -186,6 +299,32 @@ public class Run {
                 }
             }
 
+            if (args[i].equals("-cluster")) {
+                i++;
+                if (i >= args.length) {
+                    return usage();
+                } else {
+                    clusteredChunks = Integer.parseInt(args[i]);
+                    if (clusteredChunks <= 0) {
+                        return usage();
+                    }
+                    continue;
+                }
+            }
+
+            if (args[i].equals("-maxDictSize")) {
+                i++;
+                if (i >= args.length) {
+                    return usage();
+                } else {
+                    maxDictSize = Long.parseLong(args[i]) * 1024;
+                    if (maxDictSize <= 0) {
+                        return usage();
+                    }
+                    continue;
+                }
+            }
+
             if (args[i].equalsIgnoreCase("-ff")) {
                 forceOcr = true;
                 continue;
@@ -200,7 +339,7 @@ public class Run {
                 pagesToProcess = new HashSet<Integer>();
                 i++;
                 if (i >= args.length) {
-                    usage();
+                    return usage();
                 }
                 try {
                     while (!args[i].equalsIgnoreCase("-pagesEnd")) {
@@ -208,131 +347,90 @@ public class Run {
                         pagesToProcess.add(page);
                         i++;
                         if (i >= args.length) {
-                            usage();
+                            return usage();
                         }
                     }
                 } catch (NumberFormatException ex) {
                     System.err.println("list of page numbers can contain only numbers");
-                    usage();
+                    return usage();
                 }
                 continue;
             }
         }
 
-        if ((jbig2enc == null) || (pdfFile == null)) {
-            usage();
+        // path to jbig2enc is needed only if images are encoded by it
+        boolean usesJbig2enc = RecompressionOptions.ENCODER_JBIG2ENC.equals(encoder);
+        if (((jbig2enc == null) && usesJbig2enc) || (pdfFile == null)) {
+            return usage();
         }
 
         if (outputPdf == null) {
             outputPdf = pdfFile;
         }
 
-        // originalPdf is an input PDF which shall be recompressed
-//        File originalPdf = new File(pdfFile);
+        RecompressionOptions options = new RecompressionOptions();
+        try {
+            options.setEncoder(encoder);
+        } catch (IllegalArgumentException ex) {
+            System.err.println(ex.getMessage());
+            return usage();
+        }
+        if (jbig2enc != null) {
+            options.setJbig2enc(jbig2enc);
+        }
+        options.setPassword(password);
+        options.setPagesToProcess(pagesToProcess);
+        options.setBinarize(binarize);
+        options.setAutoThresh(autoThresh); // engages modified version of the jbig2 encoder
+        options.setBwThresh(bwThresh);
+        options.setDefaultThresh(defaultThresh);
+        options.setUseOcr(useOcr);
+        options.setForcedOcr(forceOcr);
+        options.setLang(lang);
+        options.setImagesPerGlobalDictionary(limit);
+        options.setClusteredChunks(clusteredChunks);
+        options.setMaxGlobalDataSize(maxDictSize);
+        options.setThreads(threads);
+        options.setPartialRead(lowMemory);
+        options.setIncrementalUpdate(incremental);
+        options.setRemoveUnreachableImages(!keepUnreachable);
+        options.setRecompressJbig2Images(!skipJbig2);
+        options.setSegment(segment);
+        if (cacheDir != null) {
+            options.setCache(new Jbig2Cache(new File(cacheDir), cacheSize * 1024 * 1024));
+        }
+        if (workDir != null) {
+            options.setWorkDir(new File(workDir));
+        }
 
         // initialization for counting time of recompression
         long sizeOfInputPdf = new File(pdfFile).length();
         double startTime = System.currentTimeMillis();
 
-        // PdfImageExtractor handles extraction of pdf and putting recompressed images
-        PdfImageExtractor imageExtractor = new PdfImageExtractor();
-
-        // image extraction
-        imageExtractor.extractImages(pdfFile, password, pagesToProcess, binarize);
-//        imageExtractor.extractImagesUsingPdfObjectAccess(pdfFile, null, password, pagesToProcess, binarize);
-
-        // returns names of extracted images as List
-        List<String> jbig2encInputImages = imageExtractor.getNamesOfImages();
-
-        // getting informations about images that were in PDF such as dimension, position in PDF,...
-        List<PdfImageInformation> pdfImagesInfo = imageExtractor.getOriginalImageInformations();
-        List<Jbig2ForPdf> pdfImagesAsList = new ArrayList<Jbig2ForPdf>();
-        if (jbig2encInputImages.isEmpty()) {
-            if (!silent) {
-                log.info("No images in " + pdfFile + " to recompress");
-            }
-//            System.exit(0);
-        } else {
-            // setting parameters for jbig2enc
-            Jbig2enc jbig2 = new Jbig2enc(jbig2enc);
-
-            jbig2.setAutoThresh(autoThresh); // engages modified version of the jbig2 encoder
-            jbig2.setBwThresh(bwThresh);
-            jbig2.setDefaultThresh(defaultThresh);
-            jbig2.setUseOcr(useOcr);
-            jbig2.setForcedOcrForUnknownResolution(forceOcr);
-            jbig2.setLang(lang);
-
-            System.err.print(pdfFile);
-
-
-            // engages jbig2enc with set parameters and creates output files based on basename
-            Map<String, List<String>> jbig2encInputImagesSplittedToList = Utils.splitListOfStrings(jbig2encInputImages, limit, basename);
-            Map<String, List<PdfImageInformation>> pdfImagesInfoSplittedToList = Utils.
-                    splitListOfPdfImageInfo(pdfImagesInfo, limit, basename);
-
-            for (Map.Entry<String, List<String> > entry : jbig2encInputImagesSplittedToList.entrySet()) {
-                String basenameAsKey = entry.getKey();
-                jbig2.run(entry.getValue(), basenameAsKey);
-
-                // reading output of encoder and associating with informations about them
-                int lastPathSeparator = basenameAsKey.lastIndexOf(File.separator);
-                String basenameDir = ".";
-                String basenameAfterSplit = basenameAsKey;
-                if (lastPathSeparator != -1) {
-                    basenameDir = basenameAsKey.substring(0, lastPathSeparator);
-                    basenameAfterSplit = basenameAsKey.substring(lastPathSeparator + 1);
-                }
-                log.debug("basename dir = {} and basename = {}", basenameDir, basenameAfterSplit);
-                Jbig2ForPdf pdfImages = new Jbig2ForPdf(basenameDir, basenameAfterSplit);
-                pdfImages.setJbig2ImagesInfo(pdfImagesInfoSplittedToList.get(basenameAsKey));
-
-                pdfImagesAsList.add(pdfImages);
+        File fileName = new File(outputPdf);
+        if (!silent) {
+            if (fileName.exists()) {
+                log.info("file " + outputPdf + " already exist => will be rewriten");
+            } else {
+                log.info("file " + outputPdf + " will be created");
             }
         }
 
-
-        // creating output
-        OutputStream out = null;
-        try {
-            File fileName = new File(outputPdf);
-
-            if (fileName.createNewFile()) {
-                if (!silent) {
-                    log.info("file " + outputPdf + " was created");
-                }
-            } else {
-                if (!silent) {
-                    log.info("file " + outputPdf + " already exist => will be rewriten");
-                }
-            }
-            out = new FileOutputStream(fileName);
-
-            // replaces images with their recompressed version based on image info and is stored
-            // in output stream (out)
-            PdfImageReplacer imageReplacer = new PdfImageReplacer();
-            imageReplacer.replaceImageUsingIText(pdfFile, out, pdfImagesAsList);
-
-            // counting some logging info concerning sizes of input vs output
-            long sizeOfOutputPdf = fileName.length();
-            float saved = (((float) (sizeOfInputPdf - sizeOfOutputPdf)) / sizeOfInputPdf) * 100;
-            log.info("Size of pdf before recompression = {}", sizeOfInputPdf);
-            log.info("Size of pdf file after recompression = {}", sizeOfOutputPdf);
-            log.info("=> Saved {} % from original size", String.format("%.2f", saved));
-            System.err.print(String.format(";%d;%d", sizeOfInputPdf, sizeOfOutputPdf));
-
-        } catch (IOException ex) {
-            log.warn("writing output to the file caused error", ex);
-            System.exit(2);
-        } finally {
-            if (out != null) {
-                try {
-                    out.close();
-                } catch (IOException ex2) {
-                }
-            }
+        // images are extracted, recompressed by jbig2enc and replaced by their recompressed version
+        int imagesInTotal = new PdfRecompressor(options).recompress(new File(pdfFile), fileName);
+        if ((imagesInTotal == 0) && !silent) {
+            log.info("No images in {} to recompress", pdfFile);
         }
 
+        // counting some logging info concerning sizes of input vs output
+        long sizeOfOutputPdf = fileName.length();
+        float saved = (((float) (sizeOfInputPdf - sizeOfOutputPdf)) / sizeOfInputPdf) * 100;
+        log.info("Size of pdf before recompression = {}", sizeOfInputPdf);
+        log.info("Size of pdf file after recompression = {}", sizeOfOutputPdf);
+        log.info("=> Saved {} % from original size", String.format("%.2f", saved));
+        if (!silent) {
+            System.err.print(String.format("%s;%d;%d", pdfFile, sizeOfInputPdf, sizeOfOutputPdf));
+        }
 
         // counting some logging info concernig time taken by recompressor
         int timeTaken = (int) (System.currentTimeMillis() - startTime);
@@ -341,25 +439,19 @@ public class Run {
         int min = (time % 3600) / 60;
         int sec = (time % 3600) % 60;
         log.info("{} succesfully recompressed in {}", pdfFile, String.format("%02d:%02d:%02d", hour, min, sec));
-        log.info("Totaly was recompressed {} images", imagesInTotal(pdfImagesAsList));
-//        System.err.println(String.format(";%d;%d",timeTaken, pdfImages.getMapOfJbig2Images().size()));
-    }
-    
-    private static int imagesInTotal (List<Jbig2ForPdf> pdfImagesAsList) {
-        int total = 0;
-        for (Jbig2ForPdf pdfImages : pdfImagesAsList) {
-            total+= pdfImages.getMapOfJbig2Images().size();
-        }
-        return total;
+        log.info("Totaly was recompressed {} images", imagesInTotal);
+        return EXIT_SUCCESS;
     }
 
     /**
      * write usage of main method
+     *
+     * @return exit code for invalid arguments
      */
-    private static void usage() {
+    private static int usage() {
         System.err.println("Usage: -pathToEnc <Path to jbig2enc> -input <pdf file> [OPTIONAL]\n");
         System.err.println("Mandatory options:\n"
-                + "-pathToEnc <Path to jbig2enc>: path to trigger of jbig2enc (usually file named jbig2)\n"
+                + "-pathToEnc <Path to jbig2enc>: path to trigger of jbig2enc (usually file named jbig2), not needed with other encoders\n"
                 + "-input <pdf file>: pdf file that should be recompressed\n");
 
         System.err.println("OPTIONAL parameters:\n"
@@ -368,15 +460,26 @@ public class Run {
                 + "-thresh <valueOfDefaultThresholding>: value that is set to encoder with switch -t\n"
                 + "-autoThresh: engage automatic thresholding (special comparing between two symbols to make better compression ratio)\n"
                 + "-bw_thresh <value of BW thresholding>: sets value for bw thresholding to encoder (in jbig2enc it is switch -T)\n"
-                + "-pages <list of page numbers> -pagesEnd: list of pages that should be recompressed (taken only pages that exists, other ignored) -- now it is not working\n"
+                + "-pages <list of page numbers> -pagesEnd: list of pages that should be recompressed (taken only pages that exists, other ignored), only images drawn on these pages are recompressed\n"
                 + "-binarize: enables to process not bi-tonal images (normally only bi-tonal images are processed and other are skipped)\n"
-                + "-basename <basename>: sets the basename for output files of jbig2enc\n"
+                + "-skipJbig2: images already compressed according to JBIG2 are kept as they are (in default they are decoded and encoded again with shared global dictionary)\n"
+                + "-workDir <dir>: directory for temporary files such as PBM input of jbig2enc, e.g. memory backed /dev/shm (in default java.io.tmpdir)\n"
+                + "-lowMemory: input pdf file is read lazily instead of loading it whole to memory (useful for huge pdf files)\n"
+                + "-cacheDir <dir>: directory where encoded images are cached, so that the same images are not encoded again\n"
+                + "-cacheSize <MB>: maximal size of cache in MB, least recently used images are evicted (in default 1024)\n"
+                + "-incremental: original pdf is kept byte for byte and recompressed images are appended as incremental update (if output is the same as input, the update is appended in place)\n"
+                + "-keepUnreachable: images not referenced from the document (left over e.g. by earlier incremental updates) are recompressed and kept (in default they are removed)\n"
+                + "-threads <threads>: number of chunks encoded in parallel by the selected encoder (in default number of available processors)\n"
                 + "-limit <limit>: sets limit of maximum pages (images) having a common global dictionary; option usefull for preventing having too big global dictionary and thus slowing down the PDF browsing experience\n"
+                + "-cluster <n>: images of n chunks (given by -limit) are regrouped so that pages with similar symbols share global dictionary (in default 1 => images are grouped in order of pages)\n"
+                + "-maxDictSize <KB>: maximal size of global dictionary, chunks with larger dictionary are split (together with -limit it bounds time viewer needs to render first page using the dictionary)\n"
+                + "-encoder <name>: encoder of images, jbig2enc (default), java (lossless generic regions in JVM), java-symbol (symbol coding in JVM using -thresh),\n"
+                + "    or other encoder found on classpath\n"
                 + "-segment: enables option -S in jbig2enc encoder => images segmented separatelly, in default it is disabeled\n"
                 + "-useOcr: engages use of an OCR engine used by jbig2enc (requires -s and -autoThresh)\n"
                 + "-lang <lang>: sets language used by an OCR engine (has effect only if -useOcr is enabled\n"
                 + "-ff: forces usage of OCR even if the source resolution is unknown\n"
                 + "-q: silent mode -- no error output is printed");
-        System.exit(1);
+        return EXIT_INVALID_ARGUMENTS;
     }
 }
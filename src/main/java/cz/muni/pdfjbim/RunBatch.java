@@ -0,0 +1,341 @@
+/*
+ *  Copyright 2016 Radim Hatlapatka.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package cz.muni.pdfjbim;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * batch entry point recompressing many PDF files in one JVM
+ *
+ * @author Radim Hatlapatka (hata.radim@gmail.com)
+ */
+public class RunBatch {
+
+    private static final Logger log = LoggerFactory.getLogger(RunBatch.class);
+
+    /**
+     * @param args the command line arguments
+     */
+    public static void main(String[] args) {
+        int exitCode;
+        try {
+            exitCode = run(args);
+        } catch (PdfRecompressionException ex) {
+            log.error("Batch recompression failed", ex);
+            exitCode = Run.getExitCode(ex);
+        }
+        if (exitCode != Run.EXIT_SUCCESS) {
+            System.exit(exitCode);
+        }
+    }
+
+    /**
+     * runs batch given by command line arguments without exiting JVM
+     *
+     * @param args the command line arguments
+     * @return exit code, EXIT_SUCCESS of Run if all files were recompressed, EXIT_INVALID_ARGUMENTS for invalid
+     * arguments and EXIT_FAILURE if any file failed
+     * @throws PdfRecompressionException if batch can't be started
+     */
+    public static int run(String[] args) throws PdfRecompressionException {
+        String jbig2enc = null;
+        String outputDir = null;
+        String journalFile = null;
+        String cacheDir = null;
+        long cacheSize = 1024;
+        int processors = Runtime.getRuntime().availableProcessors();
+        int documents = processors;
+        int encoders = processors;
+        List<String> inputs = new ArrayList<String>();
+        RecompressionOptions options = new RecompressionOptions();
+        options.setThreads(1);
+
+        // parsing arguments of main method, setters of options reject invalid values
+        try {
+            for (int i = 0; i < args.length; i++) {
+                if (args[i].equalsIgnoreCase("-h")) {
+                    return usage();
+                }
+
+                if (args[i].equalsIgnoreCase("-pathToEnc")) {
+                    i++;
+                    if (i >= args.length) {
+                        return usage();
+                    }
+                    jbig2enc = args[i];
+                    continue;
+                }
+
+                if (args[i].equalsIgnoreCase("-outputDir")) {
+                    i++;
+                    if (i >= args.length) {
+                        return usage();
+                    }
+                    outputDir = args[i];
+                    continue;
+                }
+
+                if (args[i].equalsIgnoreCase("-journal")) {
+                    i++;
+                    if (i >= args.length) {
+                        return usage();
+                    }
+                    journalFile = args[i];
+                    continue;
+                }
+
+                if (args[i].equalsIgnoreCase("-documents")) {
+                    i++;
+                    if (i >= args.length) {
+                        return usage();
+                    }
+                    documents = Integer.parseInt(args[i]);
+                    continue;
+                }
+
+                if (args[i].equalsIgnoreCase("-encoders")) {
+                    i++;
+                    if (i >= args.length) {
+                        return usage();
+                    }
+                    encoders = Integer.parseInt(args[i]);
+                    continue;
+                }
+
+                if (args[i].equalsIgnoreCase("-threads")) {
+                    i++;
+                    if (i >= args.length) {
+                        return usage();
+                    }
+                    options.setThreads(Integer.parseInt(args[i]));
+                    continue;
+                }
+
+                if (args[i].equalsIgnoreCase("-thresh")) {
+                    i++;
+                    if (i >= args.length) {
+                        return usage();
+                    }
+                    options.setDefaultThresh(Double.parseDouble(args[i]));
+                    continue;
+                }
+
+                if (args[i].equalsIgnoreCase("-bw_thresh")) {
+                    i++;
+                    if (i >= args.length) {
+                        return usage();
+                    }
+                    options.setBwThresh(Integer.parseInt(args[i]));
+                    continue;
+                }
+
+                if (args[i].equalsIgnoreCase("-autoThresh")) {
+                    options.setAutoThresh(true);
+                    continue;
+                }
+
+                if (args[i].equalsIgnoreCase("-encoder")) {
+                    i++;
+                    if (i >= args.length) {
+                        return usage();
+                    }
+                    options.setEncoder(args[i]);
+                    continue;
+                }
+
+                if (args[i].equalsIgnoreCase("-segment")) {
+                    options.setSegment(true);
+                    continue;
+                }
+
+                if (args[i].equalsIgnoreCase("-binarize")) {
+                    options.setBinarize(true);
+                    continue;
+                }
+
+                if (args[i].equalsIgnoreCase("-keepUnreachable")) {
+                    options.setRemoveUnreachableImages(false);
+                    continue;
+                }
+
+                if (args[i].equalsIgnoreCase("-skipJbig2")) {
+                    options.setRecompressJbig2Images(false);
+                    continue;
+                }
+
+                if (args[i].equalsIgnoreCase("-limit")) {
+                    i++;
+                    if (i >= args.length) {
+                        return usage();
+                    }
+                    options.setImagesPerGlobalDictionary(Integer.parseInt(args[i]));
+                    continue;
+                }
+
+                if (args[i].equalsIgnoreCase("-cluster")) {
+                    i++;
+                    if (i >= args.length) {
+                        return usage();
+                    }
+                    options.setClusteredChunks(Integer.parseInt(args[i]));
+                    continue;
+                }
+
+                if (args[i].equalsIgnoreCase("-maxDictSize")) {
+                    i++;
+                    if (i >= args.length) {
+                        return usage();
+                    }
+                    options.setMaxGlobalDataSize(Long.parseLong(args[i]) * 1024);
+                    continue;
+                }
+
+                if (args[i].equalsIgnoreCase("-workDir")) {
+                    i++;
+                    if (i >= args.length) {
+                        return usage();
+                    }
+                    options.setWorkDir(new File(args[i]));
+                    continue;
+                }
+
+                if (args[i].equalsIgnoreCase("-cacheDir")) {
+                    i++;
+                    if (i >= args.length) {
+                        return usage();
+                    }
+                    cacheDir = args[i];
+                    continue;
+                }
+
+                if (args[i].equalsIgnoreCase("-cacheSize")) {
+                    i++;
+                    if (i >= args.length) {
+                        return usage();
+                    }
+                    cacheSize = Long.parseLong(args[i]);
+                    continue;
+                }
+
+                if (args[i].equalsIgnoreCase("-lowMemory")) {
+                    options.setPartialRead(true);
+                    continue;
+                }
+
+                if (args[i].equalsIgnoreCase("-incremental")) {
+                    options.setIncrementalUpdate(true);
+                    continue;
+                }
+
+                if (args[i].startsWith("-")) {
+                    System.err.println("Unknown option " + args[i]);
+                    return usage();
+                }
+                inputs.add(args[i]);
+            }
+        } catch (IllegalArgumentException ex) {
+            // NumberFormatException included
+            System.err.println("Invalid value: " + ex.getMessage());
+            return usage();
+        }
+
+        // path to jbig2enc is needed only if images are encoded by it
+        boolean usesJbig2enc = RecompressionOptions.ENCODER_JBIG2ENC.equals(options.getEncoder());
+        if (((jbig2enc == null) && usesJbig2enc)
+                || inputs.isEmpty() || (documents < 1) || (encoders < 1) || (cacheSize < 1)) {
+            return usage();
+        }
+
+        if (jbig2enc != null) {
+            options.setJbig2enc(jbig2enc);
+        }
+        // jbig2enc processes of all documents are drawn from the same budget
+        options.setEncoderPermits(new Semaphore(encoders));
+        if (cacheDir != null) {
+            options.setCache(new Jbig2Cache(new File(cacheDir), cacheSize * 1024 * 1024));
+        }
+
+        Map<File, String> pdfFiles = BatchRecompressor.collectInputs(inputs);
+        log.info("Recompressing {} files", pdfFiles.size());
+        BatchRecompressor batch = new BatchRecompressor(options, documents);
+        BatchRecompressor.Result result;
+        BatchJournal journal = null;
+        try {
+            if (journalFile != null) {
+                journal = new BatchJournal(new File(journalFile));
+            }
+            result = batch.run(pdfFiles, (outputDir != null) ? new File(outputDir) : null, journal);
+        } catch (IOException ex) {
+            throw new PdfRecompressionException("Unable to open journal " + journalFile, ex);
+        } finally {
+            if (journal != null) {
+                try {
+                    journal.close();
+                } catch (IOException ex) {
+                    log.warn("Unable to close journal", ex);
+                }
+            }
+        }
+
+        for (File failed : result.getFailed()) {
+            System.err.println("failed: " + failed);
+        }
+        return result.getFailed().isEmpty() ? Run.EXIT_SUCCESS : Run.EXIT_FAILURE;
+    }
+
+    /**
+     * write usage of main method
+     *
+     * @return exit code for invalid arguments
+     */
+    private static int usage() {
+        System.err.println("Usage: -pathToEnc <Path to jbig2enc> [OPTIONAL] <input>...\n");
+        System.err.println("Input can be pdf file, directory (all pdf files inside are processed), glob pattern "
+                + "(e.g. '/data/**/*.pdf') or @manifest (file containing one input per line)\n");
+        System.err.println("OPTIONAL parameters:\n"
+                + "-outputDir <dir>: directory where recompressed files are stored under their relative path (if not given input files are overwritten)\n"
+                + "-journal <file>: journal of completed files, files recorded there are skipped => killed batch can be resumed\n"
+                + "-documents <count>: number of documents recompressed at the same time (in default number of available processors)\n"
+                + "-encoders <count>: maximal number of jbig2enc processes running at the same time in the whole batch (in default number of available processors)\n"
+                + "-threads <count>: number of chunks of one document encoded in parallel by the selected encoder (in default 1)\n"
+                + "-thresh <valueOfDefaultThresholding>: value that is set to encoder with switch -t\n"
+                + "-bw_thresh <value of BW thresholding>: sets value for bw thresholding to encoder (in jbig2enc it is switch -T)\n"
+                + "-autoThresh: engage automatic thresholding\n"
+                + "-encoder <name>: encoder of images, jbig2enc (default), java (lossless generic regions in JVM), java-symbol (symbol coding in JVM using -thresh),\n"
+                + "    or other encoder found on classpath\n"
+                + "-segment: enables option -S in jbig2enc encoder\n"
+                + "-binarize: enables to process not bi-tonal images\n"
+                + "-keepUnreachable: images not referenced from the document are kept (in default they are removed)\n"
+                + "-skipJbig2: images already compressed according to JBIG2 are kept as they are\n"
+                + "-limit <limit>: sets limit of maximum pages (images) having a common global dictionary\n"
+                + "-cluster <n>: images of n chunks are regrouped by similarity of their symbols\n"
+                + "-maxDictSize <KB>: maximal size of global dictionary, chunks with larger dictionary are split\n"
+                + "-workDir <dir>: directory for temporary files such as PBM input of jbig2enc\n"
+                + "-cacheDir <dir>: directory where encoded images are cached\n"
+                + "-cacheSize <MB>: maximal size of cache in MB (in default 1024)\n"
+                + "-lowMemory: input pdf files are read lazily instead of loading them whole to memory\n"
+                + "-incremental: recompressed images are appended to pdf files as incremental update");
+        return Run.EXIT_INVALID_ARGUMENTS;
+    }
+}
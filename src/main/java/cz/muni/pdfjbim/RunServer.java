@@ -0,0 +1,204 @@
+/*
+ *  Copyright 2016 Radim Hatlapatka.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package cz.muni.pdfjbim;
+
+import java.io.File;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.util.concurrent.Semaphore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * entry point running local HTTP recompression service until JVM is terminated
+ *
+ * @author Radim Hatlapatka (hata.radim@gmail.com)
+ */
+public class RunServer {
+
+    private static final Logger log = LoggerFactory.getLogger(RunServer.class);
+
+    /**
+     * @param args the command line arguments
+     * @throws PdfRecompressionException
+     */
+    public static void main(String[] args) throws PdfRecompressionException {
+        int exitCode = run(args);
+        if (exitCode != 0) {
+            System.exit(exitCode);
+        }
+    }
+
+    /**
+     * starts server given by command line arguments, server runs in background until JVM is terminated
+     *
+     * @param args the command line arguments
+     * @return exit code, 0 if server was started, 1 for invalid arguments
+     * @throws PdfRecompressionException if server can't be started
+     */
+    public static int run(String[] args) throws PdfRecompressionException {
+        String jbig2enc = null;
+        String host = "127.0.0.1";
+        int port = 8084;
+        String spoolDir = null;
+        String cacheDir = null;
+        long cacheSize = 1024;
+        long maxSize = 256;
+        int processors = Runtime.getRuntime().availableProcessors();
+        int workers = processors;
+        int queueCapacity = 2 * processors;
+        int encoders = processors;
+        RecompressionOptions options = new RecompressionOptions();
+        options.setThreads(1);
+
+        try {
+            for (int i = 0; i < args.length; i++) {
+                String arg = args[i];
+                if (arg.equalsIgnoreCase("-h")) {
+                    return usage();
+                } else if (arg.equalsIgnoreCase("-pathToEnc")) {
+                    jbig2enc = args[++i];
+                } else if (arg.equalsIgnoreCase("-host")) {
+                    host = args[++i];
+                } else if (arg.equalsIgnoreCase("-port")) {
+                    port = Integer.parseInt(args[++i]);
+                } else if (arg.equalsIgnoreCase("-workers")) {
+                    workers = Integer.parseInt(args[++i]);
+                } else if (arg.equalsIgnoreCase("-queue")) {
+                    queueCapacity = Integer.parseInt(args[++i]);
+                } else if (arg.equalsIgnoreCase("-spoolDir")) {
+                    spoolDir = args[++i];
+                } else if (arg.equalsIgnoreCase("-maxSize")) {
+                    maxSize = Long.parseLong(args[++i]);
+                } else if (arg.equalsIgnoreCase("-encoders")) {
+                    encoders = Integer.parseInt(args[++i]);
+                } else if (arg.equalsIgnoreCase("-threads")) {
+                    options.setThreads(Integer.parseInt(args[++i]));
+                } else if (arg.equalsIgnoreCase("-thresh")) {
+                    options.setDefaultThresh(Double.parseDouble(args[++i]));
+                } else if (arg.equalsIgnoreCase("-bw_thresh")) {
+                    options.setBwThresh(Integer.parseInt(args[++i]));
+                } else if (arg.equalsIgnoreCase("-autoThresh")) {
+                    options.setAutoThresh(true);
+                } else if (arg.equalsIgnoreCase("-encoder")) {
+                    options.setEncoder(args[++i]);
+                } else if (arg.equalsIgnoreCase("-segment")) {
+                    options.setSegment(true);
+                } else if (arg.equalsIgnoreCase("-binarize")) {
+                    options.setBinarize(true);
+                } else if (arg.equalsIgnoreCase("-keepUnreachable")) {
+                    options.setRemoveUnreachableImages(false);
+                } else if (arg.equalsIgnoreCase("-skipJbig2")) {
+                    options.setRecompressJbig2Images(false);
+                } else if (arg.equalsIgnoreCase("-limit")) {
+                    options.setImagesPerGlobalDictionary(Integer.parseInt(args[++i]));
+                } else if (arg.equalsIgnoreCase("-cluster")) {
+                    options.setClusteredChunks(Integer.parseInt(args[++i]));
+                } else if (arg.equalsIgnoreCase("-maxDictSize")) {
+                    options.setMaxGlobalDataSize(Long.parseLong(args[++i]) * 1024);
+                } else if (arg.equalsIgnoreCase("-workDir")) {
+                    options.setWorkDir(new File(args[++i]));
+                } else if (arg.equalsIgnoreCase("-cacheDir")) {
+                    cacheDir = args[++i];
+                } else if (arg.equalsIgnoreCase("-cacheSize")) {
+                    cacheSize = Long.parseLong(args[++i]);
+                } else {
+                    System.err.println("Unknown option " + arg);
+                    return usage();
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException ex) {
+            return usage();
+        } catch (IllegalArgumentException ex) {
+            // NumberFormatException included
+            System.err.println("Invalid value: " + ex.getMessage());
+            return usage();
+        }
+
+        // path to jbig2enc is needed only if images are encoded by it
+        boolean usesJbig2enc = RecompressionOptions.ENCODER_JBIG2ENC.equals(options.getEncoder());
+        if (((jbig2enc == null) && usesJbig2enc)
+                || (workers < 1) || (queueCapacity < 0) || (encoders < 1) || (cacheSize < 1)
+                || (maxSize < 1) || (maxSize >= Integer.MAX_VALUE / (1024 * 1024))) {
+            return usage();
+        }
+
+        if (jbig2enc != null) {
+            options.setJbig2enc(jbig2enc);
+        }
+        // jbig2enc processes of all documents are drawn from the same budget
+        options.setEncoderPermits(new Semaphore(encoders));
+        if (cacheDir != null) {
+            options.setCache(new Jbig2Cache(new File(cacheDir), cacheSize * 1024 * 1024));
+        }
+
+        final RecompressionServer server = new RecompressionServer(options, workers, queueCapacity,
+                (spoolDir != null) ? new File(spoolDir) : null);
+        server.setMaxDocumentSize(maxSize * 1024 * 1024);
+        try {
+            server.start(new InetSocketAddress(InetAddress.getByName(host), port));
+        } catch (UnknownHostException ex) {
+            System.err.println("Unknown host " + host);
+            return usage();
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread("server-shutdown") {
+            @Override
+            public void run() {
+                log.info("Stopping recompression server");
+                server.stop(60);
+            }
+        });
+        return 0;
+    }
+
+    /**
+     * write usage of main method
+     *
+     * @return exit code for invalid arguments
+     */
+    private static int usage() {
+        System.err.println("Usage: -pathToEnc <Path to jbig2enc> [OPTIONAL]\n");
+        System.err.println("Endpoints: POST /recompress (result in response), POST /recompress?spool "
+                + "(result stored to spool directory, GET /jobs/<id> returns it), GET /stats\n");
+        System.err.println("OPTIONAL parameters:\n"
+                + "-host <address>: address to listen on (in default 127.0.0.1)\n"
+                + "-port <port>: port to listen on (in default 8084)\n"
+                + "-workers <count>: number of documents recompressed at the same time (in default number of available processors)\n"
+                + "-queue <count>: number of documents waiting for worker, when queue is full clients get 429 (in default twice number of available processors)\n"
+                + "-spoolDir <dir>: directory where results of spooled jobs are stored (spooling is disabled if not given)\n"
+                + "-maxSize <MB>: maximal size of posted document, larger ones get 413 (in default 256)\n"
+                + "-encoders <count>: maximal number of jbig2enc processes running at the same time (in default number of available processors)\n"
+                + "-threads <count>: number of chunks of one document encoded in parallel by the selected encoder (in default 1)\n"
+                + "-thresh <valueOfDefaultThresholding>: value that is set to encoder with switch -t\n"
+                + "-bw_thresh <value of BW thresholding>: sets value for bw thresholding to encoder (in jbig2enc it is switch -T)\n"
+                + "-autoThresh: engage automatic thresholding\n"
+                + "-encoder <name>: encoder of images, jbig2enc (default), java (lossless generic regions in JVM), java-symbol (symbol coding in JVM using -thresh),\n"
+                + "    or other encoder found on classpath\n"
+                + "-segment: enables option -S in jbig2enc encoder\n"
+                + "-binarize: enables to process not bi-tonal images\n"
+                + "-keepUnreachable: images not referenced from the document are kept (in default they are removed)\n"
+                + "-skipJbig2: images already compressed according to JBIG2 are kept as they are\n"
+                + "-limit <limit>: sets limit of maximum pages (images) having a common global dictionary\n"
+                + "-cluster <n>: images of n chunks are regrouped by similarity of their symbols\n"
+                + "-maxDictSize <KB>: maximal size of global dictionary, chunks with larger dictionary are split\n"
+                + "-workDir <dir>: directory for temporary files such as PBM input of jbig2enc\n"
+                + "-cacheDir <dir>: directory where encoded images are cached\n"
+                + "-cacheSize <MB>: maximal size of cache in MB (in default 1024)");
+        return 1;
+    }
+}
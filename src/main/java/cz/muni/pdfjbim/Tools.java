@@ -16,11 +16,24 @@
  */
 package cz.muni.pdfjbim;
 
+import com.itextpdf.text.io.RandomAccessSourceFactory;
+import com.itextpdf.text.pdf.PdfReader;
+import com.itextpdf.text.pdf.RandomAccessFileOrArray;
+import com.itextpdf.text.pdf.codec.TIFFConstants;
+import com.itextpdf.text.pdf.codec.TIFFDirectory;
+import com.itextpdf.text.pdf.codec.TIFFFaxDecoder;
+import cz.muni.pdfjbim.jbig2.BitonalImage;
+import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.List;
+import javax.imageio.ImageIO;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -56,6 +69,39 @@ public class Tools {
         }
     }
 
+    /**
+     * opens PDF file in partial mode, objects are read lazily from memory mapped file (or using
+     * RandomAccessFile if the file can't be mapped) instead of loading whole PDF to memory
+     *
+     * @param pdfFile PDF file to open
+     * @param password password used for decrypting PDF or null if PDF is not encrypted
+     * @return reader of PDF which has to be closed to release the file
+     * @throws IOException if PDF can't be read
+     */
+    public static PdfReader openPdfPartially(File pdfFile, byte[] password) throws IOException {
+        RandomAccessSourceFactory factory = new RandomAccessSourceFactory().setForceRead(false);
+        RandomAccessFileOrArray raf = new RandomAccessFileOrArray(factory.createBestSource(pdfFile.getPath()));
+        try {
+            return new PdfReader(raf, password);
+        } catch (IOException ex) {
+            raf.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * @param bytes bytes to convert
+     * @return bytes as lowercase hexadecimal string
+     */
+    public static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16));
+            sb.append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+
     /**
      * copy file
      * @param fromFile what file should be copied
@@ -173,4 +219,129 @@ public class Tools {
             }
         }
     }
+
+    /**
+     * reads image stored by extractor, bi-tonal images stored as PBM and CCITT images stored as TIFF
+     * are decoded directly, because ImageIO doesn't support TIFF in Java 8
+     *
+     * @param file file containing image
+     * @param bwThresh luminance below which pixels of not bi-tonal images are black
+     * @return bi-tonal image
+     * @throws PdfRecompressionException if image can't be read
+     */
+    public static BitonalImage readBitmap(File file, int bwThresh) throws PdfRecompressionException {
+        try {
+            String name = file.getName().toLowerCase();
+            if (name.endsWith(".pbm")) {
+                return readPbm(file);
+            }
+            if (name.endsWith(".tif") || name.endsWith(".tiff")) {
+                BitonalImage bitonalImage = readCcittTiff(file);
+                if (bitonalImage != null) {
+                    return bitonalImage;
+                }
+            }
+            BufferedImage image = ImageIO.read(file);
+            if (image == null) {
+                throw new PdfRecompressionException("Unsupported format of image " + file);
+            }
+            return BitonalImage.fromImage(image, bwThresh);
+        } catch (IOException ex) {
+            throw new PdfRecompressionException("Unable to read image " + file, ex);
+        }
+    }
+
+    /**
+     * writes image as binary PBM
+     *
+     * @param image image to be written
+     * @param file output file
+     * @throws IOException if file can't be written
+     */
+    public static void writePbm(BitonalImage image, File file) throws IOException {
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+            image.writePbm(out);
+        }
+    }
+
+    /**
+     * reads binary PBM (comments in header are allowed)
+     *
+     * @param file PBM file
+     * @return image of the file
+     * @throws IOException if file can't be read or it isn't binary PBM
+     */
+    public static BitonalImage readPbm(File file) throws IOException {
+        try (InputStream in = new BufferedInputStream(new FileInputStream(file))) {
+            return BitonalImage.readPbm(in);
+        } catch (IOException ex) {
+            throw new IOException("Unable to read PBM " + file, ex);
+        }
+    }
+
+    /**
+     * @return image of CCITT compressed TIFF or null if TIFF uses other compression
+     */
+    private static BitonalImage readCcittTiff(File file) throws IOException {
+        RandomAccessFileOrArray ra = new RandomAccessFileOrArray(
+                new RandomAccessSourceFactory().createBestSource(file.getPath()));
+        try {
+            TIFFDirectory dir = new TIFFDirectory(ra, 0);
+            int compression = (int) dir.getFieldAsLong(TIFFConstants.TIFFTAG_COMPRESSION);
+            if ((compression != TIFFConstants.COMPRESSION_CCITTRLE) && (compression != TIFFConstants.COMPRESSION_CCITTFAX3)
+                    && (compression != TIFFConstants.COMPRESSION_CCITTFAX4)) {
+                return null;
+            }
+            int width = (int) dir.getFieldAsLong(TIFFConstants.TIFFTAG_IMAGEWIDTH);
+            int height = (int) dir.getFieldAsLong(TIFFConstants.TIFFTAG_IMAGELENGTH);
+            int fillOrder = dir.isTagPresent(TIFFConstants.TIFFTAG_FILLORDER)
+                    ? (int) dir.getFieldAsLong(TIFFConstants.TIFFTAG_FILLORDER) : 1;
+            int rowsPerStrip = dir.isTagPresent(TIFFConstants.TIFFTAG_ROWSPERSTRIP)
+                    ? (int) Math.min(height, dir.getFieldAsLong(TIFFConstants.TIFFTAG_ROWSPERSTRIP)) : height;
+            long options = 0;
+            if (compression == TIFFConstants.COMPRESSION_CCITTFAX3
+                    && dir.isTagPresent(TIFFConstants.TIFFTAG_GROUP3OPTIONS)) {
+                options = dir.getFieldAsLong(TIFFConstants.TIFFTAG_GROUP3OPTIONS);
+            } else if (compression == TIFFConstants.COMPRESSION_CCITTFAX4
+                    && dir.isTagPresent(TIFFConstants.TIFFTAG_GROUP4OPTIONS)) {
+                options = dir.getFieldAsLong(TIFFConstants.TIFFTAG_GROUP4OPTIONS);
+            }
+
+            int stride = (width + 7) / 8;
+            byte[] data = new byte[stride * height];
+            int strips = dir.getField(TIFFConstants.TIFFTAG_STRIPOFFSETS).getCount();
+            for (int strip = 0; strip < strips; strip++) {
+                int firstRow = strip * rowsPerStrip;
+                int rows = Math.min(rowsPerStrip, height - firstRow);
+                if (rows <= 0) {
+                    break;
+                }
+                byte[] compressed = new byte[(int) dir.getFieldAsLong(TIFFConstants.TIFFTAG_STRIPBYTECOUNTS, strip)];
+                ra.seek(dir.getFieldAsLong(TIFFConstants.TIFFTAG_STRIPOFFSETS, strip));
+                ra.readFully(compressed);
+
+                byte[] decoded = new byte[stride * rows];
+                TIFFFaxDecoder decoder = new TIFFFaxDecoder(fillOrder, width, rows);
+                if (compression == TIFFConstants.COMPRESSION_CCITTFAX4) {
+                    decoder.decodeT6(decoded, compressed, 0, rows, options);
+                } else if (compression == TIFFConstants.COMPRESSION_CCITTFAX3) {
+                    decoder.decode2D(decoded, compressed, 0, rows, options);
+                } else {
+                    decoder.decode1D(decoded, compressed, 0, rows);
+                }
+                System.arraycopy(decoded, 0, data, firstRow * stride, decoded.length);
+            }
+
+            // decoder produces 1 for black as JBIG2 does, which corresponds to WhiteIsZero
+            if (dir.isTagPresent(TIFFConstants.TIFFTAG_PHOTOMETRIC)
+                    && dir.getFieldAsLong(TIFFConstants.TIFFTAG_PHOTOMETRIC) == TIFFConstants.PHOTOMETRIC_MINISBLACK) {
+                for (int i = 0; i < data.length; i++) {
+                    data[i] = (byte) ~data[i];
+                }
+            }
+            return BitonalImage.fromPackedRows(data, width, height, true);
+        } finally {
+            ra.close();
+        }
+    }
 }
@@ -22,12 +22,12 @@ public class Utils {
         int start = 0;
         int basenameSuffix = 0;
         while (listToSplit.size() >= start+factor) {
-            splittedList.put(basename + basenameSuffix,listToSplit.subList(start, start+factor));
+            splittedList.put(chunkBasename(basename, basenameSuffix),listToSplit.subList(start, start+factor));
             basenameSuffix++;
             start += factor;
         }
         if (start < listToSplit.size()) {
-            splittedList.put(basename + basenameSuffix, listToSplit.subList(start, listToSplit.size()));
+            splittedList.put(chunkBasename(basename, basenameSuffix), listToSplit.subList(start, listToSplit.size()));
         }
         
         return splittedList;
@@ -41,14 +41,22 @@ public class Utils {
         int start = 0;
         int basenameSuffix = 0;
         while (listToSplit.size() >= start+factor) {
-            splittedList.put(basename + basenameSuffix,listToSplit.subList(start, start+factor));
+            splittedList.put(chunkBasename(basename, basenameSuffix),listToSplit.subList(start, start+factor));
             basenameSuffix++;
             start += factor;
         }
         if (start < listToSplit.size()) {
-            splittedList.put(basename + basenameSuffix, listToSplit.subList(start, listToSplit.size()));
+            splittedList.put(chunkBasename(basename, basenameSuffix), listToSplit.subList(start, listToSplit.size()));
         }
         
         return splittedList;
     }
+
+    /**
+     * creates basename of a chunk, suffix is padded so that basenames keep order of chunks
+     * and none of them is a prefix of another
+     */
+    private static String chunkBasename(String basename, int suffix) {
+        return basename + String.format("%05d", suffix);
+    }
 }
@@ -0,0 +1,556 @@
+/*
+ *  Copyright 2016 Radim Hatlapatka.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package cz.muni.pdfjbim.jbig2;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * bi-tonal image stored as rows of 64-bit words (the most significant bit is the leftmost pixel),
+ * 1 stands for black pixel as in JBIG2. Operations process whole words, so that comparing, hashing
+ * and counting of pixels takes time proportional to number of words instead of number of pixels.
+ * Views share words with the image they were created from, words beyond width of image
+ * (and of view) are always read as white.
+ *
+ * @author Radim Hatlapatka (hata.radim@gmail.com)
+ */
+public class BitonalImage {
+
+    private final int width;
+    private final int height;
+    private final long[] words;
+    // number of words of one row in the array (the same for all views of the array)
+    private final int stride;
+    // index of word containing the first pixel and position of the pixel within the word
+    private final int offset;
+    private final int shift;
+
+    /**
+     * creates white image
+     *
+     * @param width width in pixels
+     * @param height height in pixels
+     */
+    public BitonalImage(int width, int height) {
+        if ((width <= 0) || (height <= 0)) {
+            throw new IllegalArgumentException("dimensions " + width + "x" + height);
+        }
+        this.width = width;
+        this.height = height;
+        this.stride = (width + 63) >>> 6;
+        this.words = new long[stride * height];
+        this.offset = 0;
+        this.shift = 0;
+    }
+
+    private BitonalImage(int width, int height, long[] words, int stride, int offset, int shift) {
+        this.width = width;
+        this.height = height;
+        this.words = words;
+        this.stride = stride;
+        this.offset = offset;
+        this.shift = shift;
+    }
+
+    /**
+     * creates image from samples in layout of 1-bit PDF image (rows padded to whole bytes),
+     * which is the layout of JBIG2 bitmaps and PBM as well
+     *
+     * @param samples packed rows
+     * @param width width in pixels
+     * @param height height in pixels
+     * @param blackIsOne true if 1 stands for black pixel (JBIG2, PBM, /Decode [1 0]),
+     * false if 0 does (DeviceGray without /Decode)
+     * @return image of the samples
+     */
+    public static BitonalImage fromPackedRows(byte[] samples, int width, int height, boolean blackIsOne) {
+        if (samples == null) {
+            throw new NullPointerException("samples");
+        }
+        BitonalImage image = new BitonalImage(width, height);
+        int bytesPerRow = (width + 7) >>> 3;
+        if (samples.length < (long) bytesPerRow * height) {
+            throw new IllegalArgumentException("samples contain only " + samples.length + " bytes");
+        }
+        long invert = blackIsOne ? 0 : -1L;
+        for (int y = 0; y < height; y++) {
+            int source = y * bytesPerRow;
+            for (int i = 0; i < image.stride; i++) {
+                long word = 0;
+                int end = Math.min(bytesPerRow, (i + 1) << 3);
+                for (int b = i << 3; b < end; b++) {
+                    word |= (samples[source + b] & 0xFFL) << (56 - ((b & 7) << 3));
+                }
+                image.words[y * image.stride + i] = (word ^ invert) & image.getMask(i);
+            }
+        }
+        return image;
+    }
+
+    /**
+     * @param blackIsOne true if 1 should stand for black pixel, false if 0 should
+     * @return packed rows padded to whole bytes (padding bits are 0)
+     */
+    public byte[] toPackedRows(boolean blackIsOne) {
+        int bytesPerRow = (width + 7) >>> 3;
+        byte[] samples = new byte[bytesPerRow * height];
+        long invert = blackIsOne ? 0 : -1L;
+        for (int y = 0; y < height; y++) {
+            int target = y * bytesPerRow;
+            for (int i = 0; i < getWordsPerRow(); i++) {
+                long word = (getWord(y, i) ^ invert) & getMask(i);
+                int end = Math.min(bytesPerRow, (i + 1) << 3);
+                for (int b = i << 3; b < end; b++) {
+                    samples[target + b] = (byte) (word >>> (56 - ((b & 7) << 3)));
+                }
+            }
+        }
+        return samples;
+    }
+
+    /**
+     * creates image from image of other type, pixels darker than threshold are black
+     *
+     * @param image source image
+     * @param threshold luminance (0-255) below which pixel is considered black
+     * @return bi-tonal image of the image
+     */
+    public static BitonalImage fromImage(BufferedImage image, int threshold) {
+        if (image == null) {
+            throw new NullPointerException("image");
+        }
+        BitonalImage bitonal = new BitonalImage(image.getWidth(), image.getHeight());
+        int width = bitonal.width;
+        int[] row = new int[width];
+        int type = image.getType();
+        boolean gray = (type == BufferedImage.TYPE_BYTE_GRAY) || (type == BufferedImage.TYPE_USHORT_GRAY);
+        int shift = (type == BufferedImage.TYPE_USHORT_GRAY) ? 8 : 0;
+        for (int y = 0; y < bitonal.height; y++) {
+            if (gray) {
+                // getRGB converts linear gray to sRGB which would make image lighter => samples are used directly
+                image.getRaster().getSamples(0, y, width, 1, 0, row);
+            } else {
+                image.getRGB(0, y, width, 1, row, 0, width);
+            }
+            for (int i = 0; i < bitonal.stride; i++) {
+                long word = 0;
+                int end = Math.min(64, width - (i << 6));
+                for (int b = 0; b < end; b++) {
+                    int sample = row[(i << 6) + b];
+                    int luminance = gray ? (sample >> shift) : (299 * ((sample >> 16) & 0xFF)
+                            + 587 * ((sample >> 8) & 0xFF) + 114 * (sample & 0xFF)) / 1000;
+                    if (luminance < threshold) {
+                        word |= 1L << (63 - b);
+                    }
+                }
+                bitonal.words[y * bitonal.stride + i] = word;
+            }
+        }
+        return bitonal;
+    }
+
+    /**
+     * reads binary PBM (P4), comments in header are allowed
+     *
+     * @param in stream positioned at the beginning of PBM
+     * @return image of PBM
+     * @throws IOException if stream can't be read or it doesn't contain binary PBM
+     */
+    public static BitonalImage readPbm(InputStream in) throws IOException {
+        if (in == null) {
+            throw new NullPointerException("in");
+        }
+        if ((in.read() != 'P') || (in.read() != '4')) {
+            throw new IOException("not binary PBM");
+        }
+        int width = readPbmNumber(in);
+        int height = readPbmNumber(in);
+        if ((width <= 0) || (height <= 0)) {
+            throw new IOException("invalid dimensions of PBM " + width + "x" + height);
+        }
+        byte[] samples = new byte[((width + 7) >>> 3) * height];
+        int read = 0;
+        while (read < samples.length) {
+            int count = in.read(samples, read, samples.length - read);
+            if (count < 0) {
+                throw new IOException("PBM is truncated");
+            }
+            read += count;
+        }
+        return fromPackedRows(samples, width, height, true);
+    }
+
+    /**
+     * reads decimal number from PBM header including single whitespace following it
+     */
+    private static int readPbmNumber(InputStream in) throws IOException {
+        int c = in.read();
+        while ((c == '#') || Character.isWhitespace(c)) {
+            if (c == '#') {
+                while ((c != '\n') && (c != '\r') && (c != -1)) {
+                    c = in.read();
+                }
+            }
+            c = in.read();
+        }
+        if ((c < '0') || (c > '9')) {
+            throw new IOException("invalid header of PBM");
+        }
+        int number = 0;
+        while ((c >= '0') && (c <= '9')) {
+            number = number * 10 + (c - '0');
+            c = in.read();
+        }
+        if (!Character.isWhitespace(c)) {
+            throw new IOException("invalid header of PBM");
+        }
+        return number;
+    }
+
+    /**
+     * writes image as binary PBM (P4)
+     *
+     * @param out output stream, it isn't closed
+     * @throws IOException if image can't be written
+     */
+    public void writePbm(OutputStream out) throws IOException {
+        if (out == null) {
+            throw new NullPointerException("out");
+        }
+        out.write(("P4\n" + width + " " + height + "\n").getBytes(StandardCharsets.US_ASCII));
+        out.write(toPackedRows(true));
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * @return number of words of one row
+     */
+    public int getWordsPerRow() {
+        return (width + 63) >>> 6;
+    }
+
+    /**
+     * @param y row
+     * @param i index of word in the row
+     * @return pixels i * 64 to i * 64 + 63 of the row, pixels beyond width are white
+     */
+    public long getWord(int y, int i) {
+        int index = offset + y * stride + i;
+        long word = words[index];
+        if (shift != 0) {
+            word <<= shift;
+            // the rest of pixels is in the next word if view continues there
+            if ((i << 6) + 64 - shift < width) {
+                word |= words[index + 1] >>> (64 - shift);
+            }
+        }
+        return word & getMask(i);
+    }
+
+    /**
+     * @return mask of pixels of i-th word of row which lie within width
+     */
+    private long getMask(int i) {
+        int remaining = width - (i << 6);
+        return (remaining >= 64) ? -1L : -1L << (64 - remaining);
+    }
+
+    /**
+     * @return value of pixel, pixels outside of image are white (0)
+     */
+    public int getPixel(int x, int y) {
+        if ((x < 0) || (y < 0) || (x >= width) || (y >= height)) {
+            return 0;
+        }
+        int bit = shift + x;
+        return (int) (words[offset + y * stride + (bit >>> 6)] >>> (63 - (bit & 63))) & 1;
+    }
+
+    /**
+     * sets pixel, the change is visible in all views sharing the pixel
+     */
+    public void setPixel(int x, int y, int value) {
+        if ((x < 0) || (y < 0) || (x >= width) || (y >= height)) {
+            throw new IndexOutOfBoundsException("pixel " + x + "," + y + " is outside of " + this);
+        }
+        int bit = shift + x;
+        int index = offset + y * stride + (bit >>> 6);
+        long mask = 1L << (63 - (bit & 63));
+        if (value != 0) {
+            words[index] |= mask;
+        } else {
+            words[index] &= ~mask;
+        }
+    }
+
+    /**
+     * creates view of rectangle of this image without copying its pixels,
+     * changes of pixels are visible in both images
+     *
+     * @param x left column of rectangle
+     * @param y top row of rectangle
+     * @param width width of rectangle
+     * @param height height of rectangle
+     * @return view of the rectangle
+     */
+    public BitonalImage view(int x, int y, int width, int height) {
+        if ((x < 0) || (y < 0) || (width <= 0) || (height <= 0) || (x + width > this.width)
+                || (y + height > this.height)) {
+            throw new IllegalArgumentException("rectangle " + x + "," + y + " " + width + "x" + height
+                    + " is not within " + this);
+        }
+        int bit = shift + x;
+        return new BitonalImage(width, height, words, stride, offset + y * stride + (bit >>> 6), bit & 63);
+    }
+
+    /**
+     * @return copy of this image (or view) having its own pixels
+     */
+    public BitonalImage copy() {
+        BitonalImage copy = new BitonalImage(width, height);
+        for (int y = 0; y < height; y++) {
+            for (int i = 0; i < copy.stride; i++) {
+                copy.words[y * copy.stride + i] = getWord(y, i);
+            }
+        }
+        return copy;
+    }
+
+    /**
+     * @return copy of rectangle of this image
+     */
+    public BitonalImage copy(int x, int y, int width, int height) {
+        return view(x, y, width, height).copy();
+    }
+
+    /**
+     * @return image black where both images are black
+     */
+    public BitonalImage and(BitonalImage other) {
+        checkDimensions(other);
+        BitonalImage result = new BitonalImage(width, height);
+        for (int y = 0; y < height; y++) {
+            for (int i = 0; i < result.stride; i++) {
+                result.words[y * result.stride + i] = getWord(y, i) & other.getWord(y, i);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return image black where at least one of images is black
+     */
+    public BitonalImage or(BitonalImage other) {
+        checkDimensions(other);
+        BitonalImage result = new BitonalImage(width, height);
+        for (int y = 0; y < height; y++) {
+            for (int i = 0; i < result.stride; i++) {
+                result.words[y * result.stride + i] = getWord(y, i) | other.getWord(y, i);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return image black where images differ
+     */
+    public BitonalImage xor(BitonalImage other) {
+        checkDimensions(other);
+        BitonalImage result = new BitonalImage(width, height);
+        for (int y = 0; y < height; y++) {
+            for (int i = 0; i < result.stride; i++) {
+                result.words[y * result.stride + i] = getWord(y, i) ^ other.getWord(y, i);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return number of black pixels
+     */
+    public int countBlackPixels() {
+        int count = 0;
+        for (int y = 0; y < height; y++) {
+            for (int i = 0; i < getWordsPerRow(); i++) {
+                count += Long.bitCount(getWord(y, i));
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @param other image of the same dimensions
+     * @return number of pixels black in both images
+     */
+    public int countCommonBlackPixels(BitonalImage other) {
+        checkDimensions(other);
+        int count = 0;
+        for (int y = 0; y < height; y++) {
+            for (int i = 0; i < getWordsPerRow(); i++) {
+                count += Long.bitCount(getWord(y, i) & other.getWord(y, i));
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @param other image of the same dimensions
+     * @return number of pixels which differ
+     */
+    public int countDifferentPixels(BitonalImage other) {
+        checkDimensions(other);
+        int count = 0;
+        for (int y = 0; y < height; y++) {
+            for (int i = 0; i < getWordsPerRow(); i++) {
+                count += Long.bitCount(getWord(y, i) ^ other.getWord(y, i));
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return true if image contains only white pixels
+     */
+    public boolean isBlank() {
+        for (int y = 0; y < height; y++) {
+            if (!isRowWhite(y)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return true if row contains only white pixels
+     */
+    public boolean isRowWhite(int y) {
+        for (int i = 0; i < getWordsPerRow(); i++) {
+            if (getWord(y, i) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return true if rows y1 and y2 contain the same pixels
+     */
+    public boolean rowEquals(int y1, int y2) {
+        for (int i = 0; i < getWordsPerRow(); i++) {
+            if (getWord(y1, i) != getWord(y2, i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return 64-bit hash of pixels of row, rows with the same pixels have the same hash
+     * regardless of image they belong to
+     */
+    public long getRowHash(int y) {
+        long hash = width;
+        for (int i = 0; i < getWordsPerRow(); i++) {
+            hash = (hash ^ getWord(y, i)) * 0x9E3779B97F4A7C15L;
+            hash ^= hash >>> 29;
+        }
+        return hash;
+    }
+
+    /**
+     * scales image by nearest neighbour
+     *
+     * @param width width of scaled image
+     * @param height height of scaled image
+     * @return scaled image
+     */
+    public BitonalImage scale(int width, int height) {
+        BitonalImage scaled = new BitonalImage(width, height);
+        int previousSourceY = -1;
+        for (int y = 0; y < height; y++) {
+            int sourceY = (int) ((long) y * this.height / height);
+            if (sourceY == previousSourceY) {
+                // the same source row => the same scaled row
+                System.arraycopy(scaled.words, (y - 1) * scaled.stride, scaled.words, y * scaled.stride, scaled.stride);
+                continue;
+            }
+            previousSourceY = sourceY;
+            for (int i = 0; i < scaled.stride; i++) {
+                long word = 0;
+                int end = Math.min(64, width - (i << 6));
+                for (int b = 0; b < end; b++) {
+                    int sourceX = (int) ((long) ((i << 6) + b) * this.width / width);
+                    word |= (long) getPixel(sourceX, sourceY) << (63 - b);
+                }
+                scaled.words[y * scaled.stride + i] = word;
+            }
+        }
+        return scaled;
+    }
+
+    private void checkDimensions(BitonalImage other) {
+        if (other == null) {
+            throw new NullPointerException("other");
+        }
+        if ((width != other.width) || (height != other.height)) {
+            throw new IllegalArgumentException("dimensions of images differ: " + this + " and " + other);
+        }
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof BitonalImage)) {
+            return false;
+        }
+        BitonalImage other = (BitonalImage) obj;
+        if ((width != other.width) || (height != other.height)) {
+            return false;
+        }
+        for (int y = 0; y < height; y++) {
+            for (int i = 0; i < getWordsPerRow(); i++) {
+                if (getWord(y, i) != other.getWord(y, i)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        long hash = height;
+        for (int y = 0; y < height; y++) {
+            hash = 31 * hash + getRowHash(y);
+        }
+        return (int) (hash ^ (hash >>> 32));
+    }
+
+    @Override
+    public String toString() {
+        return "BitonalImage{" + width + "x" + height + "}";
+    }
+}
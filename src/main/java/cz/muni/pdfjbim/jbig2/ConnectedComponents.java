@@ -0,0 +1,144 @@
+/*
+ *  Copyright 2016 Radim Hatlapatka.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package cz.muni.pdfjbim.jbig2;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * finds 8-connected components of black pixels
+ *
+ * @author Radim Hatlapatka (hata.radim@gmail.com)
+ */
+public class ConnectedComponents {
+
+    private ConnectedComponents() {
+    }
+
+    /**
+     * finds connected components of the bitmap in order of their top-most (and then left-most) pixel
+     *
+     * @param bitmap searched bitmap
+     * @return components, each of them contains only its own pixels
+     */
+    public static List<Component> find(BitonalImage bitmap) {
+        if (bitmap == null) {
+            throw new NullPointerException("bitmap");
+        }
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        boolean[] visited = new boolean[width * height];
+        int[] stack = new int[256];
+        int[] pixels = new int[256];
+        List<Component> components = new ArrayList<Component>();
+
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                if (((x & 63) == 0) && (bitmap.getWord(y, x >>> 6) == 0)) {
+                    // whole word is white
+                    x += 63;
+                    continue;
+                }
+                int start = y * width + x;
+                if (visited[start] || (bitmap.getPixel(x, y) == 0)) {
+                    continue;
+                }
+
+                visited[start] = true;
+                stack[0] = start;
+                int stackSize = 1;
+                int count = 0;
+                int minX = x;
+                int maxX = x;
+                int minY = y;
+                int maxY = y;
+                while (stackSize > 0) {
+                    int pixel = stack[--stackSize];
+                    if (count == pixels.length) {
+                        pixels = Arrays.copyOf(pixels, count * 2);
+                    }
+                    pixels[count++] = pixel;
+                    int px = pixel % width;
+                    int py = pixel / width;
+                    minX = Math.min(minX, px);
+                    maxX = Math.max(maxX, px);
+                    minY = Math.min(minY, py);
+                    maxY = Math.max(maxY, py);
+                    for (int ny = py - 1; ny <= py + 1; ny++) {
+                        for (int nx = px - 1; nx <= px + 1; nx++) {
+                            if (bitmap.getPixel(nx, ny) == 0) {
+                                continue;
+                            }
+                            int neighbour = ny * width + nx;
+                            if (!visited[neighbour]) {
+                                visited[neighbour] = true;
+                                if (stackSize == stack.length) {
+                                    stack = Arrays.copyOf(stack, stackSize * 2);
+                                }
+                                stack[stackSize++] = neighbour;
+                            }
+                        }
+                    }
+                }
+
+                BitonalImage componentBitmap = new BitonalImage(maxX - minX + 1, maxY - minY + 1);
+                for (int i = 0; i < count; i++) {
+                    componentBitmap.setPixel(pixels[i] % width - minX, pixels[i] / width - minY, 1);
+                }
+                components.add(new Component(minX, minY, componentBitmap));
+            }
+        }
+        return components;
+    }
+
+    /**
+     * connected component placed on its page
+     */
+    public static class Component {
+
+        private final int x;
+        private final int y;
+        private final BitonalImage bitmap;
+
+        /**
+         * @param x horizontal position of the left edge of the component
+         * @param y vertical position of the top edge of the component
+         * @param bitmap pixels of the component inside its bounding box
+         */
+        public Component(int x, int y, BitonalImage bitmap) {
+            if (bitmap == null) {
+                throw new NullPointerException("bitmap");
+            }
+            this.x = x;
+            this.y = y;
+            this.bitmap = bitmap;
+        }
+
+        public int getX() {
+            return x;
+        }
+
+        public int getY() {
+            return y;
+        }
+
+        public BitonalImage getBitmap() {
+            return bitmap;
+        }
+    }
+}
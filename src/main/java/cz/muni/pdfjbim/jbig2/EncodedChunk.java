@@ -0,0 +1,55 @@
+/*
+ *  Copyright 2016 Radim Hatlapatka.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package cz.muni.pdfjbim.jbig2;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * chunk of pages encoded as JBIG2 streams embeddable into PDF: global data shared by all pages
+ * and data of each page
+ *
+ * @author Radim Hatlapatka (hata.radim@gmail.com)
+ */
+public class EncodedChunk {
+
+    private final byte[] globalData;
+    private final List<byte[]> pagesData;
+
+    /**
+     * @param globalData segments shared by pages (content of JBIG2Globals) or null if there are none
+     * @param pagesData segments of each page in order of pages
+     */
+    public EncodedChunk(byte[] globalData, List<byte[]> pagesData) {
+        if (pagesData == null) {
+            throw new NullPointerException("pagesData");
+        }
+        this.globalData = globalData;
+        this.pagesData = Collections.unmodifiableList(pagesData);
+    }
+
+    /**
+     * @return segments shared by pages or null if there are none
+     */
+    public byte[] getGlobalData() {
+        return globalData;
+    }
+
+    public List<byte[]> getPagesData() {
+        return pagesData;
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ *  Copyright 2016 Radim Hatlapatka.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package cz.muni.pdfjbim.jbig2;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * encodes bitmaps as JBIG2 generic regions using arithmetic coding with template 0, nominal adaptive
+ * pixels and typical prediction (TPGDON)
+ *
+ * @author Radim Hatlapatka (hata.radim@gmail.com)
+ */
+public class GenericRegionEncoder {
+
+    // context of SLTP pseudo-pixel for template 0 (6.2.5.7 of the standard)
+    private static final int SLTP_CONTEXT = 0x9B25;
+    // nominal positions of adaptive pixels A1..A4 of template 0
+    static final byte[] NOMINAL_AT = {3, -1, -3, -1, 2, -2, -2, -2};
+
+    private final MQEncoder encoder = new MQEncoder();
+    private final MQEncoder.Contexts contexts = new MQEncoder.Contexts(1 << 16);
+
+    /**
+     * encodes bitmap as standalone page in the form suitable for PDF stream of JBIG2Decode filter
+     * (page information, immediate generic region and end of page segments)
+     *
+     * @param bitmap bitmap of the page
+     * @return JBIG2 stream of the page without file header
+     */
+    public byte[] encodePage(BitonalImage bitmap) {
+        if (bitmap == null) {
+            throw new NullPointerException("bitmap");
+        }
+        SegmentWriter writer = new SegmentWriter(0);
+        writer.writePageInformation(1, bitmap.getWidth(), bitmap.getHeight(), 0);
+        writer.writeSegment(SegmentWriter.IMMEDIATE_GENERIC_REGION, new int[0], 1, encodeRegion(bitmap, 0, 0));
+        writer.writeEndOfPage(1);
+        return writer.toByteArray();
+    }
+
+    /**
+     * encodes data of immediate generic region segment
+     *
+     * @param bitmap bitmap of the region
+     * @param x horizontal position of the region on the page
+     * @param y vertical position of the region on the page
+     * @return segment data (region information, flags, adaptive pixels and coded bitmap)
+     */
+    public byte[] encodeRegion(BitonalImage bitmap, int x, int y) {
+        if (bitmap == null) {
+            throw new NullPointerException("bitmap");
+        }
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(data)) {
+            SegmentWriter.writeRegionInformation(out, bitmap.getWidth(), bitmap.getHeight(), x, y);
+            // arithmetic coding, template 0, TPGDON on
+            out.writeByte(0x08);
+            out.write(NOMINAL_AT);
+            out.write(encode(bitmap));
+        } catch (IOException ex) {
+            throw new IllegalStateException("writing to memory failed", ex);
+        }
+        return data.toByteArray();
+    }
+
+    /**
+     * encodes bitmap by generic region decoding procedure in reverse (6.2 of the standard)
+     *
+     * @param bitmap bitmap to encode
+     * @return arithmetically coded data terminated by marker
+     */
+    public byte[] encode(BitonalImage bitmap) {
+        if (bitmap == null) {
+            throw new NullPointerException("bitmap");
+        }
+        encoder.reset();
+        contexts.reset();
+        encodeBitmap(encoder, contexts, bitmap, true);
+        return encoder.finish();
+    }
+
+    /**
+     * encodes pixels of bitmap using template 0 with nominal adaptive pixels, encoder isn't finished,
+     * so that more bitmaps can share the same coded data and contexts (as symbols of dictionary do)
+     *
+     * @param encoder arithmetic encoder
+     * @param contexts generic region contexts (65536 of them)
+     * @param bitmap encoded bitmap
+     * @param typicalPrediction true if TPGDON is used
+     */
+    static void encodeBitmap(MQEncoder encoder, MQEncoder.Contexts contexts, BitonalImage bitmap,
+            boolean typicalPrediction) {
+        int width = bitmap.getWidth();
+        boolean ltp = false;
+        for (int y = 0; y < bitmap.getHeight(); y++) {
+            if (typicalPrediction) {
+                // typical row is the same as the previous one (the row above the first one is white)
+                boolean typical = (y == 0) ? bitmap.isRowWhite(0) : bitmap.rowEquals(y, y - 1);
+                encoder.encode(contexts, SLTP_CONTEXT, (typical != ltp) ? 1 : 0);
+                ltp = typical;
+                if (typical) {
+                    continue;
+                }
+            }
+
+            // context is formed by windows sliding over three rows:
+            // row y-2 from x-2 to x+2, row y-1 from x-3 to x+3 and row y from x-4 to x-1
+            int row2 = (bitmap.getPixel(0, y - 2) << 2) | (bitmap.getPixel(1, y - 2) << 1) | bitmap.getPixel(2, y - 2);
+            int row1 = (bitmap.getPixel(0, y - 1) << 3) | (bitmap.getPixel(1, y - 1) << 2)
+                    | (bitmap.getPixel(2, y - 1) << 1) | bitmap.getPixel(3, y - 1);
+            int row0 = 0;
+            for (int x = 0; x < width; x++) {
+                int pixel = bitmap.getPixel(x, y);
+                encoder.encode(contexts, (row2 << 11) | (row1 << 4) | row0, pixel);
+                row2 = ((row2 << 1) & 0x1F) | bitmap.getPixel(x + 3, y - 2);
+                row1 = ((row1 << 1) & 0x7F) | bitmap.getPixel(x + 4, y - 1);
+                row0 = ((row0 << 1) & 0x0F) | pixel;
+            }
+        }
+    }
+}
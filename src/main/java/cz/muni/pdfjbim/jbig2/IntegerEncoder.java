@@ -0,0 +1,130 @@
+/*
+ *  Copyright 2016 Radim Hatlapatka.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package cz.muni.pdfjbim.jbig2;
+
+/**
+ * encodes integers and symbol IDs by arithmetic integer coding procedures (Annex A of JBIG2 standard),
+ * every procedure (IADH, IADW, ...) has its own set of contexts
+ *
+ * @author Radim Hatlapatka (hata.radim@gmail.com)
+ */
+public class IntegerEncoder {
+
+    // ranges of absolute values: lower bound, number of prefix bits, prefix and number of value bits
+    private static final int[][] RANGES = {
+        {0, 1, 0x0, 2},
+        {4, 2, 0x2, 4},
+        {20, 3, 0x6, 6},
+        {84, 4, 0xE, 8},
+        {340, 5, 0x1E, 12},
+        {4436, 5, 0x1F, 32}
+    };
+
+    private final MQEncoder encoder;
+    private int prev;
+
+    /**
+     * @param encoder arithmetic encoder where decisions are written
+     */
+    public IntegerEncoder(MQEncoder encoder) {
+        if (encoder == null) {
+            throw new NullPointerException("encoder");
+        }
+        this.encoder = encoder;
+    }
+
+    /**
+     * @return new set of contexts for one integer coding procedure
+     */
+    public static MQEncoder.Contexts createContexts() {
+        return new MQEncoder.Contexts(512);
+    }
+
+    /**
+     * @return new set of contexts for IAID procedure with given symbol code length
+     */
+    public static MQEncoder.Contexts createIdContexts(int codeLength) {
+        return new MQEncoder.Contexts(1 << (codeLength + 1));
+    }
+
+    /**
+     * encodes integer value
+     *
+     * @param contexts contexts of the coding procedure
+     * @param value encoded value
+     */
+    public void encode(MQEncoder.Contexts contexts, int value) {
+        long magnitude = Math.abs((long) value);
+        int[] range = RANGES[RANGES.length - 1];
+        for (int[] candidate : RANGES) {
+            if (magnitude < nextLowerBound(candidate)) {
+                range = candidate;
+                break;
+            }
+        }
+        encode(contexts, value < 0, range, magnitude - range[0]);
+    }
+
+    /**
+     * encodes out-of-band value (negative zero)
+     *
+     * @param contexts contexts of the coding procedure
+     */
+    public void encodeOOB(MQEncoder.Contexts contexts) {
+        encode(contexts, true, RANGES[0], 0);
+    }
+
+    /**
+     * encodes symbol ID by IAID procedure (A.3)
+     *
+     * @param contexts contexts created for the same code length
+     * @param codeLength number of bits of symbol ID
+     * @param id symbol ID
+     */
+    public void encodeId(MQEncoder.Contexts contexts, int codeLength, int id) {
+        int context = 1;
+        for (int i = codeLength - 1; i >= 0; i--) {
+            int bit = (id >>> i) & 1;
+            encoder.encode(contexts, context, bit);
+            context = (context << 1) | bit;
+        }
+    }
+
+    private static long nextLowerBound(int[] range) {
+        return range[0] + (1L << range[3]);
+    }
+
+    private void encode(MQEncoder.Contexts contexts, boolean negative, int[] range, long offset) {
+        prev = 1;
+        encodeBit(contexts, negative ? 1 : 0);
+        for (int i = range[1] - 1; i >= 0; i--) {
+            encodeBit(contexts, (range[2] >>> i) & 1);
+        }
+        for (int i = range[3] - 1; i >= 0; i--) {
+            encodeBit(contexts, (int) ((offset >>> i) & 1));
+        }
+    }
+
+    private void encodeBit(MQEncoder.Contexts contexts, int bit) {
+        encoder.encode(contexts, prev, bit);
+        if (prev < 256) {
+            prev = (prev << 1) | bit;
+        } else {
+            prev = (((prev << 1) | bit) & 511) | 256;
+        }
+    }
+}
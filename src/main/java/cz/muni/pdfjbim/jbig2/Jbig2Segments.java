@@ -0,0 +1,277 @@
+/*
+ *  Copyright 2016 Radim Hatlapatka.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package cz.muni.pdfjbim.jbig2;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * operations on JBIG2 streams embedded in PDF done on level of segments, so that global dictionaries
+ * can be merged, pruned and checked without decoding and encoding images again.
+ * Segments of each page are associated with page 1 and numbered after global segments as PDF expects.
+ *
+ * @author Radim Hatlapatka (hata.radim@gmail.com)
+ */
+public class Jbig2Segments {
+
+    private Jbig2Segments() {
+    }
+
+    /**
+     * @param segments segments to write
+     * @return segments in sequential organization without file header
+     */
+    public static byte[] write(List<Segment> segments) {
+        if (segments == null) {
+            throw new NullPointerException("segments");
+        }
+        SegmentWriter writer = new SegmentWriter(0);
+        for (Segment segment : segments) {
+            writer.writeSegment(segment);
+        }
+        return writer.toByteArray();
+    }
+
+    /**
+     * assigns consecutive numbers to segments, referred segments are renumbered as well
+     *
+     * @param segments segments in order they are stored
+     * @param firstNumber number of the first segment
+     * @param page page which segments associated with any page are associated with
+     * @param numbers new numbers of already renumbered segments which can be referred (e.g. global segments)
+     * associated with their original numbers, new numbers of given segments are added there
+     * @return renumbered segments
+     * @throws IOException if segment refers to segment which doesn't precede it
+     */
+    public static List<Segment> renumber(List<Segment> segments, int firstNumber, int page,
+            Map<Integer, Integer> numbers) throws IOException {
+        if (segments == null) {
+            throw new NullPointerException("segments");
+        }
+        if (numbers == null) {
+            throw new NullPointerException("numbers");
+        }
+        List<Segment> renumbered = new ArrayList<Segment>(segments.size());
+        int nextNumber = firstNumber;
+        for (Segment segment : segments) {
+            int[] referredSegments = segment.getReferredSegments();
+            for (int i = 0; i < referredSegments.length; i++) {
+                Integer referred = numbers.get(referredSegments[i]);
+                if (referred == null) {
+                    throw new IOException("segment " + segment.getNumber() + " refers to unknown segment "
+                            + referredSegments[i]);
+                }
+                referredSegments[i] = referred;
+            }
+            numbers.put(segment.getNumber(), nextNumber);
+            renumbered.add(segment.renumber(nextNumber++, referredSegments, (segment.getPage() == 0) ? 0 : page));
+        }
+        return renumbered;
+    }
+
+    /**
+     * splits JBIG2 file (e.g. output of jbig2enc without -p) into global segments and segments of each page
+     *
+     * @param file content of JBIG2 file
+     * @return global segments (segments not associated with any page) and segments of pages in order of pages
+     * @throws IOException if file can't be parsed or segments refer to segments of other pages
+     */
+    public static EncodedChunk split(byte[] file) throws IOException {
+        List<Segment> globals = new ArrayList<Segment>();
+        Map<Integer, List<Segment>> pages = new TreeMap<Integer, List<Segment>>();
+        for (Segment segment : SegmentReader.readFile(file)) {
+            if (segment.getType() == SegmentWriter.END_OF_FILE) {
+                continue;
+            }
+            if (segment.getPage() == 0) {
+                globals.add(segment);
+                continue;
+            }
+            List<Segment> page = pages.get(segment.getPage());
+            if (page == null) {
+                page = new ArrayList<Segment>();
+                pages.put(segment.getPage(), page);
+            }
+            page.add(segment);
+        }
+
+        Map<Integer, Integer> globalNumbers = new HashMap<Integer, Integer>();
+        globals = renumber(globals, 0, 0, globalNumbers);
+        List<byte[]> pagesData = new ArrayList<byte[]>(pages.size());
+        for (List<Segment> page : pages.values()) {
+            pagesData.add(write(renumber(page, globals.size(), 1, new HashMap<Integer, Integer>(globalNumbers))));
+        }
+        return new EncodedChunk(globals.isEmpty() ? null : write(globals), pagesData);
+    }
+
+    /**
+     * merges chunks into one, so that all pages share single JBIG2Globals
+     *
+     * @param chunks encoded chunks
+     * @return chunk whose global segments are global segments of all chunks (in order of chunks)
+     * and whose pages are pages of all chunks referring to renumbered global segments
+     * @throws IOException if any chunk can't be parsed
+     */
+    public static EncodedChunk merge(List<EncodedChunk> chunks) throws IOException {
+        if (chunks == null) {
+            throw new NullPointerException("chunks");
+        }
+        List<Segment> globals = new ArrayList<Segment>();
+        List<Map<Integer, Integer>> globalNumbers = new ArrayList<Map<Integer, Integer>>(chunks.size());
+        for (EncodedChunk chunk : chunks) {
+            Map<Integer, Integer> numbers = new HashMap<Integer, Integer>();
+            if (chunk.getGlobalData() != null) {
+                globals.addAll(renumber(SegmentReader.readSegments(chunk.getGlobalData()), globals.size(), 0,
+                        numbers));
+            }
+            globalNumbers.add(numbers);
+        }
+        List<byte[]> pagesData = new ArrayList<byte[]>();
+        for (int i = 0; i < chunks.size(); i++) {
+            for (byte[] pageData : chunks.get(i).getPagesData()) {
+                pagesData.add(write(renumber(SegmentReader.readSegments(pageData), globals.size(), 1,
+                        new HashMap<Integer, Integer>(globalNumbers.get(i)))));
+            }
+        }
+        return new EncodedChunk(globals.isEmpty() ? null : write(globals), pagesData);
+    }
+
+    /**
+     * removes global segments which aren't (even indirectly) referred by any page
+     *
+     * @param chunk encoded chunk
+     * @return chunk without unused global segments, the same chunk if all global segments are used
+     * @throws IOException if chunk can't be parsed
+     */
+    public static EncodedChunk prune(EncodedChunk chunk) throws IOException {
+        if (chunk == null) {
+            throw new NullPointerException("chunk");
+        }
+        if (chunk.getGlobalData() == null) {
+            return chunk;
+        }
+        List<Segment> globals = SegmentReader.readSegments(chunk.getGlobalData());
+        Map<Integer, Segment> globalsByNumber = new HashMap<Integer, Segment>();
+        for (Segment segment : globals) {
+            globalsByNumber.put(segment.getNumber(), segment);
+        }
+        List<List<Segment>> pages = new ArrayList<List<Segment>>(chunk.getPagesData().size());
+        Deque<Integer> toVisit = new ArrayDeque<Integer>();
+        for (byte[] pageData : chunk.getPagesData()) {
+            List<Segment> page = SegmentReader.readSegments(pageData);
+            pages.add(page);
+            for (Segment segment : page) {
+                for (int referred : segment.getReferredSegments()) {
+                    toVisit.push(referred);
+                }
+            }
+        }
+        // dictionaries can refer to other dictionaries and tables
+        Set<Integer> used = new HashSet<Integer>();
+        while (!toVisit.isEmpty()) {
+            Integer number = toVisit.pop();
+            Segment segment = globalsByNumber.get(number);
+            if ((segment != null) && used.add(number)) {
+                for (int referred : segment.getReferredSegments()) {
+                    toVisit.push(referred);
+                }
+            }
+        }
+        if (used.size() == globals.size()) {
+            return chunk;
+        }
+
+        List<Segment> usedGlobals = new ArrayList<Segment>(used.size());
+        for (Segment segment : globals) {
+            if (used.contains(segment.getNumber())) {
+                usedGlobals.add(segment);
+            }
+        }
+        Map<Integer, Integer> globalNumbers = new HashMap<Integer, Integer>();
+        usedGlobals = renumber(usedGlobals, 0, 0, globalNumbers);
+        List<byte[]> pagesData = new ArrayList<byte[]>(pages.size());
+        for (List<Segment> page : pages) {
+            pagesData.add(write(renumber(page, usedGlobals.size(), 1,
+                    new HashMap<Integer, Integer>(globalNumbers))));
+        }
+        return new EncodedChunk(usedGlobals.isEmpty() ? null : write(usedGlobals), pagesData);
+    }
+
+    /**
+     * checks structure of JBIG2 stream before it is embedded into PDF: segments can be parsed, global segments
+     * aren't associated with any page, page has single page information segment preceding other segments
+     * of the page, segment numbers are unique and segments refer only to segments preceding them
+     *
+     * @param globalData global segments or null if there are none
+     * @param pageData segments of page
+     * @throws IOException describing the first problem found
+     */
+    public static void validate(byte[] globalData, byte[] pageData) throws IOException {
+        if (pageData == null) {
+            throw new NullPointerException("pageData");
+        }
+        Set<Integer> known = new HashSet<Integer>();
+        if (globalData != null) {
+            for (Segment segment : SegmentReader.readSegments(globalData)) {
+                if (segment.getPage() != 0) {
+                    throw new IOException("global " + segment + " is associated with page");
+                }
+                checkSegment(segment, known);
+            }
+        }
+        int pageInformations = 0;
+        for (Segment segment : SegmentReader.readSegments(pageData)) {
+            checkSegment(segment, known);
+            if (segment.getType() == SegmentWriter.END_OF_FILE) {
+                throw new IOException("end of file can't be embedded into PDF");
+            }
+            if (segment.getPage() == 0) {
+                continue;
+            }
+            if (segment.getPage() != 1) {
+                throw new IOException(segment + " isn't associated with page 1");
+            }
+            if (segment.getType() == SegmentWriter.PAGE_INFORMATION) {
+                pageInformations++;
+            } else if (pageInformations == 0) {
+                throw new IOException(segment + " precedes page information");
+            }
+        }
+        if (pageInformations != 1) {
+            throw new IOException("page contains " + pageInformations + " page information segments");
+        }
+    }
+
+    private static void checkSegment(Segment segment, Set<Integer> known) throws IOException {
+        for (int referred : segment.getReferredSegments()) {
+            if (!known.contains(referred)) {
+                throw new IOException(segment + " refers to segment " + referred + " which doesn't precede it");
+            }
+        }
+        if (!known.add(segment.getNumber())) {
+            throw new IOException("segment number " + segment.getNumber() + " is used more times");
+        }
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ *  Copyright 2016 Radim Hatlapatka.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package cz.muni.pdfjbim.jbig2;
+
+import java.util.Arrays;
+
+/**
+ * MQ arithmetic encoder as defined in Annex E of JBIG2 standard (ITU T.88)
+ *
+ * @author Radim Hatlapatka (hata.radim@gmail.com)
+ */
+public class MQEncoder {
+
+    private static final int[] QE = {
+        0x5601, 0x3401, 0x1801, 0x0AC1, 0x0521, 0x0221, 0x5601, 0x5401, 0x4801, 0x3801,
+        0x3001, 0x2401, 0x1C01, 0x1601, 0x5601, 0x5401, 0x5101, 0x4801, 0x3801, 0x3401,
+        0x3001, 0x2801, 0x2401, 0x2201, 0x1C01, 0x1801, 0x1601, 0x1401, 0x1201, 0x1101,
+        0x0AC1, 0x09C1, 0x08A1, 0x0521, 0x0441, 0x02A1, 0x0221, 0x0141, 0x0111, 0x0085,
+        0x0049, 0x0025, 0x0015, 0x0009, 0x0005, 0x0001, 0x5601
+    };
+    private static final int[] NMPS = {
+        1, 2, 3, 4, 5, 38, 7, 8, 9, 10, 11, 12, 13, 29, 15, 16, 17, 18, 19, 20, 21, 22, 23, 24,
+        25, 26, 27, 28, 29, 30, 31, 32, 33, 34, 35, 36, 37, 38, 39, 40, 41, 42, 43, 44, 45, 45, 46
+    };
+    private static final int[] NLPS = {
+        1, 6, 9, 12, 29, 33, 6, 14, 14, 14, 17, 18, 20, 21, 14, 14, 15, 16, 17, 18, 19, 19, 20, 21,
+        22, 23, 24, 25, 26, 27, 28, 29, 30, 31, 32, 33, 34, 35, 36, 37, 38, 39, 40, 41, 42, 43, 46
+    };
+    private static final boolean[] SWITCH = {
+        true, false, false, false, false, false, true, false, false, false, false, false, false, false,
+        true, false, false, false, false, false, false, false, false, false, false, false, false, false,
+        false, false, false, false, false, false, false, false, false, false, false, false, false, false,
+        false, false, false, false, false
+    };
+
+    private int a;
+    private int c;
+    private int ct;
+    // buffer[0] is the byte preceding coded data defined by standard, it is never written out
+    private byte[] buffer = new byte[4096];
+    private int bp;
+
+    /**
+     * adaptive probability estimates of set of contexts, each coding procedure has its own set
+     */
+    public static class Contexts {
+
+        private final byte[] index;
+        private final byte[] mps;
+
+        /**
+         * @param size number of contexts
+         */
+        public Contexts(int size) {
+            index = new byte[size];
+            mps = new byte[size];
+        }
+
+        /**
+         * resets all contexts to their initial state
+         */
+        public void reset() {
+            Arrays.fill(index, (byte) 0);
+            Arrays.fill(mps, (byte) 0);
+        }
+    }
+
+    public MQEncoder() {
+        reset();
+    }
+
+    /**
+     * starts new coded data (INITENC procedure), contexts are not affected
+     */
+    public final void reset() {
+        a = 0x8000;
+        c = 0;
+        ct = 12;
+        bp = 0;
+        buffer[0] = 0;
+    }
+
+    /**
+     * encodes one binary decision (ENCODE procedure)
+     *
+     * @param contexts set of contexts
+     * @param cx context of the decision
+     * @param d value of the decision (0 or 1)
+     */
+    public void encode(Contexts contexts, int cx, int d) {
+        int i = contexts.index[cx];
+        int qe = QE[i];
+        a -= qe;
+        if (d == contexts.mps[cx]) {
+            // CODEMPS
+            if ((a & 0x8000) != 0) {
+                c += qe;
+                return;
+            }
+            if (a < qe) {
+                a = qe;
+            } else {
+                c += qe;
+            }
+            contexts.index[cx] = (byte) NMPS[i];
+        } else {
+            // CODELPS
+            if (a < qe) {
+                c += qe;
+            } else {
+                a = qe;
+            }
+            if (SWITCH[i]) {
+                contexts.mps[cx] = (byte) (1 - contexts.mps[cx]);
+            }
+            contexts.index[cx] = (byte) NLPS[i];
+        }
+        renormalize();
+    }
+
+    /**
+     * terminates coded data (FLUSH procedure) including the 0xFFAC marker
+     *
+     * @return coded data
+     */
+    public byte[] finish() {
+        int tempC = c + a;
+        c |= 0xFFFF;
+        if (c >= tempC) {
+            c -= 0x8000;
+        }
+        c <<= ct;
+        byteOut();
+        c <<= ct;
+        byteOut();
+        if ((buffer[bp] & 0xFF) != 0xFF) {
+            put((byte) 0xFF);
+        }
+        put((byte) 0xAC);
+        return Arrays.copyOfRange(buffer, 1, bp + 1);
+    }
+
+    private void renormalize() {
+        do {
+            a <<= 1;
+            c <<= 1;
+            ct--;
+            if (ct == 0) {
+                byteOut();
+            }
+        } while ((a & 0x8000) == 0);
+    }
+
+    private void byteOut() {
+        if ((buffer[bp] & 0xFF) == 0xFF) {
+            put((byte) (c >>> 20));
+            c &= 0xFFFFF;
+            ct = 7;
+        } else if (c < 0x8000000) {
+            put((byte) (c >>> 19));
+            c &= 0x7FFFF;
+            ct = 8;
+        } else {
+            // carry is propagated to the last byte
+            buffer[bp]++;
+            if ((buffer[bp] & 0xFF) == 0xFF) {
+                c &= 0x7FFFFFF;
+                put((byte) (c >>> 20));
+                c &= 0xFFFFF;
+                ct = 7;
+            } else {
+                put((byte) (c >>> 19));
+                c &= 0x7FFFF;
+                ct = 8;
+            }
+        }
+    }
+
+    private void put(byte b) {
+        bp++;
+        if (bp == buffer.length) {
+            buffer = Arrays.copyOf(buffer, buffer.length * 2);
+        }
+        buffer[bp] = b;
+    }
+}
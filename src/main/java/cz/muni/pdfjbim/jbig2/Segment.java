@@ -0,0 +1,119 @@
+/*
+ *  Copyright 2016 Radim Hatlapatka.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package cz.muni.pdfjbim.jbig2;
+
+import java.util.Arrays;
+
+/**
+ * JBIG2 segment given by fields of its header (7.2 of the standard) and its data,
+ * data are kept as they are, so segments can be renumbered and moved between streams without decoding them.
+ * Retention flags aren't kept as they matter only for memory management of sequential decoders.
+ *
+ * @author Radim Hatlapatka (hata.radim@gmail.com)
+ */
+public class Segment {
+
+    private final int number;
+    private final int type;
+    private final boolean deferredNonRetain;
+    private final int[] referredSegments;
+    private final int page;
+    private final byte[] data;
+
+    /**
+     * @param number number of the segment
+     * @param type type of the segment (e.g. SegmentWriter.SYMBOL_DICTIONARY)
+     * @param referredSegments numbers of segments referred by this segment
+     * @param page page the segment is associated with, 0 if it isn't associated with any page
+     * @param data segment data (not copied)
+     */
+    public Segment(int number, int type, int[] referredSegments, int page, byte[] data) {
+        this(number, type, false, referredSegments, page, data);
+    }
+
+    /**
+     * @param number number of the segment
+     * @param type type of the segment (e.g. SegmentWriter.SYMBOL_DICTIONARY)
+     * @param deferredNonRetain deferred non-retain flag of the segment header
+     * @param referredSegments numbers of segments referred by this segment
+     * @param page page the segment is associated with, 0 if it isn't associated with any page
+     * @param data segment data (not copied)
+     */
+    public Segment(int number, int type, boolean deferredNonRetain, int[] referredSegments, int page, byte[] data) {
+        if (referredSegments == null) {
+            throw new NullPointerException("referredSegments");
+        }
+        if (data == null) {
+            throw new NullPointerException("data");
+        }
+        if ((number < 0) || (type < 0) || (type > 63) || (page < 0)) {
+            throw new IllegalArgumentException("segment " + number + " of type " + type + " on page " + page);
+        }
+        this.number = number;
+        this.type = type;
+        this.deferredNonRetain = deferredNonRetain;
+        this.referredSegments = referredSegments.clone();
+        this.page = page;
+        this.data = data;
+    }
+
+    public int getNumber() {
+        return number;
+    }
+
+    public int getType() {
+        return type;
+    }
+
+    public boolean isDeferredNonRetain() {
+        return deferredNonRetain;
+    }
+
+    /**
+     * @return numbers of segments referred by this segment
+     */
+    public int[] getReferredSegments() {
+        return referredSegments.clone();
+    }
+
+    /**
+     * @return page the segment is associated with, 0 if it isn't associated with any page
+     */
+    public int getPage() {
+        return page;
+    }
+
+    /**
+     * @return segment data (not copied)
+     */
+    public byte[] getData() {
+        return data;
+    }
+
+    /**
+     * @return copy of this segment with the same type and data
+     */
+    public Segment renumber(int number, int[] referredSegments, int page) {
+        return new Segment(number, type, deferredNonRetain, referredSegments, page, data);
+    }
+
+    @Override
+    public String toString() {
+        return "Segment{number=" + number + ", type=" + type + ", page=" + page
+                + ", referredSegments=" + Arrays.toString(referredSegments) + ", length=" + data.length + "}";
+    }
+}
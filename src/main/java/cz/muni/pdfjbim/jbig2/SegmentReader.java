@@ -0,0 +1,202 @@
+/*
+ *  Copyright 2016 Radim Hatlapatka.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package cz.muni.pdfjbim.jbig2;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * reads JBIG2 segments either in the form embedded in PDF (sequential organization without file header)
+ * or from JBIG2 file (Annex D of the standard) as written by jbig2enc without -p
+ *
+ * @author Radim Hatlapatka (hata.radim@gmail.com)
+ */
+public class SegmentReader {
+
+    /**
+     * ID string starting JBIG2 file
+     */
+    public static final byte[] FILE_ID = {(byte) 0x97, 0x4A, 0x42, 0x32, 0x0D, 0x0A, 0x1A, 0x0A};
+
+    private static final long UNKNOWN_DATA_LENGTH = 0xFFFFFFFFL;
+
+    private SegmentReader() {
+    }
+
+    /**
+     * reads segments in the form embedded in PDF (e.g. content of image stream or of JBIG2Globals)
+     *
+     * @param data segments in sequential organization
+     * @return segments in order they are stored
+     * @throws IOException if data don't contain valid segment headers
+     */
+    public static List<Segment> readSegments(byte[] data) throws IOException {
+        if (data == null) {
+            throw new NullPointerException("data");
+        }
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        List<Segment> segments = new ArrayList<Segment>();
+        try {
+            while (in.available() > 0) {
+                SegmentHeader header = readHeader(in);
+                segments.add(header.toSegment(readData(in, header)));
+            }
+        } catch (EOFException ex) {
+            throw new IOException("JBIG2 data are truncated after " + segments.size() + " segments", ex);
+        }
+        return segments;
+    }
+
+    /**
+     * @return true if data start with ID string of JBIG2 file
+     */
+    public static boolean isFile(byte[] data) {
+        if (data == null) {
+            throw new NullPointerException("data");
+        }
+        return (data.length >= FILE_ID.length) && Arrays.equals(FILE_ID, Arrays.copyOf(data, FILE_ID.length));
+    }
+
+    /**
+     * reads segments of JBIG2 file in sequential or random-access organization
+     *
+     * @param data content of JBIG2 file
+     * @return segments in order of their headers
+     * @throws IOException if data aren't valid JBIG2 file
+     */
+    public static List<Segment> readFile(byte[] data) throws IOException {
+        if (!isFile(data)) {
+            throw new IOException("JBIG2 file header is missing");
+        }
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data, FILE_ID.length,
+                data.length - FILE_ID.length));
+        List<Segment> segments = new ArrayList<Segment>();
+        try {
+            int flags = in.readUnsignedByte();
+            if ((flags & 0x02) == 0) {
+                // number of pages is known
+                in.readInt();
+            }
+            if ((flags & 0x01) != 0) {
+                // sequential organization => data follow each header
+                while (in.available() > 0) {
+                    SegmentHeader header = readHeader(in);
+                    segments.add(header.toSegment(readData(in, header)));
+                }
+                return segments;
+            }
+            // random-access organization => all headers are followed by data of all segments
+            List<SegmentHeader> headers = new ArrayList<SegmentHeader>();
+            while (in.available() > 0) {
+                SegmentHeader header = readHeader(in);
+                headers.add(header);
+                if (header.type == SegmentWriter.END_OF_FILE) {
+                    break;
+                }
+            }
+            for (SegmentHeader header : headers) {
+                segments.add(header.toSegment(readData(in, header)));
+            }
+        } catch (EOFException ex) {
+            throw new IOException("JBIG2 file is truncated after " + segments.size() + " segments", ex);
+        }
+        return segments;
+    }
+
+    private static SegmentHeader readHeader(DataInputStream in) throws IOException {
+        SegmentHeader header = new SegmentHeader();
+        header.number = in.readInt() & 0xFFFFFFFFL;
+        if (header.number > Integer.MAX_VALUE) {
+            throw new IOException("segment number " + header.number + " is not supported");
+        }
+        int flags = in.readUnsignedByte();
+        header.deferredNonRetain = (flags & 0x80) != 0;
+        boolean longPageAssociation = (flags & 0x40) != 0;
+        header.type = flags & 0x3F;
+
+        int countAndRetention = in.readUnsignedByte();
+        int count = countAndRetention >> 5;
+        if (count == 7) {
+            // long form: count is in 29 bits, retention flags of the segment and referred segments follow
+            count = ((countAndRetention & 0x1F) << 24) | (in.readUnsignedByte() << 16) | in.readUnsignedShort();
+            if (count > in.available()) {
+                throw new IOException("segment " + header.number + " refers to " + count + " segments");
+            }
+            in.readFully(new byte[(count + 8) / 8]);
+        } else if (count > 4) {
+            throw new IOException("invalid count of referred segments of segment " + header.number);
+        }
+        header.referredSegments = new int[count];
+        for (int i = 0; i < count; i++) {
+            // size of referred segment number depends on number of this segment
+            long referred;
+            if (header.number <= 256) {
+                referred = in.readUnsignedByte();
+            } else if (header.number <= 65536) {
+                referred = in.readUnsignedShort();
+            } else {
+                referred = in.readInt() & 0xFFFFFFFFL;
+            }
+            if (referred > Integer.MAX_VALUE) {
+                throw new IOException("segment " + header.number + " refers to segment " + referred);
+            }
+            header.referredSegments[i] = (int) referred;
+        }
+        long page = longPageAssociation ? (in.readInt() & 0xFFFFFFFFL) : in.readUnsignedByte();
+        if (page > Integer.MAX_VALUE) {
+            throw new IOException("page " + page + " of segment " + header.number + " is not supported");
+        }
+        header.page = (int) page;
+        header.dataLength = in.readInt() & 0xFFFFFFFFL;
+        if (header.dataLength == UNKNOWN_DATA_LENGTH) {
+            // allowed only for immediate generic region, its end would have to be found by decoding it
+            throw new IOException("segment " + header.number + " of unknown length is not supported");
+        }
+        return header;
+    }
+
+    private static byte[] readData(DataInputStream in, SegmentHeader header) throws IOException {
+        if (header.dataLength > in.available()) {
+            throw new EOFException("data of segment " + header.number + " are truncated");
+        }
+        byte[] data = new byte[(int) header.dataLength];
+        in.readFully(data);
+        return data;
+    }
+
+    /**
+     * fields of segment header whose data weren't read yet
+     */
+    private static class SegmentHeader {
+
+        private long number;
+        private int type;
+        private boolean deferredNonRetain;
+        private int[] referredSegments;
+        private int page;
+        private long dataLength;
+
+        private Segment toSegment(byte[] data) {
+            return new Segment((int) number, type, deferredNonRetain, referredSegments, page, data);
+        }
+    }
+}
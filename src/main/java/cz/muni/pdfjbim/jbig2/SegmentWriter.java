@@ -0,0 +1,183 @@
+/*
+ *  Copyright 2016 Radim Hatlapatka.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package cz.muni.pdfjbim.jbig2;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * writes JBIG2 segments in sequential organization without file header, i.e. in the form embedded in PDF
+ *
+ * @author Radim Hatlapatka (hata.radim@gmail.com)
+ */
+public class SegmentWriter {
+
+    public static final int SYMBOL_DICTIONARY = 0;
+    public static final int IMMEDIATE_TEXT_REGION = 6;
+    public static final int IMMEDIATE_GENERIC_REGION = 38;
+    public static final int PAGE_INFORMATION = 48;
+    public static final int END_OF_PAGE = 49;
+    public static final int END_OF_STRIPE = 50;
+    public static final int END_OF_FILE = 51;
+
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    private final DataOutputStream out = new DataOutputStream(buffer);
+    private int nextSegmentNumber;
+
+    /**
+     * @param firstSegmentNumber number of the first written segment
+     */
+    public SegmentWriter(int firstSegmentNumber) {
+        if (firstSegmentNumber < 0) {
+            throw new IllegalArgumentException("firstSegmentNumber");
+        }
+        this.nextSegmentNumber = firstSegmentNumber;
+    }
+
+    /**
+     * @return number which will be assigned to the next written segment
+     */
+    public int getNextSegmentNumber() {
+        return nextSegmentNumber;
+    }
+
+    /**
+     * writes segment header followed by segment data
+     *
+     * @param type type of the segment
+     * @param referredSegments numbers of segments referred by this segment
+     * @param page page the segment is associated with, 0 if it isn't associated with any page
+     * @param data segment data
+     * @return number of written segment
+     */
+    public int writeSegment(int type, int[] referredSegments, int page, byte[] data) {
+        if (referredSegments == null) {
+            throw new NullPointerException("referredSegments");
+        }
+        if (data == null) {
+            throw new NullPointerException("data");
+        }
+        if (referredSegments.length > 4) {
+            throw new IllegalArgumentException("too many referred segments");
+        }
+        return writeSegment(new Segment(nextSegmentNumber, type, referredSegments, page, data));
+    }
+
+    /**
+     * writes segment keeping its number, the next segment written by other methods gets the following number
+     *
+     * @param segment segment to write
+     * @return number of written segment
+     */
+    public int writeSegment(Segment segment) {
+        if (segment == null) {
+            throw new NullPointerException("segment");
+        }
+        int number = segment.getNumber();
+        int[] referredSegments = segment.getReferredSegments();
+        int page = segment.getPage();
+        try {
+            out.writeInt(number);
+            boolean longPageAssociation = page > 0xFF;
+            out.writeByte((segment.isDeferredNonRetain() ? 0x80 : 0) | (longPageAssociation ? 0x40 : 0)
+                    | segment.getType());
+            if (referredSegments.length <= 4) {
+                out.writeByte(referredSegments.length << 5);
+            } else {
+                // long form is followed by retention flags of the segment and all referred segments
+                out.writeInt(0xE0000000 | referredSegments.length);
+                out.write(new byte[(referredSegments.length + 8) / 8]);
+            }
+            for (int referred : referredSegments) {
+                // size of referred segment number depends on number of this segment
+                if (number <= 256) {
+                    out.writeByte(referred);
+                } else if (number <= 65536) {
+                    out.writeShort(referred);
+                } else {
+                    out.writeInt(referred);
+                }
+            }
+            if (longPageAssociation) {
+                out.writeInt(page);
+            } else {
+                out.writeByte(page);
+            }
+            out.writeInt(segment.getData().length);
+            out.write(segment.getData());
+        } catch (IOException ex) {
+            throw new IllegalStateException("writing to memory failed", ex);
+        }
+        nextSegmentNumber = Math.max(nextSegmentNumber, number + 1);
+        return number;
+    }
+
+    /**
+     * writes page information segment of page without striping
+     *
+     * @param page number of the page
+     * @param width width of the page in pixels
+     * @param height height of the page in pixels
+     * @param resolution resolution of the page in pixels per meter or 0 if it is unknown
+     * @return number of written segment
+     */
+    public int writePageInformation(int page, int width, int height, int resolution) {
+        ByteArrayOutputStream data = new ByteArrayOutputStream(19);
+        try (DataOutputStream dataOut = new DataOutputStream(data)) {
+            dataOut.writeInt(width);
+            dataOut.writeInt(height);
+            dataOut.writeInt(resolution);
+            dataOut.writeInt(resolution);
+            // page is eventually lossless, default pixel is white and regions are combined by OR
+            dataOut.writeByte(0x01);
+            dataOut.writeShort(0);
+        } catch (IOException ex) {
+            throw new IllegalStateException("writing to memory failed", ex);
+        }
+        return writeSegment(PAGE_INFORMATION, new int[0], page, data.toByteArray());
+    }
+
+    /**
+     * writes end of page segment
+     *
+     * @param page number of the page
+     * @return number of written segment
+     */
+    public int writeEndOfPage(int page) {
+        return writeSegment(END_OF_PAGE, new int[0], page, new byte[0]);
+    }
+
+    /**
+     * @return all written segments
+     */
+    public byte[] toByteArray() {
+        return buffer.toByteArray();
+    }
+
+    /**
+     * writes region segment information field (7.4.1 of the standard) with OR combination operator
+     */
+    static void writeRegionInformation(DataOutputStream out, int width, int height, int x, int y)
+            throws IOException {
+        out.writeInt(width);
+        out.writeInt(height);
+        out.writeInt(x);
+        out.writeInt(y);
+        out.writeByte(0);
+    }
+}
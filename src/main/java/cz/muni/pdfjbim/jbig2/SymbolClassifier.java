@@ -0,0 +1,195 @@
+/*
+ *  Copyright 2016 Radim Hatlapatka.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package cz.muni.pdfjbim.jbig2;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * classifies bitmaps of connected components into classes of similar symbols, two bitmaps of the same
+ * dimensions are similar if their correlation score reaches the threshold (as in classifier of jbig2enc)
+ *
+ * @author Radim Hatlapatka (hata.radim@gmail.com)
+ */
+public class SymbolClassifier {
+
+    private final double threshold;
+
+    /**
+     * @param threshold minimal correlation score (0-1) of bitmaps of the same class,
+     * 1 means that only identical bitmaps share their class
+     */
+    public SymbolClassifier(double threshold) {
+        if ((threshold <= 0) || (threshold > 1)) {
+            throw new IllegalArgumentException("threshold " + threshold);
+        }
+        this.threshold = threshold;
+    }
+
+    public double getThreshold() {
+        return threshold;
+    }
+
+    /**
+     * classifies bitmaps, bitmaps of different dimensions never share their class, so that
+     * groups of the same dimensions are classified independently
+     *
+     * @param bitmaps classified bitmaps
+     * @param executor executor classifying groups at the same time or null if they should be classified
+     * by the calling thread
+     * @return classification of bitmaps, it is the same regardless of executor
+     * @throws InterruptedException if thread was interrupted while waiting for executor
+     */
+    public Classification classify(final List<BitonalImage> bitmaps, ExecutorService executor)
+            throws InterruptedException {
+        if (bitmaps == null) {
+            throw new NullPointerException("bitmaps");
+        }
+        Map<Long, List<Integer>> groups = new LinkedHashMap<Long, List<Integer>>();
+        for (int i = 0; i < bitmaps.size(); i++) {
+            BitonalImage bitmap = bitmaps.get(i);
+            Long dimensions = ((long) bitmap.getWidth() << 32) | bitmap.getHeight();
+            List<Integer> group = groups.get(dimensions);
+            if (group == null) {
+                group = new ArrayList<Integer>();
+                groups.put(dimensions, group);
+            }
+            group.add(i);
+        }
+
+        List<int[]> groupClasses = new ArrayList<int[]>(groups.size());
+        if (executor == null) {
+            for (List<Integer> group : groups.values()) {
+                groupClasses.add(classifyGroup(bitmaps, group));
+            }
+        } else {
+            List<Callable<int[]>> tasks = new ArrayList<Callable<int[]>>(groups.size());
+            for (final List<Integer> group : groups.values()) {
+                tasks.add(new Callable<int[]>() {
+                    @Override
+                    public int[] call() {
+                        return classifyGroup(bitmaps, group);
+                    }
+                });
+            }
+            try {
+                for (Future<int[]> future : executor.invokeAll(tasks)) {
+                    groupClasses.add(future.get());
+                }
+            } catch (ExecutionException ex) {
+                throw new IllegalStateException("classification of symbols failed", ex.getCause());
+            }
+        }
+
+        // classes are numbered in order of groups, the first bitmap of class is its representative
+        List<BitonalImage> representatives = new ArrayList<BitonalImage>();
+        int[] classes = new int[bitmaps.size()];
+        int groupIndex = 0;
+        for (List<Integer> group : groups.values()) {
+            int[] representativeInGroup = groupClasses.get(groupIndex++);
+            for (int i = 0; i < group.size(); i++) {
+                int bitmapIndex = group.get(i);
+                if (representativeInGroup[i] == i) {
+                    classes[bitmapIndex] = representatives.size();
+                    representatives.add(bitmaps.get(bitmapIndex));
+                } else {
+                    classes[bitmapIndex] = classes[group.get(representativeInGroup[i])];
+                }
+            }
+        }
+        return new Classification(representatives, classes);
+    }
+
+    /**
+     * @return index (in the group) of representative of each bitmap of the group
+     */
+    private int[] classifyGroup(List<BitonalImage> bitmaps, List<Integer> group) {
+        int[] representativeInGroup = new int[group.size()];
+        int[] blackPixels = new int[group.size()];
+        List<Integer> representatives = new ArrayList<Integer>();
+        for (int i = 0; i < group.size(); i++) {
+            BitonalImage bitmap = bitmaps.get(group.get(i));
+            blackPixels[i] = bitmap.countBlackPixels();
+            representativeInGroup[i] = i;
+            for (int representative : representatives) {
+                if (matches(bitmap, blackPixels[i], bitmaps.get(group.get(representative)),
+                        blackPixels[representative])) {
+                    representativeInGroup[i] = representative;
+                    break;
+                }
+            }
+            if (representativeInGroup[i] == i) {
+                representatives.add(i);
+            }
+        }
+        return representativeInGroup;
+    }
+
+    private boolean matches(BitonalImage bitmap, int blackPixels, BitonalImage representative,
+            int representativeBlackPixels) {
+        if ((blackPixels == representativeBlackPixels) && bitmap.equals(representative)) {
+            return true;
+        }
+        if ((threshold >= 1) || (blackPixels == 0) || (representativeBlackPixels == 0)) {
+            return false;
+        }
+        // common pixels can't exceed the smaller count => score can't exceed ratio of counts
+        double min = Math.min(blackPixels, representativeBlackPixels);
+        double max = Math.max(blackPixels, representativeBlackPixels);
+        if (min / max < threshold) {
+            return false;
+        }
+        double common = bitmap.countCommonBlackPixels(representative);
+        return common * common / ((double) blackPixels * representativeBlackPixels) >= threshold;
+    }
+
+    /**
+     * result of classification
+     */
+    public static class Classification {
+
+        private final List<BitonalImage> representatives;
+        private final int[] classes;
+
+        Classification(List<BitonalImage> representatives, int[] classes) {
+            this.representatives = Collections.unmodifiableList(representatives);
+            this.classes = classes;
+        }
+
+        /**
+         * @return representative bitmap of each class
+         */
+        public List<BitonalImage> getRepresentatives() {
+            return representatives;
+        }
+
+        /**
+         * @param bitmapIndex index of classified bitmap
+         * @return class of the bitmap
+         */
+        public int getClassOf(int bitmapIndex) {
+            return classes[bitmapIndex];
+        }
+    }
+}
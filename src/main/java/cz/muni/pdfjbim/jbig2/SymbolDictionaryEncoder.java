@@ -0,0 +1,88 @@
+/*
+ *  Copyright 2016 Radim Hatlapatka.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package cz.muni.pdfjbim.jbig2;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * encodes symbol dictionary segments with arithmetic coding, symbols are coded directly
+ * as generic bitmaps (template 0) without refinement and all of them are exported
+ *
+ * @author Radim Hatlapatka (hata.radim@gmail.com)
+ */
+public class SymbolDictionaryEncoder {
+
+    private SymbolDictionaryEncoder() {
+    }
+
+    /**
+     * encodes data of symbol dictionary segment
+     *
+     * @param symbols symbols in order of their IDs, height of symbols mustn't decrease
+     * (symbols of the same height form height class)
+     * @return segment data (flags, adaptive pixels, number of symbols and coded symbols)
+     */
+    public static byte[] encode(List<BitonalImage> symbols) {
+        if (symbols == null) {
+            throw new NullPointerException("symbols");
+        }
+        MQEncoder encoder = new MQEncoder();
+        IntegerEncoder integers = new IntegerEncoder(encoder);
+        MQEncoder.Contexts iadh = IntegerEncoder.createContexts();
+        MQEncoder.Contexts iadw = IntegerEncoder.createContexts();
+        MQEncoder.Contexts iaex = IntegerEncoder.createContexts();
+        MQEncoder.Contexts generic = new MQEncoder.Contexts(1 << 16);
+
+        int heightClass = 0;
+        int i = 0;
+        while (i < symbols.size()) {
+            int height = symbols.get(i).getHeight();
+            if (height < heightClass) {
+                throw new IllegalArgumentException("symbols aren't sorted by height");
+            }
+            integers.encode(iadh, height - heightClass);
+            heightClass = height;
+            int width = 0;
+            for (; (i < symbols.size()) && (symbols.get(i).getHeight() == height); i++) {
+                BitonalImage symbol = symbols.get(i);
+                integers.encode(iadw, symbol.getWidth() - width);
+                width = symbol.getWidth();
+                GenericRegionEncoder.encodeBitmap(encoder, generic, symbol, false);
+            }
+            integers.encodeOOB(iadw);
+        }
+        // export flags are run lengths starting with not exported ones => none of them and then all symbols
+        integers.encode(iaex, 0);
+        integers.encode(iaex, symbols.size());
+
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(data)) {
+            // arithmetic coding, no refinement, template 0, contexts neither used nor retained
+            out.writeShort(0);
+            out.write(GenericRegionEncoder.NOMINAL_AT);
+            out.writeInt(symbols.size());
+            out.writeInt(symbols.size());
+            out.write(encoder.finish());
+        } catch (IOException ex) {
+            throw new IllegalStateException("writing to memory failed", ex);
+        }
+        return data.toByteArray();
+    }
+}
@@ -0,0 +1,223 @@
+/*
+ *  Copyright 2016 Radim Hatlapatka.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package cz.muni.pdfjbim.jbig2;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * encodes chunk of pages by symbol coding: connected components of all pages are classified,
+ * representatives of classes form symbol dictionary shared by pages (in global data) and each page
+ * places symbols by text region. Components bigger than maximal size of symbol (typically pictures
+ * and lines) are encoded as generic region of the page.
+ *
+ * @author Radim Hatlapatka (hata.radim@gmail.com)
+ */
+public class SymbolEncoder {
+
+    private final SymbolClassifier classifier;
+    private final ExecutorService executor;
+    private int maxSymbolSize = 256;
+
+    /**
+     * @param threshold minimal correlation score of components sharing symbol (jbig2enc uses 0.85),
+     * 1 makes encoding lossless
+     * @param executor executor used for finding and classifying components of pages at the same time
+     * or null if the calling thread should do all the work
+     */
+    public SymbolEncoder(double threshold, ExecutorService executor) {
+        this.classifier = new SymbolClassifier(threshold);
+        this.executor = executor;
+    }
+
+    public int getMaxSymbolSize() {
+        return maxSymbolSize;
+    }
+
+    /**
+     * @param maxSymbolSize maximal width and height of component encoded as symbol
+     */
+    public void setMaxSymbolSize(int maxSymbolSize) {
+        if (maxSymbolSize < 1) {
+            throw new IllegalArgumentException("maxSymbolSize");
+        }
+        this.maxSymbolSize = maxSymbolSize;
+    }
+
+    /**
+     * encodes pages sharing one global symbol dictionary
+     *
+     * @param pages bitmaps of pages
+     * @return global data containing symbol dictionary (segment 0) and data of pages
+     * @throws InterruptedException if thread was interrupted while waiting for executor
+     */
+    public EncodedChunk encode(List<BitonalImage> pages) throws InterruptedException {
+        if (pages == null) {
+            throw new NullPointerException("pages");
+        }
+        List<List<ConnectedComponents.Component>> pagesComponents = findComponents(pages);
+
+        List<ConnectedComponents.Component> symbolComponents = new ArrayList<ConnectedComponents.Component>();
+        List<BitonalImage> symbolBitmaps = new ArrayList<BitonalImage>();
+        for (List<ConnectedComponents.Component> components : pagesComponents) {
+            for (ConnectedComponents.Component component : components) {
+                if (isSymbol(component)) {
+                    symbolComponents.add(component);
+                    symbolBitmaps.add(component.getBitmap());
+                }
+            }
+        }
+        SymbolClassifier.Classification classification = classifier.classify(symbolBitmaps, executor);
+
+        // dictionary requires symbols sorted by height, width makes differences of widths small
+        final List<BitonalImage> representatives = classification.getRepresentatives();
+        List<Integer> order = new ArrayList<Integer>(representatives.size());
+        for (int i = 0; i < representatives.size(); i++) {
+            order.add(i);
+        }
+        Collections.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer c1, Integer c2) {
+                BitonalImage b1 = representatives.get(c1);
+                BitonalImage b2 = representatives.get(c2);
+                if (b1.getHeight() != b2.getHeight()) {
+                    return Integer.compare(b1.getHeight(), b2.getHeight());
+                }
+                if (b1.getWidth() != b2.getWidth()) {
+                    return Integer.compare(b1.getWidth(), b2.getWidth());
+                }
+                return Integer.compare(c1, c2);
+            }
+        });
+        int[] symbolIds = new int[representatives.size()];
+        List<BitonalImage> symbols = new ArrayList<BitonalImage>(representatives.size());
+        for (int id = 0; id < order.size(); id++) {
+            symbolIds[order.get(id)] = id;
+            symbols.add(representatives.get(order.get(id)));
+        }
+
+        byte[] globalData = null;
+        if (!symbols.isEmpty()) {
+            SegmentWriter globalWriter = new SegmentWriter(0);
+            globalWriter.writeSegment(SegmentWriter.SYMBOL_DICTIONARY, new int[0], 0,
+                    SymbolDictionaryEncoder.encode(symbols));
+            globalData = globalWriter.toByteArray();
+        }
+
+        List<byte[]> pagesData = new ArrayList<byte[]>(pages.size());
+        int componentIndex = 0;
+        for (int page = 0; page < pages.size(); page++) {
+            BitonalImage pageBitmap = pages.get(page);
+            List<TextRegionEncoder.SymbolInstance> instances = new ArrayList<TextRegionEncoder.SymbolInstance>();
+            List<ConnectedComponents.Component> residual = new ArrayList<ConnectedComponents.Component>();
+            for (ConnectedComponents.Component component : pagesComponents.get(page)) {
+                if (!isSymbol(component)) {
+                    residual.add(component);
+                    continue;
+                }
+                BitonalImage bitmap = component.getBitmap();
+                int symbolId = symbolIds[classification.getClassOf(componentIndex++)];
+                instances.add(new TextRegionEncoder.SymbolInstance(symbolId, component.getX(), component.getY(),
+                        bitmap.getWidth(), bitmap.getHeight()));
+            }
+            pagesData.add(encodePage(pageBitmap, instances, symbols.size(), residual));
+        }
+        return new EncodedChunk(globalData, pagesData);
+    }
+
+    private boolean isSymbol(ConnectedComponents.Component component) {
+        return (component.getBitmap().getWidth() <= maxSymbolSize)
+                && (component.getBitmap().getHeight() <= maxSymbolSize);
+    }
+
+    private List<List<ConnectedComponents.Component>> findComponents(List<BitonalImage> pages)
+            throws InterruptedException {
+        List<List<ConnectedComponents.Component>> pagesComponents
+                = new ArrayList<List<ConnectedComponents.Component>>(pages.size());
+        if (executor == null) {
+            for (BitonalImage page : pages) {
+                pagesComponents.add(ConnectedComponents.find(page));
+            }
+            return pagesComponents;
+        }
+        List<Callable<List<ConnectedComponents.Component>>> tasks
+                = new ArrayList<Callable<List<ConnectedComponents.Component>>>(pages.size());
+        for (final BitonalImage page : pages) {
+            tasks.add(new Callable<List<ConnectedComponents.Component>>() {
+                @Override
+                public List<ConnectedComponents.Component> call() {
+                    return ConnectedComponents.find(page);
+                }
+            });
+        }
+        try {
+            for (Future<List<ConnectedComponents.Component>> future : executor.invokeAll(tasks)) {
+                pagesComponents.add(future.get());
+            }
+        } catch (ExecutionException ex) {
+            throw new IllegalStateException("search for connected components failed", ex.getCause());
+        }
+        return pagesComponents;
+    }
+
+    /**
+     * @return page information, text region referring to global dictionary, generic region containing
+     * components which aren't symbols and end of page
+     */
+    private byte[] encodePage(BitonalImage page, List<TextRegionEncoder.SymbolInstance> instances, int numberOfSymbols,
+            List<ConnectedComponents.Component> residual) {
+        SegmentWriter writer = new SegmentWriter(1);
+        writer.writePageInformation(1, page.getWidth(), page.getHeight(), 0);
+        if (!instances.isEmpty()) {
+            writer.writeSegment(SegmentWriter.IMMEDIATE_TEXT_REGION, new int[]{0}, 1,
+                    TextRegionEncoder.encode(page.getWidth(), page.getHeight(), instances, numberOfSymbols));
+        }
+        if (!residual.isEmpty()) {
+            int minX = Integer.MAX_VALUE;
+            int minY = Integer.MAX_VALUE;
+            int maxX = 0;
+            int maxY = 0;
+            for (ConnectedComponents.Component component : residual) {
+                minX = Math.min(minX, component.getX());
+                minY = Math.min(minY, component.getY());
+                maxX = Math.max(maxX, component.getX() + component.getBitmap().getWidth() - 1);
+                maxY = Math.max(maxY, component.getY() + component.getBitmap().getHeight() - 1);
+            }
+            BitonalImage region = new BitonalImage(maxX - minX + 1, maxY - minY + 1);
+            for (ConnectedComponents.Component component : residual) {
+                BitonalImage bitmap = component.getBitmap();
+                for (int y = 0; y < bitmap.getHeight(); y++) {
+                    for (int x = 0; x < bitmap.getWidth(); x++) {
+                        if (bitmap.getPixel(x, y) != 0) {
+                            region.setPixel(component.getX() - minX + x, component.getY() - minY + y, 1);
+                        }
+                    }
+                }
+            }
+            writer.writeSegment(SegmentWriter.IMMEDIATE_GENERIC_REGION, new int[0], 1,
+                    new GenericRegionEncoder().encodeRegion(region, minX, minY));
+        }
+        writer.writeEndOfPage(1);
+        return writer.toByteArray();
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ *  Copyright 2016 Radim Hatlapatka.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package cz.muni.pdfjbim.jbig2;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * encodes text region segments placing symbols of dictionary on the page, arithmetic coding
+ * without refinement is used, each strip is one pixel high and contains symbols with the same bottom edge
+ *
+ * @author Radim Hatlapatka (hata.radim@gmail.com)
+ */
+public class TextRegionEncoder {
+
+    private TextRegionEncoder() {
+    }
+
+    /**
+     * encodes data of immediate text region segment covering the whole page
+     *
+     * @param width width of the region
+     * @param height height of the region
+     * @param instances symbols placed in the region
+     * @param numberOfSymbols number of symbols in referred dictionaries
+     * @return segment data (region information, flags, number of instances and coded instances)
+     */
+    public static byte[] encode(int width, int height, List<SymbolInstance> instances, int numberOfSymbols) {
+        if (instances == null) {
+            throw new NullPointerException("instances");
+        }
+        List<SymbolInstance> sorted = new ArrayList<SymbolInstance>(instances);
+        Collections.sort(sorted, new Comparator<SymbolInstance>() {
+            @Override
+            public int compare(SymbolInstance i1, SymbolInstance i2) {
+                if (i1.getBottom() != i2.getBottom()) {
+                    return Integer.compare(i1.getBottom(), i2.getBottom());
+                }
+                return Integer.compare(i1.getX(), i2.getX());
+            }
+        });
+
+        MQEncoder encoder = new MQEncoder();
+        IntegerEncoder integers = new IntegerEncoder(encoder);
+        MQEncoder.Contexts iadt = IntegerEncoder.createContexts();
+        MQEncoder.Contexts iafs = IntegerEncoder.createContexts();
+        MQEncoder.Contexts iads = IntegerEncoder.createContexts();
+        int codeLength = 32 - Integer.numberOfLeadingZeros(Math.max(numberOfSymbols, 1) - 1);
+        MQEncoder.Contexts iaid = IntegerEncoder.createIdContexts(codeLength);
+
+        // initial STRIPT
+        integers.encode(iadt, 0);
+        int stripT = 0;
+        int firstS = 0;
+        int i = 0;
+        while (i < sorted.size()) {
+            SymbolInstance first = sorted.get(i);
+            integers.encode(iadt, first.getBottom() - stripT);
+            stripT = first.getBottom();
+            integers.encode(iafs, first.getX() - firstS);
+            firstS = first.getX();
+            int currentS = firstS;
+            for (; (i < sorted.size()) && (sorted.get(i).getBottom() == stripT); i++) {
+                SymbolInstance instance = sorted.get(i);
+                if (instance != first) {
+                    integers.encode(iads, instance.getX() - currentS);
+                }
+                if ((instance.getSymbolId() < 0) || (instance.getSymbolId() >= numberOfSymbols)) {
+                    throw new IllegalArgumentException("unknown symbol " + instance.getSymbolId());
+                }
+                integers.encodeId(iaid, codeLength, instance.getSymbolId());
+                // decoder moves to the right edge of the symbol
+                currentS = instance.getX() + instance.getWidth() - 1;
+            }
+            integers.encodeOOB(iads);
+        }
+
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(data)) {
+            SegmentWriter.writeRegionInformation(out, width, height, 0, 0);
+            // arithmetic coding, no refinement, strips of size 1, reference corner bottom left, OR operator
+            out.writeShort(0);
+            out.writeInt(sorted.size());
+            out.write(encoder.finish());
+        } catch (IOException ex) {
+            throw new IllegalStateException("writing to memory failed", ex);
+        }
+        return data.toByteArray();
+    }
+
+    /**
+     * symbol placed in text region
+     */
+    public static class SymbolInstance {
+
+        private final int symbolId;
+        private final int x;
+        private final int y;
+        private final int width;
+        private final int height;
+
+        /**
+         * @param symbolId ID of symbol in referred dictionaries
+         * @param x horizontal position of the left edge of the symbol
+         * @param y vertical position of the top edge of the symbol
+         * @param width width of the symbol
+         * @param height height of the symbol
+         */
+        public SymbolInstance(int symbolId, int x, int y, int width, int height) {
+            this.symbolId = symbolId;
+            this.x = x;
+            this.y = y;
+            this.width = width;
+            this.height = height;
+        }
+
+        public int getSymbolId() {
+            return symbolId;
+        }
+
+        public int getX() {
+            return x;
+        }
+
+        public int getY() {
+            return y;
+        }
+
+        public int getWidth() {
+            return width;
+        }
+
+        public int getHeight() {
+            return height;
+        }
+
+        int getBottom() {
+            return y + height - 1;
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package cz.muni.pdfjbim;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+/**
+ * tests collecting of inputs and journal of batch
+ */
+public class BatchRecompressorTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testCollectInputs() throws Exception {
+        File root = folder.newFolder("data");
+        File a = touch(new File(root, "a.pdf"));
+        File b = touch(new File(root, "sub/b.pdf"));
+        touch(new File(root, "sub/notes.txt"));
+        File c = touch(new File(folder.getRoot(), "other/c.pdf"));
+        File manifest = new File(folder.getRoot(), "manifest.txt");
+        FileUtils.writeLines(manifest, Arrays.asList("# comment", "", c.getPath()));
+
+        Map<File, String> inputs = BatchRecompressor.collectInputs(Collections.singletonList(root.getPath()));
+        assertEquals(Arrays.asList(a, b), new ArrayList<File>(inputs.keySet()));
+        assertEquals("sub" + File.separator + "b.pdf", inputs.get(b));
+
+        inputs = BatchRecompressor.collectInputs(Collections.singletonList(root.getPath() + "/*/*.pdf"));
+        assertEquals(Collections.singletonList(b), new ArrayList<File>(inputs.keySet()));
+
+        inputs = BatchRecompressor.collectInputs(Collections.singletonList("@" + manifest.getPath()));
+        assertEquals(Collections.singletonList(c), new ArrayList<File>(inputs.keySet()));
+        assertEquals("c.pdf", inputs.get(c));
+    }
+
+    @Test
+    public void testJournalIsResumed() throws Exception {
+        File journalFile = new File(folder.getRoot(), "journal");
+        File a = touch(new File(folder.getRoot(), "a.pdf"));
+        File b = touch(new File(folder.getRoot(), "b.pdf"));
+
+        BatchJournal journal = new BatchJournal(journalFile);
+        try {
+            journal.markCompleted(a);
+        } finally {
+            journal.close();
+        }
+        // simulates run killed while writing, even record looking complete isn't complete without terminator
+        FileUtils.writeStringToFile(journalFile, b.length() + "\t" + b.lastModified() + "\t" + b.getCanonicalPath(),
+                StandardCharsets.UTF_8, true);
+
+        journal = new BatchJournal(journalFile);
+        try {
+            assertTrue(journal.isCompleted(a));
+            assertFalse(journal.isCompleted(b));
+            journal.markCompleted(b);
+        } finally {
+            journal.close();
+        }
+
+        journal = new BatchJournal(journalFile);
+        try {
+            assertTrue(journal.isCompleted(b));
+        } finally {
+            journal.close();
+        }
+
+        // file replaced after it was recorded is recompressed again
+        FileUtils.writeStringToFile(a, "changed", StandardCharsets.UTF_8);
+        journal = new BatchJournal(journalFile);
+        try {
+            assertFalse(journal.isCompleted(a));
+            assertTrue(journal.isCompleted(b));
+        } finally {
+            journal.close();
+        }
+    }
+
+    private static File touch(File file) throws IOException {
+        FileUtils.touch(file);
+        return file;
+    }
+}
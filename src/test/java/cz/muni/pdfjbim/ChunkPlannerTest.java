@@ -0,0 +1,59 @@
+package cz.muni.pdfjbim;
+
+import cz.muni.pdfjbim.jbig2.BitonalImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * tests grouping of pages by similarity of their symbols
+ */
+public class ChunkPlannerTest {
+
+    @Test
+    public void testPagesWithTheSameSymbolsShareChunk() {
+        // pages alternate between two fonts
+        List<long[]> signatures = new ArrayList<long[]>();
+        for (int page = 0; page < 6; page++) {
+            signatures.add(ChunkPlanner.computeSignature(createPage(page % 2 == 0, page)));
+        }
+        assertTrue(ChunkPlanner.estimateSimilarity(signatures.get(0), signatures.get(2)) > 0.9);
+        assertTrue(ChunkPlanner.estimateSimilarity(signatures.get(0), signatures.get(1)) < 0.1);
+
+        List<List<Integer>> chunks = new ChunkPlanner(3).plan(signatures);
+        assertEquals(Arrays.asList(Arrays.asList(0, 2, 4), Arrays.asList(1, 3, 5)), chunks);
+    }
+
+    @Test
+    public void testBlankPages() {
+        long[] blank = ChunkPlanner.computeSignature(new BitonalImage(100, 100));
+        assertEquals(0, ChunkPlanner.estimateSimilarity(blank, blank), 0);
+
+        List<long[]> signatures = Arrays.asList(blank, blank, blank);
+        List<List<Integer>> chunks = new ChunkPlanner(2).plan(signatures);
+        assertEquals(Arrays.asList(Arrays.asList(0, 1), Arrays.asList(2)), chunks);
+    }
+
+    /**
+     * @param rings true if page contains rings, otherwise it contains crosses
+     */
+    private static BitonalImage createPage(boolean rings, int seed) {
+        BitonalImage page = new BitonalImage(400, 300);
+        for (int i = 0; i < 40; i++) {
+            int left = 20 + ((i * 7 + seed * 3) % 10) * 36;
+            int top = 20 + (i / 10) * 60 + (seed % 3) * 5;
+            for (int y = 0; y < 16; y++) {
+                for (int x = 0; x < 16; x++) {
+                    boolean black = rings ? ((x < 3) || (x > 12) || (y < 3) || (y > 12))
+                            : ((x >= 6) && (x <= 9)) || ((y >= 6) && (y <= 9));
+                    if (black) {
+                        page.setPixel(left + x, top + y, 1);
+                    }
+                }
+            }
+        }
+        return page;
+    }
+}
@@ -0,0 +1,85 @@
+package cz.muni.pdfjbim;
+
+import com.itextpdf.text.Document;
+import com.itextpdf.text.Image;
+import com.itextpdf.text.pdf.PRStream;
+import com.itextpdf.text.pdf.PdfDictionary;
+import com.itextpdf.text.pdf.PdfName;
+import com.itextpdf.text.pdf.PdfReader;
+import com.itextpdf.text.pdf.PdfWriter;
+import cz.muni.pdfjbim.jbig2.BitonalImage;
+import cz.muni.pdfjbim.jbig2.EncodedChunk;
+import cz.muni.pdfjbim.jbig2.Jbig2Decoding;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * tests discovery of image encoders and recompression using stub encoder
+ */
+public class ImageEncodersTest {
+
+    @Test
+    public void testEncodersAreFound() {
+        assertTrue(ImageEncoders.getNames().containsAll(Arrays.asList(RecompressionOptions.ENCODER_JBIG2ENC,
+                RecompressionOptions.ENCODER_JAVA, RecompressionOptions.ENCODER_JAVA_SYMBOL,
+                StubImageEncoder.NAME)));
+        for (String name : ImageEncoders.getNames()) {
+            assertEquals(name, ImageEncoders.get(name).getName());
+        }
+        assertNull(ImageEncoders.get("unknown"));
+        try {
+            new RecompressionOptions().setEncoder("unknown");
+            fail("unknown encoder was accepted");
+        } catch (IllegalArgumentException ex) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testStubIsDeterministic() throws Exception {
+        List<BitonalImage> images = Arrays.asList(Jbig2Decoding.createBitmap(70, 30, 1),
+                Jbig2Decoding.createBitmap(9, 5, 2));
+        ImageEncoder stub = ImageEncoders.get(StubImageEncoder.NAME);
+        EncodedChunk first = stub.encode(images, new RecompressionOptions());
+        EncodedChunk second = stub.encode(images, new RecompressionOptions());
+        assertNull(first.getGlobalData());
+        for (int i = 0; i < images.size(); i++) {
+            assertArrayEquals(first.getPagesData().get(i), second.getPagesData().get(i));
+            BitonalImage decoded = Jbig2Decoding.decode(null, first.getPagesData().get(i));
+            assertEquals(new BitonalImage(images.get(i).getWidth(), images.get(i).getHeight()), decoded);
+        }
+    }
+
+    @Test
+    public void testRecompressWithStub() throws Exception {
+        RecompressionOptions options = new RecompressionOptions();
+        options.setEncoder(StubImageEncoder.NAME);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int recompressed = new PdfRecompressor(options).recompress(new ByteArrayInputStream(createPdf()), out);
+        assertEquals(1, recompressed);
+
+        PdfReader reader = new PdfReader(out.toByteArray());
+        PdfDictionary xObjects = reader.getPageN(1).getAsDict(PdfName.RESOURCES).getAsDict(PdfName.XOBJECT);
+        PRStream image = (PRStream) PdfReader.getPdfObject(xObjects.get(xObjects.getKeys().iterator().next()));
+        assertEquals(PdfName.JBIG2DECODE, image.getAsName(PdfName.FILTER));
+        reader.close();
+    }
+
+    /**
+     * @return PDF containing one bi-tonal image
+     */
+    private static byte[] createPdf() throws Exception {
+        BitonalImage bitmap = Jbig2Decoding.createBitmap(120, 80, 3);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Document document = new Document();
+        PdfWriter.getInstance(document, out);
+        document.open();
+        document.add(Image.getInstance(120, 80, 1, 1, bitmap.toPackedRows(true)));
+        document.close();
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,43 @@
+package cz.muni.pdfjbim;
+
+import cz.muni.pdfjbim.jbig2.BitonalImage;
+import cz.muni.pdfjbim.jbig2.EncodedChunk;
+import cz.muni.pdfjbim.jbig2.Jbig2Decoding;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.Arrays;
+import javax.imageio.ImageIO;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+/**
+ * tests encoding of extracted images in JVM
+ */
+public class JavaJbig2EncoderTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testEncodeGrayImage() throws Exception {
+        BitonalImage expected = Jbig2Decoding.createBitmap(61, 40, 7);
+        BufferedImage image = new BufferedImage(61, 40, BufferedImage.TYPE_BYTE_GRAY);
+        for (int y = 0; y < 40; y++) {
+            for (int x = 0; x < 61; x++) {
+                // black pixels are dark gray, white ones light gray => threshold decides
+                int gray = (expected.getPixel(x, y) == 1) ? 100 : 200;
+                image.getRaster().setSample(x, y, 0, gray);
+            }
+        }
+        File file = new File(folder.getRoot(), "image.png");
+        ImageIO.write(image, "png", file);
+
+        BitonalImage bitonal = Tools.readBitmap(file, 150);
+        EncodedChunk encoded = new JavaJbig2Encoder().encodeBitmaps(Arrays.asList(bitonal));
+        assertNull(encoded.getGlobalData());
+        assertEquals(1, encoded.getPagesData().size());
+        assertEquals(expected, Jbig2Decoding.decode(null, encoded.getPagesData().get(0)));
+    }
+}
@@ -0,0 +1,78 @@
+package cz.muni.pdfjbim;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+/**
+ * tests class Jbig2Cache
+ */
+public class Jbig2CacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testStoredChunkIsFoundAfterReopening() throws Exception {
+        Jbig2Cache cache = new Jbig2Cache(folder.getRoot(), 1024 * 1024);
+        String key = Jbig2Cache.createKey(new Jbig2enc(), infos("a", "b"));
+        assertNull(cache.get(key));
+        cache.put(key, chunk(new byte[]{9}, new byte[]{1}, new byte[]{2, 3}));
+
+        Jbig2Cache reopened = new Jbig2Cache(folder.getRoot(), 1024 * 1024);
+        Jbig2ForPdf cached = reopened.get(key);
+        assertNotNull(cached);
+        assertArrayEquals(new byte[]{9}, cached.getGlobalData());
+        assertArrayEquals(new byte[]{2, 3}, cached.getJbig2Image(1).getImageData());
+        assertEquals(1, reopened.getHits());
+        assertEquals(0, reopened.getMisses());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void testKeyDependsOnParametersAndMembership() {
+        Jbig2enc jbig2enc = new Jbig2enc();
+        String key = Jbig2Cache.createKey(jbig2enc, infos("a", "b"));
+        assertEquals(key, Jbig2Cache.createKey(jbig2enc, infos("a", "b")));
+        assertFalse(key.equals(Jbig2Cache.createKey(jbig2enc, infos("b", "a"))));
+        assertFalse(key.equals(Jbig2Cache.createKey(jbig2enc, infos("a"))));
+        jbig2enc.setDefaultThresh(0.9);
+        assertFalse(key.equals(Jbig2Cache.createKey(jbig2enc, infos("a", "b"))));
+
+        List<PdfImageInformation> unknown = infos("a");
+        unknown.add(new PdfImageInformation("im0", 10, 10, 2, 0));
+        assertNull(Jbig2Cache.createKey(jbig2enc, unknown));
+    }
+
+    @Test
+    public void testLeastRecentlyUsedChunkIsEvicted() throws Exception {
+        Jbig2Cache cache = new Jbig2Cache(folder.getRoot(), 2500);
+        cache.put("first", chunk(null, new byte[1000]));
+        cache.put("second", chunk(null, new byte[1000]));
+        assertNotNull(cache.get("first"));
+        cache.put("third", chunk(null, new byte[1000]));
+
+        assertNotNull(cache.get("first"));
+        assertNull(cache.get("second"));
+        assertNotNull(cache.get("third"));
+        assertTrue(cache.getSize() <= 2500);
+    }
+
+    private static List<PdfImageInformation> infos(String... hashes) {
+        List<PdfImageInformation> infos = new ArrayList<PdfImageInformation>();
+        for (int i = 0; i < hashes.length; i++) {
+            PdfImageInformation info = new PdfImageInformation("im0", 10, 10, i + 1, 0);
+            info.setContentHash(hashes[i]);
+            infos.add(info);
+        }
+        return infos;
+    }
+
+    private static Jbig2ForPdf chunk(byte[] globalData, byte[]... imagesData) {
+        return new Jbig2ForPdf(globalData, Arrays.asList(imagesData));
+    }
+}
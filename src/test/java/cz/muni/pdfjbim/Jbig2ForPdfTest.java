@@ -0,0 +1,35 @@
+package cz.muni.pdfjbim;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * tests class Jbig2ForPdf
+ */
+public class Jbig2ForPdfTest {
+
+    @Test
+    public void testDuplicatesShareImage() throws Exception {
+        List<byte[]> imagesData = new ArrayList<byte[]>();
+        imagesData.add(new byte[]{1});
+        imagesData.add(new byte[]{2});
+        Jbig2ForPdf jbig2 = new Jbig2ForPdf(new byte[]{0}, imagesData);
+
+        List<PdfImageInformation> infos = new ArrayList<PdfImageInformation>();
+        PdfImageInformation first = new PdfImageInformation("im0", 10, 10, 5, 0);
+        first.addDuplicate(new PdfObjId(7, 0));
+        first.addDuplicate(new PdfObjId(9, 0));
+        infos.add(first);
+        infos.add(new PdfImageInformation("im1", 10, 10, 6, 0));
+        jbig2.setJbig2ImagesInfo(infos);
+
+        Map<PdfObjId, PdfImage> images = jbig2.getMapOfJbig2Images();
+        assertEquals(4, images.size());
+        assertSame(images.get(new PdfObjId(5, 0)), images.get(new PdfObjId(7, 0)));
+        assertSame(images.get(new PdfObjId(5, 0)), images.get(new PdfObjId(9, 0)));
+        assertNotSame(images.get(new PdfObjId(5, 0)), images.get(new PdfObjId(6, 0)));
+    }
+}
@@ -0,0 +1,87 @@
+package cz.muni.pdfjbim;
+
+import cz.muni.pdfjbim.jbig2.BitonalImage;
+import cz.muni.pdfjbim.jbig2.EncodedChunk;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import org.apache.commons.io.FileUtils;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+/**
+ * tests exchanging data with jbig2enc using fake shell script writing output the same way as jbig2enc -p
+ */
+public class Jbig2encImageEncoderTest {
+
+    private static final String FAKE_JBIG2ENC = "#!/bin/sh\n"
+            + "[ -n \"$FAIL\" ] && exit 3\n"
+            + "base=output; n=0\n"
+            + "while [ $# -gt 0 ]; do\n"
+            + "  case \"$1\" in\n"
+            + "    -b) base=\"$2\"; shift 2;;\n"
+            + "    -t|-T) shift 2;;\n"
+            + "    -*) shift;;\n"
+            + "    *) head -c 2 \"$1\" | grep -q P4 || exit 4; n=$((n+1)); shift;;\n"
+            + "  esac\n"
+            + "done\n"
+            + "[ -n \"$PAGES\" ] && n=$PAGES\n"
+            + "printf sym > \"$base.sym\"\n"
+            + "i=0\n"
+            + "while [ $i -lt $n ]; do printf page$i > \"$base.$(printf %04d $i)\"; i=$((i+1)); done\n";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final List<BitonalImage> images = Arrays.asList(new BitonalImage(10, 10), new BitonalImage(20, 5),
+            new BitonalImage(7, 7));
+
+    @Before
+    public void setUp() {
+        Assume.assumeTrue(new File("/bin/sh").exists());
+    }
+
+    @Test(timeout = 30000)
+    public void testEncode() throws Exception {
+        EncodedChunk chunk = new Jbig2encImageEncoder().encode(images, createOptions(""));
+        assertEquals("sym", new String(chunk.getGlobalData(), StandardCharsets.US_ASCII));
+        assertEquals(3, chunk.getPagesData().size());
+        for (int i = 0; i < 3; i++) {
+            assertEquals("page" + i, new String(chunk.getPagesData().get(i), StandardCharsets.US_ASCII));
+        }
+        // private directory is removed
+        assertEquals(1, folder.getRoot().list().length);
+    }
+
+    @Test(timeout = 30000)
+    public void testFailedEncoderDoesNotBlock() throws Exception {
+        try {
+            new Jbig2encImageEncoder().encode(images, createOptions("FAIL=1"));
+            fail("failure of jbig2enc wasn't reported");
+        } catch (PdfRecompressionException ex) {
+            // expected
+        }
+        try {
+            new Jbig2encImageEncoder().encode(images, createOptions("PAGES=1"));
+            fail("missing pages weren't reported");
+        } catch (PdfRecompressionException ex) {
+            assertTrue(ex.getMessage().contains("1 of 3"));
+        }
+    }
+
+    private RecompressionOptions createOptions(String environment) throws Exception {
+        File script = new File(folder.getRoot(), "jbig2");
+        FileUtils.writeStringToFile(script, FAKE_JBIG2ENC.replace("#!/bin/sh\n", "#!/bin/sh\n" + environment + "\n"),
+                StandardCharsets.US_ASCII);
+        assertTrue(script.setExecutable(true));
+        RecompressionOptions options = new RecompressionOptions();
+        options.setJbig2enc(script.getPath());
+        options.setWorkDir(folder.getRoot());
+        return options;
+    }
+}
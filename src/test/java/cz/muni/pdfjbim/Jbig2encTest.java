@@ -0,0 +1,36 @@
+package cz.muni.pdfjbim;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.Semaphore;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+/**
+ * tests class Jbig2enc without jbig2enc installed
+ */
+public class Jbig2encTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testInterruptedWaitingForPermitFails() throws Exception {
+        Jbig2enc jbig2enc = new Jbig2enc("/nonexistent/jbig2");
+        jbig2enc.setProcessPermits(new Semaphore(0));
+        File image = folder.newFile("image.png");
+        Thread.currentThread().interrupt();
+        try {
+            jbig2enc.run(new ArrayList<String>(Arrays.asList(image.getPath())),
+                    new File(folder.getRoot(), "output").getPath());
+            fail("interrupted run succeeded");
+        } catch (PdfRecompressionException ex) {
+            assertTrue(ex.getCause() instanceof InterruptedException);
+            // interrupted status is kept for the caller
+            assertTrue(Thread.interrupted());
+        }
+    }
+}
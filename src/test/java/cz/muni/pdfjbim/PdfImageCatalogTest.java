@@ -0,0 +1,102 @@
+package cz.muni.pdfjbim;
+
+import com.itextpdf.text.Document;
+import com.itextpdf.text.Image;
+import com.itextpdf.text.pdf.PdfContentByte;
+import com.itextpdf.text.pdf.PdfDictionary;
+import com.itextpdf.text.pdf.PdfName;
+import com.itextpdf.text.pdf.PdfNumber;
+import com.itextpdf.text.pdf.PdfObject;
+import com.itextpdf.text.pdf.PdfReader;
+import com.itextpdf.text.pdf.PdfTemplate;
+import com.itextpdf.text.pdf.PdfWriter;
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * tests indexing of images drawn on pages
+ */
+public class PdfImageCatalogTest {
+
+    @Test
+    public void testImagesAreOrderedByPages() throws Exception {
+        PdfReader reader = new PdfReader(createPdf());
+        try {
+            int shared = findImage(reader, 30);
+            int inForm = findImage(reader, 20);
+            int lastPage = findImage(reader, 10);
+
+            PdfImageCatalog catalog = PdfImageCatalog.build(reader, null);
+            assertEquals(Arrays.asList(shared, inForm, lastPage), catalog.getImages());
+            assertEquals(1, catalog.getFirstPage(shared));
+            assertEquals(3, catalog.getLastPage(shared));
+            assertEquals(2, catalog.getFirstPage(inForm));
+            assertEquals(2, catalog.getLastPage(inForm));
+            assertEquals(4, catalog.getFirstPage(lastPage));
+
+            catalog = PdfImageCatalog.build(reader, Collections.singleton(2));
+            assertEquals(Arrays.asList(inForm), catalog.getImages());
+            assertFalse(catalog.contains(shared));
+            assertEquals(0, catalog.getFirstPage(shared));
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * @return object number of image of given width
+     */
+    private static int findImage(PdfReader reader, int width) {
+        for (int i = 1; i < reader.getXrefSize(); i++) {
+            PdfObject object = reader.getPdfObject(i);
+            if ((object == null) || !object.isStream()) {
+                continue;
+            }
+            PdfDictionary stream = (PdfDictionary) object;
+            PdfNumber imageWidth = stream.getAsNumber(PdfName.WIDTH);
+            if (PdfName.IMAGE.equals(stream.getAsName(PdfName.SUBTYPE)) && (imageWidth != null)
+                    && (imageWidth.intValue() == width)) {
+                return i;
+            }
+        }
+        throw new AssertionError("image of width " + width + " not found");
+    }
+
+    /**
+     * @return PDF with image shared by pages 1 and 3, image inside nested form on page 2
+     * and image on page 4
+     */
+    private static byte[] createPdf() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Document document = new Document();
+        PdfWriter writer = PdfWriter.getInstance(document, out);
+        document.open();
+        Image lastPage = createImage(10);
+        Image shared = createImage(30);
+        Image inForm = createImage(20);
+        PdfContentByte canvas = writer.getDirectContent();
+
+        canvas.addImage(shared, 30, 0, 0, 30, 10, 10);
+        document.newPage();
+        PdfTemplate inner = canvas.createTemplate(20, 20);
+        inner.addImage(inForm, 20, 0, 0, 20, 0, 0);
+        PdfTemplate outer = canvas.createTemplate(20, 20);
+        outer.addTemplate(inner, 0, 0);
+        canvas.addTemplate(outer, 10, 10);
+        document.newPage();
+        canvas.addImage(shared, 30, 0, 0, 30, 10, 10);
+        document.newPage();
+        canvas.addImage(lastPage, 10, 0, 0, 10, 10, 10);
+        document.close();
+        return out.toByteArray();
+    }
+
+    private static Image createImage(int width) throws Exception {
+        byte[] samples = new byte[width * 10];
+        Arrays.fill(samples, (byte) 0x80);
+        return Image.getInstance(width, 10, 1, 8, samples);
+    }
+}
@@ -0,0 +1,176 @@
+package cz.muni.pdfjbim;
+
+import com.itextpdf.text.Document;
+import com.itextpdf.text.Image;
+import com.itextpdf.text.pdf.PRStream;
+import com.itextpdf.text.pdf.PdfContentByte;
+import com.itextpdf.text.pdf.PdfDictionary;
+import com.itextpdf.text.pdf.PdfIndirectReference;
+import com.itextpdf.text.pdf.PdfName;
+import com.itextpdf.text.pdf.PdfObject;
+import com.itextpdf.text.pdf.PdfReader;
+import com.itextpdf.text.pdf.PdfTemplate;
+import com.itextpdf.text.pdf.PdfWriter;
+import cz.muni.pdfjbim.jbig2.BitonalImage;
+import cz.muni.pdfjbim.jbig2.Jbig2Decoding;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+/**
+ * tests replacement of images referred from several places of document
+ */
+public class PdfImageReplacerTest {
+
+    private static final BitonalImage SHARED = Jbig2Decoding.createBitmap(60, 30, 1);
+    private static final BitonalImage IN_FORM = Jbig2Decoding.createBitmap(40, 20, 2);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testSharedAndNestedImagesAreReplaced() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals(2, new PdfRecompressor(createOptions()).recompress(
+                new ByteArrayInputStream(createPdfWithSharedImages()), out));
+
+        PdfReader reader = new PdfReader(out.toByteArray());
+        try {
+            // both pages still refer to one object, now containing JBIG2 image
+            PdfIndirectReference first = getImageReference(reader.getPageN(1));
+            PdfIndirectReference third = getImageReference(reader.getPageN(3));
+            assertEquals(first.getNumber(), third.getNumber());
+            assertEquals(SHARED, RecompressionPipelineTest.decodeImage(reader, 1));
+            assertEquals(SHARED, RecompressionPipelineTest.decodeImage(reader, 3));
+
+            List<PRStream> images = getImages(reader);
+            assertEquals(2, images.size());
+            for (PRStream image : images) {
+                assertEquals(PdfName.JBIG2DECODE, image.getAsName(PdfName.FILTER));
+                BitonalImage expected = (image.getAsNumber(PdfName.WIDTH).intValue() == IN_FORM.getWidth())
+                        ? IN_FORM : SHARED;
+                assertEquals(expected, decode(image));
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void testDuplicatesShareOneReplacedImage() throws Exception {
+        ByteArrayOutputStream pdf = new ByteArrayOutputStream();
+        Document document = new Document();
+        PdfWriter.getInstance(document, pdf);
+        document.open();
+        // each instance is written as separate object with the same data
+        document.add(createImage(SHARED));
+        document.newPage();
+        document.add(createImage(SHARED));
+        document.newPage();
+        document.add(createImage(IN_FORM));
+        document.close();
+        File input = folder.newFile("input.pdf");
+        FileUtils.writeByteArrayToFile(input, pdf.toByteArray());
+        assertEquals(3, countImages(input));
+
+        // reader in partial mode sees objects which aren't referred anymore
+        RecompressionOptions options = createOptions();
+        options.setPartialRead(true);
+        File output = folder.newFile("output.pdf");
+        new PdfRecompressor(options).recompress(input, output);
+        assertEquals(2, countImages(output));
+
+        PdfReader reader = new PdfReader(output.getPath());
+        try {
+            assertEquals(getImageReference(reader.getPageN(1)).getNumber(),
+                    getImageReference(reader.getPageN(2)).getNumber());
+            assertEquals(SHARED, RecompressionPipelineTest.decodeImage(reader, 1));
+            assertEquals(SHARED, RecompressionPipelineTest.decodeImage(reader, 2));
+            assertEquals(IN_FORM, RecompressionPipelineTest.decodeImage(reader, 3));
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static int countImages(File pdf) throws Exception {
+        PdfReader reader = Tools.openPdfPartially(pdf, null);
+        try {
+            return getImages(reader).size();
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static RecompressionOptions createOptions() {
+        RecompressionOptions options = new RecompressionOptions();
+        options.setEncoder(RecompressionOptions.ENCODER_JAVA);
+        return options;
+    }
+
+    private static PdfIndirectReference getImageReference(PdfDictionary page) {
+        PdfDictionary xObjects = page.getAsDict(PdfName.RESOURCES).getAsDict(PdfName.XOBJECT);
+        return xObjects.getAsIndirectObject(xObjects.getKeys().iterator().next());
+    }
+
+    /**
+     * @return JBIG2 image decoded so that 1 is black
+     */
+    private static BitonalImage decode(PRStream image) throws Exception {
+        PdfDictionary decodeParms = image.getAsDict(PdfName.DECODEPARMS);
+        PRStream globals = (decodeParms == null) ? null
+                : (PRStream) PdfReader.getPdfObject(decodeParms.get(PdfName.JBIG2GLOBALS));
+        return Jbig2Decoding.decode((globals == null) ? null : PdfReader.getStreamBytesRaw(globals),
+                PdfReader.getStreamBytesRaw(image));
+    }
+
+    /**
+     * @return all image streams of document
+     */
+    private static List<PRStream> getImages(PdfReader reader) {
+        List<PRStream> images = new ArrayList<PRStream>();
+        for (int i = 1; i < reader.getXrefSize(); i++) {
+            PdfObject object = reader.getPdfObject(i);
+            if ((object != null) && object.isStream()
+                    && PdfName.IMAGE.equals(((PdfDictionary) object).getAsName(PdfName.SUBTYPE))) {
+                images.add((PRStream) object);
+            }
+        }
+        return images;
+    }
+
+    /**
+     * @return PDF with one image shared by pages 1 and 3 and another image inside nested form on page 2
+     */
+    private static byte[] createPdfWithSharedImages() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Document document = new Document();
+        PdfWriter writer = PdfWriter.getInstance(document, out);
+        document.open();
+        Image shared = createImage(SHARED);
+        PdfContentByte canvas = writer.getDirectContent();
+
+        canvas.addImage(shared, 60, 0, 0, 30, 10, 10);
+        document.newPage();
+        PdfTemplate inner = canvas.createTemplate(40, 20);
+        inner.addImage(createImage(IN_FORM), 40, 0, 0, 20, 0, 0);
+        PdfTemplate outer = canvas.createTemplate(40, 20);
+        outer.addTemplate(inner, 0, 0);
+        canvas.addTemplate(outer, 10, 10);
+        document.newPage();
+        canvas.addImage(shared, 60, 0, 0, 30, 10, 10);
+        document.close();
+        return out.toByteArray();
+    }
+
+    private static Image createImage(BitonalImage bitmap) throws Exception {
+        // samples of DeviceGray are black when 0
+        return Image.getInstance(bitmap.getWidth(), bitmap.getHeight(), 1, 1, bitmap.toPackedRows(false));
+    }
+}
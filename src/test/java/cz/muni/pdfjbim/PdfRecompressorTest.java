@@ -0,0 +1,123 @@
+package cz.muni.pdfjbim;
+
+import com.itextpdf.text.Document;
+import com.itextpdf.text.Paragraph;
+import com.itextpdf.text.pdf.PdfReader;
+import com.itextpdf.text.pdf.PdfWriter;
+import cz.muni.pdfjbim.jbig2.BitonalImage;
+import cz.muni.pdfjbim.jbig2.Jbig2Decoding;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+/**
+ * tests recompression of documents given by stream, buffer or file
+ */
+public class PdfRecompressorTest {
+
+    private static final BitonalImage[] BITMAPS = {Jbig2Decoding.createBitmap(90, 40, 1),
+        Jbig2Decoding.createBitmap(70, 50, 2)};
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testStreamAndBuffersGiveTheSameImages() throws Exception {
+        byte[] pdf = RecompressionPipelineTest.createPdf(BITMAPS);
+        PdfRecompressor recompressor = new PdfRecompressor(createOptions());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals(BITMAPS.length, recompressor.recompress(new ByteArrayInputStream(pdf), out));
+        assertImages(out.toByteArray());
+
+        out = new ByteArrayOutputStream();
+        assertEquals(BITMAPS.length, recompressor.recompress(ByteBuffer.wrap(pdf), out));
+        assertImages(out.toByteArray());
+
+        // only data between position and limit of direct buffer belong to PDF
+        ByteBuffer direct = ByteBuffer.allocateDirect(pdf.length + 20);
+        direct.position(10);
+        direct.put(pdf);
+        direct.flip();
+        direct.position(10);
+        out = new ByteArrayOutputStream();
+        assertEquals(BITMAPS.length, recompressor.recompress(direct, out));
+        assertImages(out.toByteArray());
+        assertEquals(10, direct.position());
+    }
+
+    @Test
+    public void testPartialReadGivesTheSameImages() throws Exception {
+        File input = folder.newFile("input.pdf");
+        FileUtils.writeByteArrayToFile(input, RecompressionPipelineTest.createPdf(BITMAPS));
+        PdfReader reader = Tools.openPdfPartially(input, null);
+        try {
+            assertEquals(BITMAPS.length, reader.getNumberOfPages());
+        } finally {
+            reader.close();
+        }
+
+        RecompressionOptions options = createOptions();
+        options.setPartialRead(true);
+        File output = folder.newFile("output.pdf");
+        assertEquals(BITMAPS.length, new PdfRecompressor(options).recompress(input, output));
+        assertImages(FileUtils.readFileToByteArray(output));
+
+        // mapped input is replaced by output only after its reader is closed
+        assertEquals(BITMAPS.length, new PdfRecompressor(options).recompress(input, input));
+        assertImages(FileUtils.readFileToByteArray(input));
+    }
+
+    @Test
+    public void testMissingFileIsNotOpened() throws Exception {
+        try {
+            Tools.openPdfPartially(new File(folder.getRoot(), "missing.pdf"), null);
+            fail("missing file was opened");
+        } catch (IOException ex) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testDocumentWithoutImages() throws Exception {
+        ByteArrayOutputStream pdf = new ByteArrayOutputStream();
+        Document document = new Document();
+        PdfWriter.getInstance(document, pdf);
+        document.open();
+        document.add(new Paragraph("text"));
+        document.close();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals(0, new PdfRecompressor(createOptions()).recompress(new ByteArrayInputStream(pdf.toByteArray()),
+                out));
+        assertEquals(1, new PdfReader(out.toByteArray()).getNumberOfPages());
+    }
+
+    private static RecompressionOptions createOptions() {
+        RecompressionOptions options = new RecompressionOptions();
+        options.setEncoder(RecompressionOptions.ENCODER_JAVA);
+        return options;
+    }
+
+    /**
+     * checks that each page contains lossless JBIG2 version of its original image
+     */
+    private static void assertImages(byte[] pdf) throws Exception {
+        PdfReader reader = new PdfReader(pdf);
+        try {
+            assertEquals(BITMAPS.length, reader.getNumberOfPages());
+            for (int page = 1; page <= BITMAPS.length; page++) {
+                assertEquals(BITMAPS[page - 1], RecompressionPipelineTest.decodeImage(reader, page));
+            }
+        } finally {
+            reader.close();
+        }
+    }
+}
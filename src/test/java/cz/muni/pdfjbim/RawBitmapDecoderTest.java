@@ -0,0 +1,106 @@
+package cz.muni.pdfjbim;
+
+import com.itextpdf.text.Document;
+import com.itextpdf.text.Image;
+import com.itextpdf.text.pdf.PRStream;
+import com.itextpdf.text.pdf.PdfArray;
+import com.itextpdf.text.pdf.PdfName;
+import com.itextpdf.text.pdf.PdfObject;
+import com.itextpdf.text.pdf.PdfReader;
+import com.itextpdf.text.pdf.PdfStamper;
+import com.itextpdf.text.pdf.PdfWriter;
+import com.itextpdf.text.pdf.codec.CCITTG4Encoder;
+import cz.muni.pdfjbim.jbig2.BitonalImage;
+import cz.muni.pdfjbim.jbig2.Jbig2Decoding;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+/**
+ * tests extraction of bi-tonal images directly from their samples
+ */
+public class RawBitmapDecoderTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testBitonalImagesAreExtractedAsPbm() throws Exception {
+        BitonalImage flate = Jbig2Decoding.createBitmap(61, 40, 3);
+        BitonalImage inverted = Jbig2Decoding.createBitmap(53, 21, 5);
+        BitonalImage ccitt = Jbig2Decoding.createBitmap(75, 33, 7);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Document document = new Document();
+        PdfWriter.getInstance(document, out);
+        document.open();
+        document.add(Image.getInstance(61, 40, 1, 1, flate.toPackedRows(true)));
+        document.add(Image.getInstance(53, 21, 1, 1, inverted.toPackedRows(true)));
+        document.add(Image.getInstance(75, 33, false, Image.CCITTG4, 0,
+                CCITTG4Encoder.compress(ccitt.toPackedRows(true), 75, 33)));
+        document.close();
+
+        // iText stores 1-bit images as CCITT, so that samples of the first two are replaced by Flate compressed ones
+        PdfReader reader = new PdfReader(out.toByteArray());
+        out = new ByteArrayOutputStream();
+        PdfStamper stamper = new PdfStamper(reader, out);
+        for (int i = 1; i < reader.getXrefSize(); i++) {
+            PdfObject obj = reader.getPdfObject(i);
+            if ((obj == null) || !obj.isStream()) {
+                continue;
+            }
+            PRStream stream = (PRStream) obj;
+            int width = stream.getAsNumber(PdfName.WIDTH) != null ? stream.getAsNumber(PdfName.WIDTH).intValue() : 0;
+            if (width == 61) {
+                // samples are black when 0
+                stream.setData(flate.toPackedRows(false), true);
+            } else if (width == 53) {
+                stream.setData(inverted.toPackedRows(true), true);
+                stream.put(PdfName.DECODE, new PdfArray(new float[]{1, 0}));
+            }
+        }
+        stamper.close();
+
+        BitonalImage[] expected = {flate, inverted, ccitt};
+        // without listener images are written to PBM files
+        PdfImageExtractor extractor = new PdfImageExtractor();
+        extractor.extractImagesUsingIText(new PdfReader(out.toByteArray()),
+                new File(folder.getRoot(), "img").getPath(), null, false);
+        List<String> names = extractor.getNamesOfImages();
+        assertEquals(3, names.size());
+        for (int i = 0; i < expected.length; i++) {
+            assertTrue(names.get(i), names.get(i).endsWith(".pbm"));
+            assertEquals(names.get(i), expected[i], Tools.readBitmap(new File(names.get(i)), 128));
+        }
+
+        // listener receives them in memory
+        final List<BitonalImage> images = new ArrayList<BitonalImage>();
+        extractor = new PdfImageExtractor();
+        extractor.setImageExtractionListener(new ImageExtractionListener() {
+            @Override
+            public void imageExtracted(BitonalImage image, PdfImageInformation pdfImageInfo) {
+                images.add(image);
+            }
+        });
+        File dir = folder.newFolder("listener");
+        extractor.extractImagesUsingIText(new PdfReader(out.toByteArray()), new File(dir, "img").getPath(), null, false);
+        assertEquals(0, dir.list().length);
+        assertEquals(3, images.size());
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], images.get(i));
+        }
+    }
+
+    @Test
+    public void testPbmRoundTrip() throws Exception {
+        BitonalImage bitmap = Jbig2Decoding.createBitmap(13, 9, 11);
+        File file = folder.newFile("bitmap.pbm");
+        Tools.writePbm(bitmap, file);
+        assertEquals(bitmap, Tools.readPbm(file));
+    }
+}
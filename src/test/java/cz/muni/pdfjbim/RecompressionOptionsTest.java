@@ -0,0 +1,49 @@
+package cz.muni.pdfjbim;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * tests immutable copy of recompression options
+ */
+public class RecompressionOptionsTest {
+
+    @Test
+    public void testImmutableCopy() {
+        RecompressionOptions options = new RecompressionOptions();
+        options.setThreads(3);
+        Set<Integer> pages = new HashSet<Integer>(Arrays.asList(1, 2));
+        options.setPagesToProcess(pages);
+
+        RecompressionOptions copy = options.immutableCopy();
+        assertTrue(copy.isImmutable());
+        assertFalse(options.isImmutable());
+        assertEquals(3, copy.getThreads());
+
+        // later changes of original don't affect the copy
+        options.setThreads(5);
+        pages.add(3);
+        assertEquals(3, copy.getThreads());
+        assertEquals(2, copy.getPagesToProcess().size());
+
+        try {
+            copy.setThreads(1);
+            fail("immutable options were changed");
+        } catch (IllegalStateException ex) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testRecompressorCopiesOptions() {
+        RecompressionOptions options = new RecompressionOptions();
+        options.setThreads(2);
+        PdfRecompressor recompressor = new PdfRecompressor(options);
+        options.setThreads(4);
+        assertEquals(2, recompressor.getOptions().getThreads());
+        assertTrue(recompressor.getOptions().isImmutable());
+    }
+}
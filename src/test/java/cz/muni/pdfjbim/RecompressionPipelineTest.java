@@ -0,0 +1,387 @@
+package cz.muni.pdfjbim;
+
+import com.itextpdf.text.Document;
+import com.itextpdf.text.Image;
+import com.itextpdf.text.pdf.PRStream;
+import com.itextpdf.text.pdf.PdfDictionary;
+import com.itextpdf.text.pdf.PdfIndirectReference;
+import com.itextpdf.text.pdf.PdfName;
+import com.itextpdf.text.pdf.PdfObject;
+import com.itextpdf.text.pdf.PdfReader;
+import com.itextpdf.text.pdf.PdfStamper;
+import com.itextpdf.text.pdf.PdfWriter;
+import cz.muni.pdfjbim.jbig2.BitonalImage;
+import cz.muni.pdfjbim.jbig2.EncodedChunk;
+import cz.muni.pdfjbim.jbig2.Jbig2Decoding;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+/**
+ * tests forming of chunks sharing global dictionary
+ */
+public class RecompressionPipelineTest {
+
+    private static final int PAGES = 4;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testChunksAreSplitWhenGlobalDataAreTooLarge() throws Exception {
+        RecompressionOptions options = new RecompressionOptions();
+        options.setEncoder(RecompressionOptions.ENCODER_JAVA_SYMBOL);
+        assertEquals(1, countGlobals(recompress(options, createPdf())));
+
+        options.setMaxGlobalDataSize(1);
+        assertEquals(PAGES, countGlobals(recompress(options, createPdf())));
+    }
+
+    @Test
+    public void testCacheIsWrittenOnlyOnMiss() throws Exception {
+        final AtomicInteger puts = new AtomicInteger();
+        Jbig2Cache cache = new Jbig2Cache(folder.newFolder("cache"), 1024 * 1024) {
+            @Override
+            public void put(String key, Jbig2ForPdf chunk) throws PdfRecompressionException {
+                puts.incrementAndGet();
+                super.put(key, chunk);
+            }
+        };
+        RecompressionOptions options = new RecompressionOptions();
+        options.setEncoder(RecompressionOptions.ENCODER_JAVA_SYMBOL);
+        options.setCache(cache);
+        recompress(options, createPdf());
+        assertEquals(1, puts.get());
+        assertEquals(1, countGlobals(recompress(options, createPdf())));
+        assertEquals(1, puts.get());
+        assertEquals(1, cache.getHits());
+
+        // only halves which are embedded are stored, not the chunk which is split
+        options.setMaxGlobalDataSize(1);
+        options.setImagesPerGlobalDictionary(2);
+        recompress(options, createPdf());
+        assertEquals(1 + PAGES, puts.get());
+    }
+
+    @Test
+    public void testExtractionAndReplacementShareReader() throws Exception {
+        RecompressionOptions options = new RecompressionOptions();
+        options.setEncoder(RecompressionOptions.ENCODER_JAVA);
+        options.setThreads(2);
+        options.setImagesPerGlobalDictionary(1);
+        RecompressionPipeline pipeline = new RecompressionPipeline(options,
+                new File(folder.getRoot(), "image").getPath(), new File(folder.getRoot(), "output").getPath());
+        PdfReader reader = new PdfReader(createPdf());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            assertEquals(PAGES, pipeline.run(reader, out));
+            // reader stays open for its owner
+            assertEquals(PAGES, reader.getNumberOfPages());
+        } finally {
+            reader.close();
+        }
+
+        PdfReader recompressed = new PdfReader(out.toByteArray());
+        for (int page = 1; page <= PAGES; page++) {
+            assertEquals(Jbig2Decoding.createBitmap(120, 80, page), decodeImage(recompressed, page));
+        }
+        recompressed.close();
+    }
+
+    @Test
+    public void testJbig2ImagesShareNewGlobalDictionary() throws Exception {
+        RecompressionOptions options = new RecompressionOptions();
+        options.setEncoder(RecompressionOptions.ENCODER_JAVA_SYMBOL);
+        options.setMaxGlobalDataSize(1);
+        byte[] pageByPage = recompress(options, createPdf());
+        assertEquals(PAGES, countGlobals(pageByPage));
+
+        options = new RecompressionOptions();
+        options.setEncoder(RecompressionOptions.ENCODER_JAVA_SYMBOL);
+        File output = folder.newFile("output.pdf");
+        FileUtils.writeByteArrayToFile(output, recompress(options, pageByPage));
+        assertEquals(1, countGlobals(FileUtils.readFileToByteArray(output)));
+
+        // old global dictionaries are dropped, reader in partial mode would see them through xref
+        PdfReader reader = Tools.openPdfPartially(output, null);
+        BitSet reachable = PdfImageCatalog.findReachableObjects(reader);
+        for (int i = 1; i < reader.getXrefSize(); i++) {
+            if (reader.getPdfObject(i) != null) {
+                assertTrue("object " + i + " is unreachable", reachable.get(i));
+            }
+        }
+        reader.close();
+    }
+
+    @Test
+    public void testEncoderFailureStopsRecompression() throws Exception {
+        RecompressionOptions options = new RecompressionOptions();
+        options.setEncoder(FailingEncoder.NAME);
+        options.setImagesPerGlobalDictionary(1);
+        options.setThreads(2);
+        FailingEncoder.THREADS.clear();
+        try {
+            new PdfRecompressor(options).recompress(new ByteArrayInputStream(createPdf()),
+                    new ByteArrayOutputStream());
+            fail("failure of encoder was ignored");
+        } catch (PdfRecompressionException ex) {
+            assertEquals(FailingEncoder.MESSAGE, ex.getMessage());
+        }
+        assertFalse(FailingEncoder.THREADS.isEmpty());
+        for (Thread thread : FailingEncoder.THREADS) {
+            thread.join(5000);
+            assertFalse(thread.isAlive());
+        }
+    }
+
+    @Test
+    public void testJbig2ImageIsNotDuplicateOfRawImageWithSameSamples() throws Exception {
+        // blank page becomes JBIG2 whose decoded samples are zeros as raw samples of black page
+        byte[] pdf = createPdf(new BitonalImage(120, 80), createBlackBitmap(120, 80));
+        RecompressionOptions options = new RecompressionOptions();
+        options.setEncoder(RecompressionOptions.ENCODER_JAVA);
+        options.setPagesToProcess(new HashSet<Integer>(Arrays.asList(1)));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals(1, new PdfRecompressor(options).recompress(new ByteArrayInputStream(pdf), out));
+
+        options.setPagesToProcess(null);
+        ByteArrayOutputStream recompressed = new ByteArrayOutputStream();
+        assertEquals(2, new PdfRecompressor(options).recompress(new ByteArrayInputStream(out.toByteArray()),
+                recompressed));
+        PdfReader reader = new PdfReader(recompressed.toByteArray());
+        assertEquals(new BitonalImage(120, 80), decodeImage(reader, 1));
+        assertEquals(createBlackBitmap(120, 80), decodeImage(reader, 2));
+        reader.close();
+    }
+
+    @Test
+    public void testIncrementalUpdateIsAppendedInPlace() throws Exception {
+        byte[] original = createPdf();
+        File pdf = folder.newFile("in-place.pdf");
+        FileUtils.writeByteArrayToFile(pdf, original);
+        RecompressionOptions options = new RecompressionOptions();
+        options.setEncoder(RecompressionOptions.ENCODER_JAVA);
+        options.setIncrementalUpdate(true);
+        assertEquals(PAGES, new PdfRecompressor(options).recompress(pdf, pdf));
+
+        byte[] updated = FileUtils.readFileToByteArray(pdf);
+        assertTrue(updated.length > original.length);
+        assertArrayEquals(original, Arrays.copyOf(updated, original.length));
+        PdfReader reader = new PdfReader(updated);
+        for (int page = 1; page <= PAGES; page++) {
+            assertEquals(Jbig2Decoding.createBitmap(120, 80, page), decodeImage(reader, page));
+        }
+        reader.close();
+    }
+
+    @Test
+    public void testFileWithPrefixIsNotUpdatedInPlace() throws Exception {
+        ByteArrayOutputStream prefixed = new ByteArrayOutputStream();
+        prefixed.write("garbage\n".getBytes(StandardCharsets.US_ASCII));
+        prefixed.write(createPdf());
+        File pdf = folder.newFile("prefixed.pdf");
+        FileUtils.writeByteArrayToFile(pdf, prefixed.toByteArray());
+        RecompressionOptions options = new RecompressionOptions();
+        options.setEncoder(RecompressionOptions.ENCODER_JAVA);
+        options.setIncrementalUpdate(true);
+        try {
+            new PdfRecompressor(options).recompress(pdf, pdf);
+            fail("file with prefix was updated in place");
+        } catch (PdfRecompressionException ex) {
+            // expected
+        }
+        assertArrayEquals(prefixed.toByteArray(), FileUtils.readFileToByteArray(pdf));
+    }
+
+    @Test
+    public void testOnlySelectedPagesAreRecompressed() throws Exception {
+        RecompressionOptions options = new RecompressionOptions();
+        options.setEncoder(RecompressionOptions.ENCODER_JAVA_SYMBOL);
+        options.setPagesToProcess(new HashSet<Integer>(Arrays.asList(2, 3)));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals(2, new PdfRecompressor(options).recompress(new ByteArrayInputStream(createPdf()), out));
+
+        PdfReader reader = new PdfReader(out.toByteArray());
+        for (int page = 1; page <= PAGES; page++) {
+            PdfDictionary xObjects = reader.getPageN(page).getAsDict(PdfName.RESOURCES).getAsDict(PdfName.XOBJECT);
+            PRStream image = (PRStream) PdfReader.getPdfObject(xObjects.get(xObjects.getKeys().iterator().next()));
+            boolean selected = (page == 2) || (page == 3);
+            assertEquals("page " + page, selected, PdfName.JBIG2DECODE.equals(image.getAsName(PdfName.FILTER)));
+        }
+        reader.close();
+    }
+
+    @Test
+    public void testUnreachableImagesAreRemoved() throws Exception {
+        // reader in partial mode reads objects through xref, so unreachable objects are visible
+        File input = folder.newFile("input.pdf");
+        FileUtils.writeByteArrayToFile(input, createPdfWithUnreachableImages());
+        assertEquals(PAGES, countImages(input));
+
+        RecompressionOptions options = new RecompressionOptions();
+        options.setEncoder(RecompressionOptions.ENCODER_JAVA);
+        options.setPartialRead(true);
+        File output = folder.newFile("output.pdf");
+        assertEquals(1, new PdfRecompressor(options).recompress(input, output));
+        assertEquals(1, countImages(output));
+
+        options.setRemoveUnreachableImages(false);
+        assertEquals(PAGES, new PdfRecompressor(options).recompress(input, output));
+        assertEquals(PAGES, countImages(output));
+    }
+
+    /**
+     * encoder failing on every chunk, registered only for tests
+     */
+    public static class FailingEncoder implements ImageEncoder {
+
+        static final String NAME = "failing-test";
+        static final String MESSAGE = "encoder failed on purpose";
+        static final List<Thread> THREADS = new CopyOnWriteArrayList<Thread>();
+
+        @Override
+        public String getName() {
+            return NAME;
+        }
+
+        @Override
+        public EncodedChunk encode(List<BitonalImage> images, RecompressionOptions options)
+                throws PdfRecompressionException {
+            THREADS.add(Thread.currentThread());
+            throw new PdfRecompressionException(MESSAGE);
+        }
+    }
+
+    private static int countImages(File pdf) throws Exception {
+        PdfReader reader = Tools.openPdfPartially(pdf, null);
+        int images = 0;
+        for (int i = 1; i < reader.getXrefSize(); i++) {
+            PdfObject obj = reader.getPdfObject(i);
+            if ((obj != null) && obj.isStream()
+                    && PdfName.IMAGE.equals(((PdfDictionary) obj).getAsName(PdfName.SUBTYPE))) {
+                images++;
+            }
+        }
+        reader.close();
+        return images;
+    }
+
+    /**
+     * @return PDF whose images except the first one were removed from pages by incremental update,
+     * so that they are left in the file
+     */
+    private static byte[] createPdfWithUnreachableImages() throws Exception {
+        PdfReader reader = new PdfReader(createPdf());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        PdfStamper stamper = new PdfStamper(reader, out, '\0', true);
+        for (int page = 2; page <= PAGES; page++) {
+            PdfDictionary pageDict = reader.getPageN(page);
+            PdfDictionary resources = pageDict.getAsDict(PdfName.RESOURCES);
+            resources.remove(PdfName.XOBJECT);
+            stamper.markUsed(pageDict);
+            stamper.markUsed(resources);
+        }
+        stamper.close();
+        reader.close();
+        return out.toByteArray();
+    }
+
+    /**
+     * @return recompressed PDF, all its images are expected to be recompressed
+     */
+    private static byte[] recompress(RecompressionOptions options, byte[] pdf) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int recompressed = new PdfRecompressor(options).recompress(new ByteArrayInputStream(pdf), out);
+        assertEquals(PAGES, recompressed);
+        return out.toByteArray();
+    }
+
+    /**
+     * @return number of different global dictionaries used by images of recompressed PDF
+     */
+    private static int countGlobals(byte[] pdf) throws Exception {
+        PdfReader reader = new PdfReader(pdf);
+        Set<Integer> globals = new HashSet<Integer>();
+        for (int page = 1; page <= PAGES; page++) {
+            PdfDictionary xObjects = reader.getPageN(page).getAsDict(PdfName.RESOURCES).getAsDict(PdfName.XOBJECT);
+            PRStream image = (PRStream) PdfReader.getPdfObject(xObjects.get(xObjects.getKeys().iterator().next()));
+            assertEquals(PdfName.JBIG2DECODE, image.getAsName(PdfName.FILTER));
+            PdfIndirectReference globalsRef = image.getAsDict(PdfName.DECODEPARMS).getAsIndirectObject(
+                    PdfName.JBIG2GLOBALS);
+            PRStream globalsStream = (PRStream) PdfReader.getPdfObject(globalsRef);
+            globals.add(globalsRef.getNumber());
+            // symbol coding is lossy => only dimensions of decoded image are checked
+            BitonalImage decoded = Jbig2Decoding.decode(PdfReader.getStreamBytesRaw(globalsStream),
+                    PdfReader.getStreamBytesRaw(image));
+            assertEquals(120, decoded.getWidth());
+            assertEquals(80, decoded.getHeight());
+        }
+        reader.close();
+        return globals.size();
+    }
+
+    /**
+     * @return JBIG2 image of the page decoded so that 1 is black
+     */
+    static BitonalImage decodeImage(PdfReader reader, int page) throws Exception {
+        PdfDictionary xObjects = reader.getPageN(page).getAsDict(PdfName.RESOURCES).getAsDict(PdfName.XOBJECT);
+        PRStream image = (PRStream) PdfReader.getPdfObject(xObjects.get(xObjects.getKeys().iterator().next()));
+        assertEquals(PdfName.JBIG2DECODE, image.getAsName(PdfName.FILTER));
+        PdfDictionary decodeParms = image.getAsDict(PdfName.DECODEPARMS);
+        PRStream globals = (decodeParms == null) ? null
+                : (PRStream) PdfReader.getPdfObject(decodeParms.get(PdfName.JBIG2GLOBALS));
+        return Jbig2Decoding.decode((globals == null) ? null : PdfReader.getStreamBytesRaw(globals),
+                PdfReader.getStreamBytesRaw(image));
+    }
+
+    private static BitonalImage createBlackBitmap(int width, int height) {
+        BitonalImage bitmap = new BitonalImage(width, height);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                bitmap.setPixel(x, y, 1);
+            }
+        }
+        return bitmap;
+    }
+
+    /**
+     * @return PDF with different bi-tonal image on each page
+     */
+    private static byte[] createPdf() throws Exception {
+        BitonalImage[] bitmaps = new BitonalImage[PAGES];
+        for (int page = 1; page <= PAGES; page++) {
+            bitmaps[page - 1] = Jbig2Decoding.createBitmap(120, 80, page);
+        }
+        return createPdf(bitmaps);
+    }
+
+    /**
+     * @return PDF with one bi-tonal image on each page
+     */
+    static byte[] createPdf(BitonalImage... bitmaps) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Document document = new Document();
+        PdfWriter.getInstance(document, out);
+        document.open();
+        for (BitonalImage bitmap : bitmaps) {
+            // samples of DeviceGray are black when 0
+            document.add(Image.getInstance(bitmap.getWidth(), bitmap.getHeight(), 1, 1, bitmap.toPackedRows(false)));
+            document.newPage();
+        }
+        document.close();
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,171 @@
+package cz.muni.pdfjbim;
+
+import com.itextpdf.text.Document;
+import com.itextpdf.text.Paragraph;
+import com.itextpdf.text.pdf.PdfReader;
+import com.itextpdf.text.pdf.PdfWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+/**
+ * tests HTTP recompression service on documents without images (jbig2enc is never run)
+ */
+public class RecompressionServerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private RecompressionServer server;
+
+    @After
+    public void tearDown() {
+        if (server != null) {
+            server.stop(1);
+        }
+    }
+
+    @Test
+    public void testRecompressAndSpool() throws Exception {
+        start(1, 1);
+        byte[] pdf = createPdf();
+
+        HttpURLConnection connection = post("/recompress", pdf);
+        assertEquals(200, connection.getResponseCode());
+        assertEquals("0", connection.getHeaderField("X-Recompressed-Images"));
+        assertEquals(1, new PdfReader(IOUtils.toByteArray(connection.getInputStream())).getNumberOfPages());
+
+        connection = post("/recompress?spool", pdf);
+        assertEquals(202, connection.getResponseCode());
+        String id = IOUtils.toString(connection.getInputStream(), StandardCharsets.UTF_8).trim();
+        int status = 202;
+        for (int i = 0; (i < 100) && (status == 202); i++) {
+            connection = (HttpURLConnection) url("/jobs/" + id).openConnection();
+            status = connection.getResponseCode();
+            if (status == 202) {
+                Thread.sleep(50);
+            }
+        }
+        assertEquals(200, status);
+        assertEquals(1, new PdfReader(IOUtils.toByteArray(connection.getInputStream())).getNumberOfPages());
+        // result is deleted once it has been fetched
+        connection = (HttpURLConnection) url("/jobs/" + id).openConnection();
+        assertEquals(404, connection.getResponseCode());
+        assertEquals(0, new File(folder.getRoot(), "spool").list().length);
+
+        connection = (HttpURLConnection) url("/jobs/unknown").openConnection();
+        assertEquals(404, connection.getResponseCode());
+        assertEquals(2, server.getCompleted());
+    }
+
+    @Test
+    public void testJobOutsideOfSpoolIsNotServed() throws Exception {
+        start(1, 1);
+        FileUtils.writeByteArrayToFile(new File(folder.getRoot(), "secret.pdf"), createPdf());
+        HttpURLConnection connection = (HttpURLConnection) url("/jobs/..%2Fsecret").openConnection();
+        assertEquals(404, connection.getResponseCode());
+        connection = (HttpURLConnection) url("/jobs/../secret").openConnection();
+        assertEquals(404, connection.getResponseCode());
+    }
+
+    @Test
+    public void testQueueFull() throws Exception {
+        start(1, 0);
+        // document whose body is never finished occupies the only place
+        try (Socket socket = new Socket(server.getAddress().getAddress(), server.getAddress().getPort())) {
+            OutputStream os = socket.getOutputStream();
+            os.write(("POST /recompress HTTP/1.1\r\nHost: localhost\r\nContent-Length: 1000\r\n\r\n%PDF")
+                    .getBytes(StandardCharsets.US_ASCII));
+            os.flush();
+            for (int i = 0; (i < 100) && (server.getQueueDepth() == 0); i++) {
+                Thread.sleep(50);
+            }
+            assertEquals(1, server.getQueueDepth());
+
+            HttpURLConnection connection = post("/recompress", createPdf());
+            assertEquals(429, connection.getResponseCode());
+            assertEquals(1, server.getRejected());
+
+            connection = (HttpURLConnection) url("/stats").openConnection();
+            String stats = IOUtils.toString(connection.getInputStream(), StandardCharsets.UTF_8);
+            assertTrue(stats.contains("queued=1\n"));
+            assertTrue(stats.contains("inFlight=0\n"));
+            assertTrue(stats.contains("rejected=1\n"));
+        }
+    }
+
+    @Test
+    public void testTooLargeDocument() throws Exception {
+        start(1, 1);
+        byte[] pdf = createPdf();
+        server.setMaxDocumentSize(pdf.length - 1);
+
+        // refused according to Content-Length before body is read
+        HttpURLConnection connection = post("/recompress", pdf);
+        assertEquals(413, connection.getResponseCode());
+
+        // length of chunked body is found out while reading it
+        connection = (HttpURLConnection) url("/recompress").openConnection();
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        connection.setChunkedStreamingMode(100);
+        try (OutputStream os = connection.getOutputStream()) {
+            os.write(pdf);
+        }
+        assertEquals(413, connection.getResponseCode());
+        assertEquals(0, server.getQueueDepth());
+        assertEquals(0, server.getRejected());
+
+        server.setMaxDocumentSize(pdf.length);
+        assertEquals(200, post("/recompress", pdf).getResponseCode());
+    }
+
+    private void start(int workers, int queueCapacity) throws Exception {
+        RecompressionOptions options = new RecompressionOptions();
+        options.setJbig2enc(folder.getRoot().getPath() + "/jbig2");
+        options.setWorkDir(folder.newFolder("work"));
+        server = new RecompressionServer(options, workers, queueCapacity, folder.newFolder("spool"));
+        server.start(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+    }
+
+    private URL url(String path) throws Exception {
+        return new URL("http", server.getAddress().getHostString(), server.getAddress().getPort(), path);
+    }
+
+    private HttpURLConnection post(String path, byte[] body) throws Exception {
+        HttpURLConnection connection = (HttpURLConnection) url(path).openConnection();
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        connection.setFixedLengthStreamingMode(body.length);
+        try (OutputStream os = connection.getOutputStream()) {
+            os.write(body);
+        } catch (IOException ex) {
+            // server may reject request before reading its body
+        }
+        return connection;
+    }
+
+    private static byte[] createPdf() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Document document = new Document();
+        PdfWriter.getInstance(document, out);
+        document.open();
+        document.add(new Paragraph("no images"));
+        document.close();
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,69 @@
+package cz.muni.pdfjbim;
+
+import cz.muni.pdfjbim.jbig2.Jbig2Decoding;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+/**
+ * tests exit codes and output of command line interface
+ */
+public class RunTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testExitCodes() throws Exception {
+        assertEquals(Run.EXIT_IO_ERROR, Run.getExitCode(new PdfRecompressionException("io", new IOException())));
+        assertEquals(Run.EXIT_FAILURE, Run.getExitCode(new PdfRecompressionException("other")));
+        assertEquals(Run.EXIT_INVALID_ARGUMENTS, runSilently(new String[0]));
+        assertEquals(Run.EXIT_INVALID_ARGUMENTS, runSilently(new String[]{"-input", "a.pdf", "-encoder", "unknown"}));
+    }
+
+    @Test
+    public void testSilentModePrintsNothing() throws Exception {
+        File input = folder.newFile("input.pdf");
+        FileUtils.writeByteArrayToFile(input, RecompressionPipelineTest.createPdf(
+                Jbig2Decoding.createBitmap(60, 30, 1)));
+        String output = new File(folder.getRoot(), "output.pdf").getPath();
+        String[] args = {"-input", input.getPath(), "-output", output, "-encoder", RecompressionOptions.ENCODER_JAVA,
+            "-workDir", folder.getRoot().getPath()};
+
+        String[] silentArgs = new String[args.length + 1];
+        System.arraycopy(args, 0, silentArgs, 0, args.length);
+        silentArgs[args.length] = "-q";
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+        assertEquals(Run.EXIT_SUCCESS, run(silentArgs, err));
+        assertEquals("", err.toString(StandardCharsets.UTF_8.name()));
+
+        err = new ByteArrayOutputStream();
+        assertEquals(Run.EXIT_SUCCESS, run(args, err));
+        assertTrue(err.toString(StandardCharsets.UTF_8.name()).startsWith(input.getPath() + ";"));
+        assertTrue(new File(output).isFile());
+    }
+
+    private static int runSilently(String[] args) throws Exception {
+        return run(args, new ByteArrayOutputStream());
+    }
+
+    /**
+     * runs command line interface with standard error output redirected
+     */
+    private static int run(String[] args, ByteArrayOutputStream err) throws Exception {
+        PrintStream originalErr = System.err;
+        System.setErr(new PrintStream(err, true, StandardCharsets.UTF_8.name()));
+        try {
+            return Run.run(args);
+        } finally {
+            System.setErr(originalErr);
+        }
+    }
+}
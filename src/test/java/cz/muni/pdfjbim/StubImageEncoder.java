@@ -0,0 +1,56 @@
+/*
+ *  Copyright 2016 Radim Hatlapatka.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package cz.muni.pdfjbim;
+
+import cz.muni.pdfjbim.jbig2.BitonalImage;
+import cz.muni.pdfjbim.jbig2.EncodedChunk;
+import cz.muni.pdfjbim.jbig2.GenericRegionEncoder;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * fast deterministic encoder for tests of the rest of recompression, each image is replaced
+ * by white image of the same size (content of images is ignored)
+ *
+ * @author Radim Hatlapatka (hata.radim@gmail.com)
+ */
+public class StubImageEncoder implements ImageEncoder {
+
+    /**
+     * name of encoder used by option -encoder
+     */
+    public static final String NAME = "stub";
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public EncodedChunk encode(List<BitonalImage> images, RecompressionOptions options) {
+        if (images == null) {
+            throw new NullPointerException("images");
+        }
+        GenericRegionEncoder encoder = new GenericRegionEncoder();
+        List<byte[]> imagesData = new ArrayList<byte[]>(images.size());
+        for (BitonalImage image : images) {
+            // all rows of white bitmap are typical => coding takes time proportional to height only
+            imagesData.add(encoder.encodePage(new BitonalImage(image.getWidth(), image.getHeight())));
+        }
+        return new EncodedChunk(null, imagesData);
+    }
+}
@@ -0,0 +1,130 @@
+package cz.muni.pdfjbim.jbig2;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * tests word-parallel operations of bi-tonal image against results computed pixel by pixel
+ */
+public class BitonalImageTest {
+
+    private final BitonalImage first = Jbig2Decoding.createBitmap(150, 37, 1);
+    private final BitonalImage second = Jbig2Decoding.createBitmap(150, 37, 2);
+
+    @Test
+    public void testConversions() throws Exception {
+        BitonalImage image = first;
+        assertEquals(image, BitonalImage.fromPackedRows(image.toPackedRows(true), 150, 37, true));
+
+        byte[] samples = image.toPackedRows(false);
+        assertEquals(image, BitonalImage.fromPackedRows(samples, 150, 37, false));
+        // 0 is black in samples of DeviceGray
+        assertEquals(1 - first.getPixel(3, 3), (samples[3 * 19] >> 4) & 1);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        image.writePbm(out);
+        assertEquals(image, BitonalImage.readPbm(new ByteArrayInputStream(out.toByteArray())));
+        byte[] commented = ("P4\n# comment\n150 37\n").getBytes("US-ASCII");
+        ByteArrayOutputStream withComment = new ByteArrayOutputStream();
+        withComment.write(commented);
+        withComment.write(image.toPackedRows(true));
+        assertEquals(image, BitonalImage.readPbm(new ByteArrayInputStream(withComment.toByteArray())));
+    }
+
+    @Test
+    public void testOperations() {
+        BitonalImage a = first;
+        BitonalImage b = second;
+        int black = 0;
+        int common = 0;
+        int different = 0;
+        for (int y = 0; y < 37; y++) {
+            for (int x = 0; x < 150; x++) {
+                int pa = a.getPixel(x, y);
+                int pb = b.getPixel(x, y);
+                black += pa;
+                common += pa & pb;
+                different += pa ^ pb;
+                assertEquals(pa & pb, a.and(b).getPixel(x, y));
+                assertEquals(pa | pb, a.or(b).getPixel(x, y));
+                assertEquals(pa ^ pb, a.xor(b).getPixel(x, y));
+            }
+        }
+        assertEquals(black, a.countBlackPixels());
+        assertEquals(common, a.countCommonBlackPixels(b));
+        assertEquals(different, a.countDifferentPixels(b));
+        assertTrue(a.xor(a).isBlank());
+        assertFalse(a.isBlank());
+    }
+
+    @Test
+    public void testViews() {
+        BitonalImage image = first;
+        // unaligned view crossing word boundary
+        BitonalImage view = image.view(37, 5, 100, 20);
+        BitonalImage copy = image.copy(37, 5, 100, 20);
+        assertEquals(copy, view);
+        for (int y = 0; y < 20; y++) {
+            for (int x = 0; x < 100; x++) {
+                assertEquals(first.getPixel(37 + x, 5 + y), view.getPixel(x, y));
+            }
+            assertEquals(copy.getRowHash(y), view.getRowHash(y));
+        }
+        assertEquals(copy.hashCode(), view.hashCode());
+        assertEquals(view.view(10, 3, 60, 5), image.copy(47, 8, 60, 5));
+
+        // pixels are shared
+        view.setPixel(0, 0, 1 - view.getPixel(0, 0));
+        assertEquals(view.getPixel(0, 0), image.getPixel(37, 5));
+        assertFalse(copy.equals(view));
+    }
+
+    @Test
+    public void testRowHash() {
+        BitonalImage image = first;
+        // rows 0-2 of each ten rows are white
+        assertEquals(image.getRowHash(0), image.getRowHash(11));
+        assertFalse(image.getRowHash(3) == image.getRowHash(4));
+        assertTrue(image.isRowWhite(11));
+        assertFalse(image.isRowWhite(3));
+        assertTrue(image.rowEquals(0, 11));
+        assertFalse(image.rowEquals(3, 4));
+        // pixels of view beyond its width are ignored
+        BitonalImage view = image.view(1, 0, 149, 37);
+        view.setPixel(0, 0, 1);
+        assertFalse(view.isRowWhite(0));
+        assertTrue(image.view(0, 0, 1, 37).isRowWhite(0));
+    }
+
+    @Test
+    public void testFromImage() {
+        BufferedImage gray = new BufferedImage(150, 37, BufferedImage.TYPE_BYTE_GRAY);
+        BufferedImage rgb = new BufferedImage(150, 37, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < 37; y++) {
+            for (int x = 0; x < 150; x++) {
+                // dark gray is black and light gray is white with threshold 128
+                int luminance = (first.getPixel(x, y) != 0) ? 100 : 150;
+                gray.getRaster().setSample(x, y, 0, luminance);
+                rgb.setRGB(x, y, (luminance << 16) | (luminance << 8) | luminance);
+            }
+        }
+        assertEquals(first, BitonalImage.fromImage(gray, 128));
+        assertEquals(first, BitonalImage.fromImage(rgb, 128));
+    }
+
+    @Test
+    public void testScale() {
+        BitonalImage image = first;
+        assertEquals(image, image.scale(150, 37));
+        BitonalImage doubled = image.scale(300, 74);
+        for (int y = 0; y < 74; y++) {
+            for (int x = 0; x < 300; x++) {
+                assertEquals(first.getPixel(x / 2, y / 2), doubled.getPixel(x, y));
+            }
+        }
+        assertEquals(image, doubled.scale(150, 37));
+    }
+}
@@ -0,0 +1,50 @@
+package cz.muni.pdfjbim.jbig2;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * tests generic region encoder by decoding its output by levigo jbig2-imageio
+ */
+public class GenericRegionEncoderTest {
+
+    @Test
+    public void testEncodePage() throws Exception {
+        GenericRegionEncoder encoder = new GenericRegionEncoder();
+        // widths not divisible by 8 check padding, the same encoder is reused for several pages
+        int[][] sizes = {{1, 1}, {7, 3}, {64, 64}, {203, 97}};
+        for (int[] size : sizes) {
+            BitonalImage bitmap = Jbig2Decoding.createBitmap(size[0], size[1], size[0]);
+            BitonalImage decoded = Jbig2Decoding.decode(null, encoder.encodePage(bitmap));
+            assertEquals(bitmap, decoded);
+        }
+    }
+
+    @Test
+    public void testEncodeView() throws Exception {
+        // view starting within word has pixels of the image outside of it
+        BitonalImage image = Jbig2Decoding.createBitmap(300, 60, 3);
+        BitonalImage view = image.view(77, 13, 150, 40);
+        assertEquals(view, Jbig2Decoding.decode(null, new GenericRegionEncoder().encodePage(view)));
+    }
+
+    @Test
+    public void testWhitePage() throws Exception {
+        BitonalImage bitmap = new BitonalImage(2000, 1000);
+        byte[] page = new GenericRegionEncoder().encodePage(bitmap);
+        // all rows are predicted => only few bytes of coded data
+        assertTrue(page.length < 100);
+        assertEquals(bitmap, Jbig2Decoding.decode(null, page));
+    }
+
+    @Test
+    public void testBlackPage() throws Exception {
+        BitonalImage bitmap = new BitonalImage(100, 50);
+        for (int y = 0; y < 50; y++) {
+            for (int x = 0; x < 100; x++) {
+                bitmap.setPixel(x, y, 1);
+            }
+        }
+        assertEquals(bitmap, Jbig2Decoding.decode(null, new GenericRegionEncoder().encodePage(bitmap)));
+    }
+}
@@ -0,0 +1,54 @@
+package cz.muni.pdfjbim.jbig2;
+
+import com.levigo.jbig2.JBIG2ImageReader;
+import com.levigo.jbig2.JBIG2ImageReaderSpi;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+import java.io.ByteArrayInputStream;
+import java.util.Random;
+
+/**
+ * decodes JBIG2 streams embedded in PDF by levigo jbig2-imageio to verify encoders
+ */
+public class Jbig2Decoding {
+
+    private Jbig2Decoding() {
+    }
+
+    /**
+     * @param globalData global segments or null
+     * @param pageData page segments as stored in PDF stream
+     * @return decoded page
+     */
+    public static BitonalImage decode(byte[] globalData, byte[] pageData) throws IOException {
+        JBIG2ImageReader reader = new JBIG2ImageReader(new JBIG2ImageReaderSpi());
+        if (globalData != null) {
+            reader.setGlobals(reader.processGlobals(
+                    new MemoryCacheImageInputStream(new ByteArrayInputStream(globalData))));
+        }
+        reader.setInput(new MemoryCacheImageInputStream(new ByteArrayInputStream(pageData)));
+        BufferedImage image = reader.read(0, reader.getDefaultReadParam());
+        return BitonalImage.fromImage(image, 128);
+    }
+
+    /**
+     * @return bitmap containing random noise, white rows and filled rectangles
+     */
+    public static BitonalImage createBitmap(int width, int height, long seed) {
+        Random random = new Random(seed);
+        BitonalImage bitmap = new BitonalImage(width, height);
+        for (int y = 0; y < height; y++) {
+            if ((y % 10) < 3) {
+                continue;
+            }
+            for (int x = 0; x < width; x++) {
+                boolean inRectangle = ((x / 16) % 3 == 0) && ((y / 8) % 2 == 0);
+                if (inRectangle || (random.nextInt(10) == 0)) {
+                    bitmap.setPixel(x, y, 1);
+                }
+            }
+        }
+        return bitmap;
+    }
+}
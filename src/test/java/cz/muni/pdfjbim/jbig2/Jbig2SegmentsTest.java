@@ -0,0 +1,153 @@
+package cz.muni.pdfjbim.jbig2;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * tests operations on JBIG2 segments by decoding their output by levigo jbig2-imageio
+ */
+public class Jbig2SegmentsTest {
+
+    @Test
+    public void testReadAndWriteKeepsSegments() throws Exception {
+        EncodedChunk chunk = encode(0, 2);
+        byte[] pageData = chunk.getPagesData().get(1);
+        List<Segment> segments = SegmentReader.readSegments(pageData);
+        assertEquals(SegmentWriter.PAGE_INFORMATION, segments.get(0).getType());
+        assertArrayEquals(pageData, Jbig2Segments.write(segments));
+        assertArrayEquals(chunk.getGlobalData(), Jbig2Segments.write(
+                SegmentReader.readSegments(chunk.getGlobalData())));
+
+        // long form of referred segments and 4 bytes long page association
+        int[] referred = new int[10];
+        for (int i = 0; i < referred.length; i++) {
+            referred[i] = 300 + i;
+        }
+        Segment segment = new Segment(70000, SegmentWriter.IMMEDIATE_TEXT_REGION, referred, 1000, new byte[]{1, 2});
+        Segment read = SegmentReader.readSegments(Jbig2Segments.write(Arrays.asList(segment))).get(0);
+        assertEquals(70000, read.getNumber());
+        assertArrayEquals(referred, read.getReferredSegments());
+        assertEquals(1000, read.getPage());
+        assertArrayEquals(new byte[]{1, 2}, read.getData());
+    }
+
+    @Test
+    public void testMergedChunksShareGlobals() throws Exception {
+        EncodedChunk first = encode(0, 2);
+        EncodedChunk second = encode(10, 1);
+        EncodedChunk merged = Jbig2Segments.merge(Arrays.asList(first, second));
+        assertEquals(3, merged.getPagesData().size());
+        assertEquals(SegmentReader.readSegments(first.getGlobalData()).size()
+                + SegmentReader.readSegments(second.getGlobalData()).size(),
+                SegmentReader.readSegments(merged.getGlobalData()).size());
+
+        List<byte[]> originalPages = new ArrayList<byte[]>(first.getPagesData());
+        originalPages.addAll(second.getPagesData());
+        for (int i = 0; i < originalPages.size(); i++) {
+            EncodedChunk original = (i < 2) ? first : second;
+            Jbig2Segments.validate(merged.getGlobalData(), merged.getPagesData().get(i));
+            assertEquals(Jbig2Decoding.decode(original.getGlobalData(), originalPages.get(i)),
+                    Jbig2Decoding.decode(merged.getGlobalData(), merged.getPagesData().get(i)));
+        }
+    }
+
+    @Test
+    public void testUnusedGlobalsArePruned() throws Exception {
+        EncodedChunk first = encode(0, 1);
+        EncodedChunk second = encode(10, 1);
+        EncodedChunk merged = Jbig2Segments.merge(Arrays.asList(first, second));
+        assertSame(merged, Jbig2Segments.prune(merged));
+
+        EncodedChunk secondOnly = Jbig2Segments.prune(new EncodedChunk(merged.getGlobalData(),
+                merged.getPagesData().subList(1, 2)));
+        assertEquals(SegmentReader.readSegments(second.getGlobalData()).size(),
+                SegmentReader.readSegments(secondOnly.getGlobalData()).size());
+        Jbig2Segments.validate(secondOnly.getGlobalData(), secondOnly.getPagesData().get(0));
+        assertEquals(Jbig2Decoding.decode(second.getGlobalData(), second.getPagesData().get(0)),
+                Jbig2Decoding.decode(secondOnly.getGlobalData(), secondOnly.getPagesData().get(0)));
+    }
+
+    @Test
+    public void testFileIsSplitIntoPages() throws Exception {
+        EncodedChunk chunk = encode(0, 2);
+        List<Segment> globals = SegmentReader.readSegments(chunk.getGlobalData());
+        Map<Integer, Integer> numbers = new HashMap<Integer, Integer>();
+        List<Segment> segments = new ArrayList<Segment>(Jbig2Segments.renumber(globals, 0, 0, numbers));
+        for (int page = 1; page <= 2; page++) {
+            segments.addAll(Jbig2Segments.renumber(SegmentReader.readSegments(chunk.getPagesData().get(page - 1)),
+                    segments.size(), page, new HashMap<Integer, Integer>(numbers)));
+        }
+        segments.add(new Segment(segments.size(), SegmentWriter.END_OF_FILE, new int[0], 0, new byte[0]));
+
+        ByteArrayOutputStream file = new ByteArrayOutputStream();
+        file.write(SegmentReader.FILE_ID);
+        // sequential organization, number of pages is known
+        file.write(new byte[]{1, 0, 0, 0, 2});
+        file.write(Jbig2Segments.write(segments));
+        assertTrue(SegmentReader.isFile(file.toByteArray()));
+
+        EncodedChunk split = Jbig2Segments.split(file.toByteArray());
+        assertArrayEquals(chunk.getGlobalData(), split.getGlobalData());
+        assertEquals(2, split.getPagesData().size());
+        for (int i = 0; i < 2; i++) {
+            assertArrayEquals(chunk.getPagesData().get(i), split.getPagesData().get(i));
+        }
+    }
+
+    @Test
+    public void testInvalidStreamIsRejected() throws Exception {
+        EncodedChunk chunk = encode(0, 1);
+        Jbig2Segments.validate(chunk.getGlobalData(), chunk.getPagesData().get(0));
+        assertInvalid(null, chunk.getPagesData().get(0));
+        assertInvalid(chunk.getGlobalData(), Arrays.copyOf(chunk.getPagesData().get(0), 40));
+
+        SegmentWriter writer = new SegmentWriter(0);
+        writer.writeSegment(SegmentWriter.IMMEDIATE_GENERIC_REGION, new int[0], 1, new byte[0]);
+        writer.writePageInformation(1, 10, 10, 0);
+        assertInvalid(null, writer.toByteArray());
+    }
+
+    private static void assertInvalid(byte[] globalData, byte[] pageData) {
+        try {
+            Jbig2Segments.validate(globalData, pageData);
+            fail("invalid stream was accepted");
+        } catch (IOException ex) {
+            // expected
+        }
+    }
+
+    /**
+     * @return lossless chunk of pages composed of glyphs given by seed
+     */
+    private static EncodedChunk encode(long seed, int pageCount) throws Exception {
+        List<BitonalImage> glyphs = new ArrayList<BitonalImage>();
+        for (int i = 0; i < 5; i++) {
+            glyphs.add(Jbig2Decoding.createBitmap(6 + i, 9 + i % 3, seed + i));
+        }
+        List<BitonalImage> pages = new ArrayList<BitonalImage>();
+        for (int i = 0; i < pageCount; i++) {
+            BitonalImage page = new BitonalImage(120, 40);
+            int x = 2 + i;
+            for (int g = 0; g < 12; g++) {
+                BitonalImage glyph = glyphs.get((g + i) % glyphs.size());
+                for (int gy = 0; gy < glyph.getHeight(); gy++) {
+                    for (int gx = 0; gx < glyph.getWidth(); gx++) {
+                        if (glyph.getPixel(gx, gy) != 0) {
+                            page.setPixel(x + gx, 10 + gy, 1);
+                        }
+                    }
+                }
+                x += glyph.getWidth() + 2;
+            }
+            pages.add(page);
+        }
+        return new SymbolEncoder(1, null).encode(pages);
+    }
+}
@@ -0,0 +1,107 @@
+package cz.muni.pdfjbim.jbig2;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * tests symbol encoder by decoding its output by levigo jbig2-imageio
+ */
+public class SymbolEncoderTest {
+
+    @Test
+    public void testLosslessPagesSharingDictionary() throws Exception {
+        List<BitonalImage> glyphs = new ArrayList<BitonalImage>();
+        for (int i = 0; i < 20; i++) {
+            glyphs.add(Jbig2Decoding.createBitmap(6 + i % 5, 9 + i % 4, i));
+        }
+        List<BitonalImage> pages = Arrays.asList(createPage(glyphs, 1), createPage(glyphs, 2),
+                new BitonalImage(50, 40));
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            SymbolEncoder encoder = new SymbolEncoder(1, executor);
+            encoder.setMaxSymbolSize(64);
+            EncodedChunk chunk = encoder.encode(pages);
+            assertNotNull(chunk.getGlobalData());
+            assertEquals(pages.size(), chunk.getPagesData().size());
+            for (int i = 0; i < pages.size(); i++) {
+                assertEquals(pages.get(i), Jbig2Decoding.decode(chunk.getGlobalData(), chunk.getPagesData().get(i)));
+            }
+            // the same output is produced without executor
+            EncodedChunk sequential = new SymbolEncoder(1, null).encode(pages);
+            assertEquals(Arrays.toString(chunk.getGlobalData()), Arrays.toString(sequential.getGlobalData()));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testSingleSymbol() throws Exception {
+        BitonalImage page = new BitonalImage(40, 20);
+        for (int x = 3; x < 40; x += 5) {
+            page.setPixel(x, 10, 1);
+            page.setPixel(x + 1, 11, 1);
+        }
+        EncodedChunk chunk = new SymbolEncoder(0.85, null).encode(Arrays.asList(page));
+        assertEquals(page, Jbig2Decoding.decode(chunk.getGlobalData(), chunk.getPagesData().get(0)));
+    }
+
+    @Test
+    public void testSimilarComponentsShareSymbol() throws Exception {
+        BitonalImage glyph = new BitonalImage(10, 10);
+        for (int i = 0; i < 10; i++) {
+            glyph.setPixel(i, i, 1);
+            glyph.setPixel(i, 9 - i, 1);
+            glyph.setPixel(i, 4, 1);
+            glyph.setPixel(i, 5, 1);
+        }
+        BitonalImage damaged = glyph.copy();
+        damaged.setPixel(0, 4, 0);
+
+        SymbolClassifier.Classification lossy = new SymbolClassifier(0.85).classify(
+                Arrays.asList(glyph, damaged), null);
+        assertEquals(1, lossy.getRepresentatives().size());
+        assertEquals(lossy.getClassOf(0), lossy.getClassOf(1));
+        SymbolClassifier.Classification lossless = new SymbolClassifier(1).classify(
+                Arrays.asList(glyph, damaged), null);
+        assertEquals(2, lossless.getRepresentatives().size());
+    }
+
+    /**
+     * @return page containing lines of glyphs and frame too big to be symbol
+     */
+    private static BitonalImage createPage(List<BitonalImage> glyphs, long seed) {
+        Random random = new Random(seed);
+        BitonalImage page = new BitonalImage(400, 300);
+        for (int x = 0; x < 400; x++) {
+            page.setPixel(x, 0, 1);
+            page.setPixel(x, 299, 1);
+        }
+        for (int y = 0; y < 300; y++) {
+            page.setPixel(0, y, 1);
+            page.setPixel(399, y, 1);
+        }
+        for (int line = 20; line < 280; line += 20) {
+            int x = 10 + random.nextInt(5);
+            while (x < 370) {
+                BitonalImage glyph = glyphs.get(random.nextInt(glyphs.size()));
+                int y = line - glyph.getHeight() + random.nextInt(2);
+                for (int gy = 0; gy < glyph.getHeight(); gy++) {
+                    for (int gx = 0; gx < glyph.getWidth(); gx++) {
+                        if (glyph.getPixel(gx, gy) != 0) {
+                            page.setPixel(x + gx, y + gy, 1);
+                        }
+                    }
+                }
+                x += glyph.getWidth() + 2 + random.nextInt(6);
+            }
+        }
+        return page;
+    }
+}